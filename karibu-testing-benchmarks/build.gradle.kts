@@ -0,0 +1,86 @@
+import groovy.json.JsonSlurper
+
+plugins {
+    id("me.champeau.jmh") version "0.7.3"
+}
+
+dependencies {
+    jmhImplementation(project(":karibu-testing-v10"))
+    jmhImplementation(libs.vaadin.stable.all)
+    jmhImplementation(libs.karibudsl)
+    jmhImplementation(libs.slf4j.simple)
+}
+
+val jmhResults: Provider<RegularFile> = layout.buildDirectory.file("results/jmh/results.json")
+
+// not published to Maven Central: run the benchmarks via `./gradlew :karibu-testing-benchmarks:jmh`
+jmh {
+    warmupIterations = 2
+    iterations = 5
+    fork = 1
+    resultFormat = "JSON"
+    resultsFile = jmhResults
+    // e.g. `-Pbenchmarks=GridBenchmark` runs just the benchmarks matching given regex
+    (findProperty("benchmarks") as String?)?.let { includes = listOf(it) }
+}
+
+/**
+ * Stores the outcome of the last `jmh` run as the baseline for [checkBenchmarks].
+ */
+val saveBenchmarkBaseline by tasks.registering(Copy::class) {
+    group = "benchmark"
+    description = "Stores the last JMH results as the baseline for checkBenchmarks"
+    mustRunAfter(tasks.named("jmh"))
+    from(jmhResults)
+    into(layout.projectDirectory.dir("baseline"))
+}
+
+/**
+ * Compares the outcome of the last `jmh` run against a baseline (`baseline/results.json` by default; `-PbenchmarkBaseline=file`
+ * overrides that), and fails if any benchmark got slower by more than 10% (`-PbenchmarkThreshold=0.25` overrides that).
+ */
+val checkBenchmarks by tasks.registering {
+    group = "benchmark"
+    description = "Fails if the last JMH results are slower than the baseline"
+    mustRunAfter(tasks.named("jmh"))
+    val baselineFile: File = file(findProperty("benchmarkBaseline") ?: "baseline/results.json")
+    val threshold: Double = (findProperty("benchmarkThreshold") as String?)?.toDouble() ?: 0.10
+    val resultsFile: File = jmhResults.get().asFile
+    inputs.files(baselineFile, resultsFile)
+    doLast {
+        check(baselineFile.exists()) { "$baselineFile doesn't exist; run `jmh saveBenchmarkBaseline` on the baseline commit first" }
+        check(resultsFile.exists()) { "$resultsFile doesn't exist; run the `jmh` task first" }
+        val baseline: Map<String, BenchmarkScore> = readBenchmarkScores(baselineFile)
+        val current: Map<String, BenchmarkScore> = readBenchmarkScores(resultsFile)
+        val regressions = mutableListOf<String>()
+        for ((name, score) in current) {
+            val base: BenchmarkScore = baseline[name] ?: continue
+            // for throughput, higher is better; for all other modes lower is better
+            val change: Double = if (score.mode == "thrpt") (base.score - score.score) / base.score else (score.score - base.score) / base.score
+            val line = "$name: ${"%.3f".format(base.score)} -> ${"%.3f".format(score.score)} ${score.unit} (${"%.1f".format(Math.abs(change) * 100)}% ${if (change > 0) "worse" else "better"})"
+            logger.lifecycle(line)
+            if (change > threshold) {
+                regressions.add(line)
+            }
+        }
+        if (regressions.isNotEmpty()) {
+            throw GradleException("Benchmarks regressed by more than ${threshold * 100}%:\n${regressions.joinToString("\n")}")
+        }
+    }
+}
+
+data class BenchmarkScore(val mode: String, val score: Double, val unit: String)
+
+/**
+ * Reads the JMH JSON results. The key is the benchmark name followed by the parameters, e.g. `GridBenchmark.get{rows=1000}`.
+ */
+@Suppress("UNCHECKED_CAST")
+fun readBenchmarkScores(file: File): Map<String, BenchmarkScore> {
+    val results = JsonSlurper().parse(file) as List<Map<String, Any?>>
+    return results.associate { result ->
+        val params = (result["params"] as Map<String, Any?>?).orEmpty()
+        val name = (result["benchmark"] as String).split('.').takeLast(2).joinToString(".") + params
+        val metric = result["primaryMetric"] as Map<String, Any?>
+        name to BenchmarkScore(result["mode"] as String, (metric["score"] as Number).toDouble(), metric["scoreUnit"] as String)
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.mvysny.kaributesting.benchmarks
+
+import com.github.mvysny.kaributesting.v10.MockVaadin
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.component.button.Button
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures [MockVaadin.clientRoundtrip] on a UI with given number of components, with and without
+ * a pending change.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ClientRoundtripBenchmark {
+    @Param("100", "1000", "10000", "50000")
+    @JvmField
+    var components: Int = 0
+
+    private lateinit var button: Button
+    private var counter: Int = 0
+
+    @Setup
+    fun setup() {
+        MockVaadin.setup()
+        UI.getCurrent().syntheticRows(components)
+        button = Button()
+        UI.getCurrent().add(button)
+    }
+
+    @TearDown
+    fun tearDown() {
+        MockVaadin.tearDown()
+    }
+
+    @Benchmark
+    fun clean() {
+        MockVaadin.clientRoundtrip()
+    }
+
+    @Benchmark
+    fun withChange() {
+        button.text = "${counter++}"
+        MockVaadin.clientRoundtrip()
+    }
+}
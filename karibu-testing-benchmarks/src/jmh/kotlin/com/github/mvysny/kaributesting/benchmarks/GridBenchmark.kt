@@ -0,0 +1,71 @@
+package com.github.mvysny.kaributesting.benchmarks
+
+import com.github.mvysny.kaributesting.v10.MockVaadin
+import com.github.mvysny.kaributesting.v10._get
+import com.github.mvysny.kaributesting.v10.FormattedRows
+import com.github.mvysny.kaributesting.v10._getFormattedRow
+import com.github.mvysny.kaributesting.v10._getFormattedRows
+import com.github.mvysny.kaributesting.v10._size
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.component.grid.Grid
+import com.vaadin.flow.data.renderer.NumberRenderer
+import org.openjdk.jmh.annotations.*
+import java.text.DecimalFormat
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures [Grid] row access on an in-memory data provider with given number of rows.
+ * Reads rows spread over the entire grid, not just the first one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class GridBenchmark {
+    @Param("1000", "100000")
+    @JvmField
+    var rows: Int = 0
+
+    private lateinit var grid: Grid<Person>
+    private var nextRow: Int = 0
+
+    @Setup
+    fun setup() {
+        MockVaadin.setup()
+        grid = Grid<Person>().apply {
+            addColumn { it.id }.setHeader("ID")
+            addColumn { it.name }.setHeader("Name")
+            addColumn { it.age }.setHeader("Age")
+            addColumn(NumberRenderer<Person>({ it.salary }, DecimalFormat("#,##0.00"))).setHeader("Salary")
+            setItems(people(rows))
+        }
+        UI.getCurrent().add(grid)
+    }
+
+    @TearDown
+    fun tearDown() {
+        MockVaadin.tearDown()
+    }
+
+    private fun nextRow(): Int {
+        nextRow = (nextRow + 7919) % rows
+        return nextRow
+    }
+
+    @Benchmark
+    fun get(): Person = grid._get(nextRow())
+
+    @Benchmark
+    fun getFormattedRow(): List<String> = grid._getFormattedRow(nextRow())
+
+    /**
+     * Formats 100 rows at once; compare with 100 times [getFormattedRow].
+     */
+    @Benchmark
+    fun getFormattedRows(): FormattedRows {
+        val first: Int = nextRow().coerceAtMost(rows - 100)
+        return grid._getFormattedRows(first until first + 100)
+    }
+
+    @Benchmark
+    fun size(): Int = grid._size()
+}
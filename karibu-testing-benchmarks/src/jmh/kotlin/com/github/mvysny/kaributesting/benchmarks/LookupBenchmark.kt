@@ -0,0 +1,59 @@
+package com.github.mvysny.kaributesting.benchmarks
+
+import com.github.mvysny.kaributesting.v10.KaribuConfig
+import com.github.mvysny.kaributesting.v10.MockVaadin
+import com.github.mvysny.kaributesting.v10._find
+import com.github.mvysny.kaributesting.v10._get
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.component.button.Button
+import com.vaadin.flow.component.html.Div
+import com.vaadin.flow.component.textfield.TextField
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures [_get] and [_find] on a UI with given number of components, including the client roundtrip
+ * performed by the default [com.github.mvysny.kaributesting.v10.TestingLifecycleHook].
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class LookupBenchmark {
+    @Param("100", "1000", "10000", "50000")
+    @JvmField
+    var components: Int = 0
+
+    /**
+     * Toggles [KaribuConfig.indexComponentLookups] and [KaribuConfig.skipCleanRoundtrips].
+     */
+    @Param("false", "true")
+    @JvmField
+    var optimized: Boolean = false
+
+    @Setup
+    fun setup() {
+        KaribuConfig.indexComponentLookups = optimized
+        KaribuConfig.skipCleanRoundtrips = optimized
+        MockVaadin.setup()
+        UI.getCurrent().syntheticRows(components)
+    }
+
+    @TearDown
+    fun tearDown() {
+        MockVaadin.tearDown()
+        KaribuConfig.indexComponentLookups = false
+        KaribuConfig.skipCleanRoundtrips = false
+    }
+
+    @Benchmark
+    fun getById(): Div = _get<Div> { id = "last" }
+
+    @Benchmark
+    fun getByLabel(): TextField = _get<TextField> { label = "Field 10" }
+
+    @Benchmark
+    fun findByClass(): List<Button> = _find<Button>()
+
+    @Benchmark
+    fun findByClassName(): List<TextField> = _find<TextField> { classes = "important" }
+}
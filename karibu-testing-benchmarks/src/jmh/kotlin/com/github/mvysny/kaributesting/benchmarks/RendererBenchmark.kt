@@ -0,0 +1,69 @@
+package com.github.mvysny.kaributesting.benchmarks
+
+import com.github.mvysny.kaributesting.v10._getPresentationHtml
+import com.github.mvysny.kaributesting.v10._getPresentationValue
+import com.github.mvysny.kaributools.textRecursively
+import com.github.mvysny.kaributools.valueProvider
+import com.vaadin.flow.data.renderer.BasicRenderer
+import com.vaadin.flow.data.renderer.LitRenderer
+import com.vaadin.flow.data.renderer.NumberRenderer
+import org.jsoup.Jsoup
+import org.openjdk.jmh.annotations.*
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.reflect.Method
+import java.text.DecimalFormat
+import java.util.concurrent.TimeUnit
+
+private val getFormattedValueMethod: Method =
+    BasicRenderer::class.java.getDeclaredMethod("getFormattedValue", Object::class.java).apply { isAccessible = true }
+
+private val getFormattedValueHandle: MethodHandle = MethodHandles.lookup().unreflect(getFormattedValueMethod)
+
+/**
+ * Formats a Grid cell via `BasicRenderer.getFormattedValue()`: compares the pre-2.7.3 reflective
+ * [Method.invoke] call with a [MethodHandle] held in a `static final` field, which is what Karibu-Testing uses since 2.7.3,
+ * and with [_getPresentationValue] itself. See [GridBenchmark.getFormattedRow] for the entire row.
+ *
+ * Also formats a [LitRenderer] cell: [litRendererJsoup] parses the rendered HTML via Jsoup to get the text, which is
+ * what Karibu-Testing did before 2.7.3; [litRenderer] uses the precompiled template.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class RendererBenchmark {
+    private val renderer: NumberRenderer<Person> = NumberRenderer<Person>({ it.salary }, DecimalFormat("#,##0.00"))
+    private val litRenderer: LitRenderer<Person> =
+        LitRenderer.of<Person>("<span><b>\${item.name}</b> (\${item.age})</span> <a href='person/\${item.id}'>Edit</a>")
+            .withProperty("id") { it.id }
+            .withProperty("name") { it.name }
+            .withProperty("age") { it.age }
+    private val people: List<Person> = people(1000)
+    private var nextRow: Int = 0
+
+    private fun nextPerson(): Person {
+        nextRow = (nextRow + 1) % people.size
+        return people[nextRow]
+    }
+
+    @Benchmark
+    fun reflection(): String? {
+        val value: Any? = renderer.valueProvider.apply(nextPerson())
+        return getFormattedValueMethod.invoke(renderer, value) as String?
+    }
+
+    @Benchmark
+    fun methodHandle(): String? {
+        val value: Any? = renderer.valueProvider.apply(nextPerson())
+        return getFormattedValueHandle.invoke(renderer, value) as String?
+    }
+
+    @Benchmark
+    fun getPresentationValue(): String? = renderer._getPresentationValue(nextPerson())
+
+    @Benchmark
+    fun litRendererJsoup(): String = Jsoup.parseBodyFragment(litRenderer._getPresentationHtml(nextPerson())).body().textRecursively
+
+    @Benchmark
+    fun litRenderer(): String? = litRenderer._getPresentationValue(nextPerson())
+}
@@ -0,0 +1,68 @@
+package com.github.mvysny.kaributesting.benchmarks
+
+import com.github.mvysny.kaributesting.v10.KaribuConfig
+import com.github.mvysny.kaributesting.v10.SearchSpec
+import com.github.mvysny.kaributesting.v10._text
+import com.github.mvysny.kaributesting.v10._walkAll
+import com.github.mvysny.kaributesting.v10.filterNotBlank
+import com.github.mvysny.kaributesting.v10.id_
+import com.vaadin.flow.component.Component
+import com.vaadin.flow.component.HasStyle
+import com.vaadin.flow.component.HasValue
+import com.vaadin.flow.component.orderedlayout.VerticalLayout
+import com.vaadin.flow.component.textfield.TextField
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares [SearchSpec.toPredicate] with the pre-2.7.3 implementation, which evaluated the rules
+ * in declaration order and re-parsed the class names on every evaluation.
+ * Evaluates the predicate against every component of the [syntheticRows] component tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class SearchSpecBenchmark {
+    @Param("1000", "10000")
+    @JvmField
+    var components: Int = 0
+
+    private lateinit var tree: List<Component>
+    private lateinit var byLabelAndClass: SearchSpec<TextField>
+    private lateinit var byValue: SearchSpec<TextField>
+
+    @Setup
+    fun buildTree() {
+        val root = VerticalLayout()
+        root.syntheticRows(components)
+        tree = root._walkAll().toList()
+        byLabelAndClass = SearchSpec(TextField::class.java, label = "Field 10", classes = "important")
+        byValue = SearchSpec(TextField::class.java, value = "value 20")
+    }
+
+    @Benchmark
+    fun labelAndClass(): Int = tree.count(byLabelAndClass.toPredicate())
+
+    @Benchmark
+    fun labelAndClassLegacy(): Int = tree.count(byLabelAndClass.toLegacyPredicate())
+
+    @Benchmark
+    fun value(): Int = tree.count(byValue.toPredicate())
+
+    @Benchmark
+    fun valueLegacy(): Int = tree.count(byValue.toLegacyPredicate())
+}
+
+/**
+ * The pre-2.7.3 implementation of [SearchSpec.toPredicate], restricted to the rules used by the benchmark.
+ */
+private fun SearchSpec<*>.toLegacyPredicate(): (Component) -> Boolean {
+    val p = mutableListOf<(Component) -> Boolean>()
+    p.add { component -> clazz.isInstance(component) }
+    if (id != null) p.add { component -> component.id_ == id }
+    if (label != null) p.add { component -> KaribuConfig.testingLifecycleHook.getLabel(component) == label }
+    if (!classes.isNullOrBlank()) p.add { component -> component is HasStyle && classes!!.split(' ').filterNotBlank().all { component.classNames.contains(it) } }
+    if (text != null) p.add { component -> component._text == text }
+    if (value != null) p.add { component -> (component as? HasValue<*, *>)?.value == value }
+    return { component -> p.all { it(component) } }
+}
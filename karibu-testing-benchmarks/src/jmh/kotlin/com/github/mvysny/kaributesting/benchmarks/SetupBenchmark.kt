@@ -0,0 +1,38 @@
+package com.github.mvysny.kaributesting.benchmarks
+
+import com.github.mvysny.kaributesting.v10.KaribuConfig
+import com.github.mvysny.kaributesting.v10.MockVaadin
+import com.github.mvysny.kaributesting.v10.Routes
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures [MockVaadin.setup] followed by [MockVaadin.tearDown], with and without [KaribuConfig.reuseServlet].
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class SetupBenchmark {
+    @Param("false", "true")
+    @JvmField
+    var reuseServlet: Boolean = false
+
+    private val routes = Routes()
+
+    @Setup
+    fun configure() {
+        KaribuConfig.reuseServlet = reuseServlet
+    }
+
+    @TearDown
+    fun restore() {
+        KaribuConfig.reuseServlet = false
+        MockVaadin.destroyReusedServlets()
+    }
+
+    @Benchmark
+    fun setupAndTearDown() {
+        MockVaadin.setup(routes)
+        MockVaadin.tearDown()
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.mvysny.kaributesting.benchmarks
+
+import com.github.mvysny.karibudsl.v10.button
+import com.github.mvysny.karibudsl.v10.div
+import com.github.mvysny.karibudsl.v10.textField
+import com.github.mvysny.kaributesting.v10.id_
+import com.vaadin.flow.component.HasComponents
+import com.vaadin.flow.component.html.Div
+
+/**
+ * Populates this container with rows of three components each: a [Div] with the `row` class name,
+ * holding a button and a text field. Every tenth text field has the `important` class name, and the
+ * last row's div has the `last` id.
+ * @param components the approximate number of components to create.
+ */
+fun HasComponents.syntheticRows(components: Int) {
+    val rows: Int = (components / 3).coerceAtLeast(1)
+    repeat(rows) { row ->
+        div {
+            addClassName("row")
+            if (row == rows - 1) id_ = "last"
+            button("Edit $row")
+            textField("Field $row") {
+                value = "value $row"
+                if (row % 10 == 0) addClassName("important")
+            }
+        }
+    }
+}
+
+/**
+ * A grid row.
+ */
+data class Person(val id: Int, val name: String, val age: Int, val salary: Double)
+
+fun people(count: Int): List<Person> = (0 until count).map { Person(it, "Person $it", 18 + it % 60, 1000.0 + it) }
@@ -0,0 +1,53 @@
+package com.github.mvysny.kaributesting.benchmarks
+
+import com.github.mvysny.kaributesting.v10.MockVaadin
+import com.github.mvysny.kaributesting.v10._expandAll
+import com.github.mvysny.kaributesting.v10._get
+import com.github.mvysny.kaributesting.v10._rowSequence
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.component.treegrid.TreeGrid
+import com.vaadin.flow.data.provider.hierarchy.TreeData
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures [_rowSequence] and [_get] on a fully expanded [TreeGrid] with given number of rows:
+ * one tenth of the rows are roots, each having nine children.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class TreeGridBenchmark {
+    @Param("1000", "100000")
+    @JvmField
+    var rows: Int = 0
+
+    private lateinit var grid: TreeGrid<String>
+
+    @Setup
+    fun setup() {
+        MockVaadin.setup()
+        val data = TreeData<String>()
+        repeat(rows / 10) { root ->
+            data.addItem(null, "$root")
+            repeat(9) { child -> data.addItem("$root", "$root-$child") }
+        }
+        grid = TreeGrid<String>().apply {
+            addHierarchyColumn { it }.setHeader("Name")
+            setTreeData(data)
+        }
+        UI.getCurrent().add(grid)
+        grid._expandAll()
+    }
+
+    @TearDown
+    fun tearDown() {
+        MockVaadin.tearDown()
+    }
+
+    @Benchmark
+    fun rowSequence(): Int = grid._rowSequence().count()
+
+    @Benchmark
+    fun getMiddleRow(): String = grid._get(rows / 2)
+}
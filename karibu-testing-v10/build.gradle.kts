@@ -18,6 +18,9 @@ dependencies {
 
     // to have the class autodiscovery functionality
     implementation(libs.classgraph)
+
+    // KaribuMetricsExtension; only loaded when the app registers it to its JUnit 5 tests
+    compileOnly(libs.junit.jupiterapi)
 }
 
 kotlin {
@@ -11,6 +11,7 @@ import com.vaadin.flow.router.InternalServerError
 import com.vaadin.flow.server.VaadinSession
 import tools.jackson.databind.JsonNode
 import tools.jackson.databind.ObjectMapper
+import java.util.IdentityHashMap
 import kotlin.test.fail
 
 /**
@@ -176,6 +177,24 @@ public fun Component._expectNotEditableByUser() {
 internal fun Component.isEffectivelyVisible(): Boolean =
     _isVisible && (!parent.isPresent || parent.get().isEffectivelyVisible())
 
+/**
+ * Computes [isEffectivelyVisible] for many components at once. Remembers the outcome for every component
+ * it evaluates, including the ancestors, so that every component is checked only once instead of
+ * walking up to the root for every component.
+ *
+ * Only use it while the component tree doesn't change.
+ */
+internal class EffectiveVisibility {
+    private val visible = IdentityHashMap<Component, Boolean>()
+
+    fun of(component: Component): Boolean = visible[component] ?: run {
+        val parent: Component? = component._parent
+        val result: Boolean = component._isVisible && (parent == null || of(parent))
+        visible[component] = result
+        result
+    }
+}
+
 /**
  * Computes whether this component and all of its parents are enabled.
  *
@@ -0,0 +1,220 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.github.mvysny.kaributools.template
+import com.github.mvysny.kaributools.textRecursively
+import com.vaadin.flow.data.renderer.LitRenderer
+import com.vaadin.flow.function.ValueProvider
+import org.jsoup.Jsoup
+import java.util.Collections
+import java.util.WeakHashMap
+
+/**
+ * A [LitRenderer] template split once into literals and `${item.key}` placeholders, so that rendering a cell
+ * is a single pass over the template, no matter how many value providers the renderer has. A placeholder
+ * with no matching value provider is rendered as-is.
+ *
+ * [text] extracts the text of a rendered cell without parsing the rendered HTML, whenever it's safe to do so:
+ * the template is parsed by Jsoup only once, with every placeholder replaced by a sentinel character, producing
+ * a text "skeleton". The text of a cell is then the skeleton with the sentinels replaced by the values, provided that
+ * the values can't change the structure of the HTML nor the whitespace normalization: the values must not contain
+ * markup characters, nor leading, trailing or repeated whitespace. Otherwise, the rendered HTML is parsed as before.
+ */
+internal class CompiledLitTemplate private constructor(private val template: String) {
+    /**
+     * `literals[i]` precedes the placeholder `i`; the last literal follows the last placeholder.
+     */
+    private val literals: Array<String>
+    /**
+     * For every placeholder, the index of its key in [keys].
+     */
+    private val placeholderKeys: IntArray
+    /**
+     * The distinct placeholder keys, in the order of their first appearance in the template.
+     */
+    private val keys: Array<String>
+
+    init {
+        val literals = mutableListOf<String>()
+        val placeholderKeys = mutableListOf<Int>()
+        val keys = LinkedHashMap<String, Int>()
+        var literalStart = 0
+        while (true) {
+            val start: Int = template.indexOf(PLACEHOLDER_PREFIX, literalStart)
+            if (start < 0) break
+            val end: Int = template.indexOf('}', start + PLACEHOLDER_PREFIX.length)
+            if (end < 0) break
+            literals.add(template.substring(literalStart, start))
+            val key: String = template.substring(start + PLACEHOLDER_PREFIX.length, end)
+            placeholderKeys.add(keys.getOrPut(key) { keys.size })
+            literalStart = end + 1
+        }
+        literals.add(template.substring(literalStart))
+        this.literals = literals.toTypedArray()
+        this.placeholderKeys = placeholderKeys.toIntArray()
+        this.keys = keys.keys.toTypedArray()
+    }
+
+    /**
+     * Only computed when [text] is first called: [html] doesn't need it.
+     */
+    private val skeleton: Skeleton? by lazy(LazyThreadSafetyMode.PUBLICATION) { computeSkeleton() }
+
+    /**
+     * Renders the template for given [item].
+     */
+    fun <T> html(valueProviders: Map<String, ValueProvider<T, *>>, item: T): String =
+        html(values(valueProviders, item))
+
+    /**
+     * Renders the template for given [item] and returns the text of the rendered HTML, the same as
+     * `Jsoup.parseBodyFragment(html(valueProviders, item)).body().textRecursively`.
+     */
+    fun <T> text(valueProviders: Map<String, ValueProvider<T, *>>, item: T): String {
+        val values: Array<String> = values(valueProviders, item)
+        val skeleton: Skeleton? = skeleton
+        if (skeleton != null && skeleton.accepts(values)) {
+            return skeleton.fill(values)
+        }
+        return Jsoup.parseBodyFragment(html(values)).body().textRecursively
+    }
+
+    /**
+     * Evaluates every value provider referenced by the template once.
+     */
+    private fun <T> values(valueProviders: Map<String, ValueProvider<T, *>>, item: T): Array<String> =
+        Array(keys.size) { i: Int ->
+            val valueProvider: ValueProvider<T, *>? = valueProviders[keys[i]]
+            if (valueProvider != null) valueProvider.apply(item).toString() else "$PLACEHOLDER_PREFIX${keys[i]}}"
+        }
+
+    private fun html(values: Array<String>): String {
+        if (placeholderKeys.isEmpty()) {
+            return template
+        }
+        return build { sb: StringBuilder ->
+            for (i in placeholderKeys.indices) {
+                sb.append(literals[i]).append(values[placeholderKeys[i]])
+            }
+            sb.append(literals.last())
+        }
+    }
+
+    private fun computeSkeleton(): Skeleton? {
+        if (keys.size > MAX_SENTINELS || template.contains('&') || template.any { it in SENTINEL_FIRST..SENTINEL_LAST }) {
+            // a value could complete a character reference, or clash with a sentinel.
+            return null
+        }
+        if (literals.dropLast(1).any { TAG_NAME_END.containsMatchIn(it) }) {
+            // a value could turn into a tag name, e.g. `<${item.tag}>`.
+            return null
+        }
+        val text: String = Jsoup.parseBodyFragment(html(Array(keys.size) { (SENTINEL_FIRST + it).toString() })).body().textRecursively
+        val occurrences = IntArray(keys.size)
+        for (c in text) {
+            val key: Int = c - SENTINEL_FIRST
+            if (key in keys.indices) {
+                occurrences[key]++
+            }
+        }
+        val placeholders = IntArray(keys.size)
+        placeholderKeys.forEach { placeholders[it]++ }
+        val inText = BooleanArray(keys.size)
+        for (key in keys.indices) {
+            when (occurrences[key]) {
+                placeholders[key] -> inText[key] = true
+                // the placeholder is in an attribute or in a tag, and doesn't contribute to the text.
+                0 -> inText[key] = false
+                else -> return null
+            }
+        }
+        return Skeleton(text, inText)
+    }
+
+    /**
+     * The text of the template rendered with the placeholder of key `i` replaced by the character [SENTINEL_FIRST] + `i`.
+     * @property inText for every key, true if its placeholders show up in the text, false if they're all
+     * in attributes or tags.
+     */
+    private class Skeleton(val text: String, val inText: BooleanArray) {
+        fun accepts(values: Array<String>): Boolean =
+            values.indices.all { if (inText[it]) isSafeText(values[it]) else isSafeHidden(values[it]) }
+
+        fun fill(values: Array<String>): String = build { sb: StringBuilder ->
+            for (c in text) {
+                val key: Int = c - SENTINEL_FIRST
+                if (key in values.indices) sb.append(values[key]) else sb.append(c)
+            }
+        }
+
+        /**
+         * A value in the text must not change the markup, nor the whitespace normalization: it must be non-empty,
+         * and only contain single spaces between other characters.
+         */
+        private fun isSafeText(value: String): Boolean {
+            if (value.isEmpty() || value.first() == ' ' || value.last() == ' ') {
+                return false
+            }
+            for (i in value.indices) {
+                val c: Char = value[i]
+                if (c == ' ') {
+                    if (value[i - 1] == ' ') return false
+                } else if (c == '<' || isUnsafeChar(c)) {
+                    return false
+                }
+            }
+            return true
+        }
+
+        /**
+         * A value in an attribute or a tag must not end the attribute or the tag.
+         */
+        private fun isSafeHidden(value: String): Boolean =
+            value.none { it == ' ' || it == '<' || it == '>' || it == '"' || it == '\'' || isUnsafeChar(it) }
+
+        private fun isUnsafeChar(c: Char): Boolean = c == '&' || Character.isISOControl(c) ||
+                Character.isWhitespace(c) || Character.isSpaceChar(c) || c == '\u200B' || c == '\u00AD'
+    }
+
+    companion object {
+        private const val PLACEHOLDER_PREFIX = "\${item."
+        /**
+         * The sentinels are taken from the Unicode Private Use Area.
+         */
+        private const val SENTINEL_FIRST: Char = '\uE000'
+        private const val SENTINEL_LAST: Char = '\uF8FF'
+        private const val MAX_SENTINELS: Int = 0x1900
+        /**
+         * Matches a literal which ends in the middle of a tag name, e.g. `<`, `</` or `<spa`.
+         */
+        private val TAG_NAME_END = Regex("<[/!?]?[A-Za-z0-9-]*$")
+        private val builder: ThreadLocal<StringBuilder> = ThreadLocal.withInitial { StringBuilder() }
+        private val compiled: MutableMap<LitRenderer<*>, CompiledLitTemplate> = Collections.synchronizedMap(WeakHashMap())
+
+        /**
+         * Builds a String in a per-thread [StringBuilder], so that rendering a cell doesn't allocate a new builder.
+         */
+        private inline fun build(block: (StringBuilder) -> Unit): String {
+            val sb: StringBuilder = builder.get()
+            sb.setLength(0)
+            block(sb)
+            val result: String = sb.toString()
+            if (sb.capacity() > 16384) {
+                // don't hold on to a huge buffer
+                builder.remove()
+            }
+            return result
+        }
+
+        /**
+         * Compiles given [template].
+         */
+        fun compile(template: String): CompiledLitTemplate = CompiledLitTemplate(template)
+
+        /**
+         * Returns the compiled template of given [renderer]; the template of a [LitRenderer] never changes,
+         * so it's only compiled once per renderer.
+         */
+        fun of(renderer: LitRenderer<*>): CompiledLitTemplate =
+            compiled.getOrPut(renderer) { compile(renderer.template) }
+    }
+}
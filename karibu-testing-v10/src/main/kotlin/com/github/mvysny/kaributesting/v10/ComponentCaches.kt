@@ -0,0 +1,79 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.vaadin.flow.component.Component
+import com.vaadin.flow.component.ComponentUtil
+import java.io.Serializable
+import java.util.Collections
+import java.util.WeakHashMap
+
+/**
+ * A cache Karibu-Testing keeps for a component, e.g. the rows fetched by [GridFetchCache]. Usually listens to
+ * the component's data provider, which may outlive the component, e.g. a singleton bean; [release] stops listening.
+ */
+internal interface ComponentCache {
+    /**
+     * Drops the cached data and stops listening to the data provider.
+     */
+    fun release()
+}
+
+/**
+ * Holds a [ComponentCache] in the component itself, via [ComponentUtil.setData]: the cache is garbage-collected
+ * together with the component. The cache is transient: serializing the component, e.g. via [MockVaadin.snapshot],
+ * serializes an empty holder, and the cache is rebuilt on demand. The listeners registered on the component and on its
+ * data provider, which is serialized together with the component, therefore need to reference the holder, not the cache.
+ */
+internal class ComponentCacheHolder<C : ComponentCache> : Serializable {
+    @Transient
+    var cache: C? = null
+
+    companion object {
+        /**
+         * Returns the holder stored in [component] under [key]. A new holder is stored if there's none,
+         * and passed to [init], to register the listeners.
+         */
+        fun <C : ComponentCache> of(component: Component, key: String, init: (ComponentCacheHolder<C>) -> Unit): ComponentCacheHolder<C> {
+            @Suppress("UNCHECKED_CAST")
+            val existing: ComponentCacheHolder<C>? = ComponentUtil.getData(component, key) as ComponentCacheHolder<C>?
+            if (existing != null) {
+                return existing
+            }
+            val holder = ComponentCacheHolder<C>()
+            init(holder)
+            ComponentUtil.setData(component, key, holder)
+            return holder
+        }
+    }
+}
+
+/**
+ * The [ComponentCache]s listening to a data provider, registered by the current thread. [MockVaadin.tearDown] doesn't
+ * fire the detach listeners the caches are released on otherwise; it calls [releaseAll] instead.
+ */
+internal object ComponentCaches {
+    /**
+     * Weak: doesn't prevent the caches from being garbage-collected together with their components.
+     */
+    private val live = ThreadLocal<MutableSet<ComponentCache>>()
+
+    /**
+     * Registers [cache] which started listening to a data provider.
+     */
+    fun register(cache: ComponentCache) {
+        var caches: MutableSet<ComponentCache>? = live.get()
+        if (caches == null) {
+            caches = Collections.newSetFromMap(WeakHashMap())
+            live.set(caches)
+        }
+        caches.add(cache)
+    }
+
+    /**
+     * Releases all caches created by the current thread.
+     */
+    fun releaseAll() {
+        val caches: MutableSet<ComponentCache> = live.get() ?: return
+        live.remove()
+        caches.toList().forEach { it.release() }
+    }
+}
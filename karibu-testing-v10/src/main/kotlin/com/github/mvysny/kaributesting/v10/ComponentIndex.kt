@@ -0,0 +1,101 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.vaadin.flow.component.Component
+import com.vaadin.flow.component.HasStyle
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.internal.StateTree
+
+/**
+ * All components of a [UI], as listed by [_walkAll], with lazily-built lookup tables by
+ * component class, id and CSS class name. Used by [_find] when [KaribuConfig.indexComponentLookups]
+ * is enabled, to avoid walking the entire component tree on every lookup.
+ *
+ * The index doesn't register a listener on every component; instead it relies on the [StateTree]
+ * dirty-node tracking. Attaching, detaching or moving a component, as well as changing its id
+ * or CSS class names, marks a state node as dirty. The index is therefore valid as long as the UI's
+ * [StateTree] has no dirty nodes. [MockVaadin.clientRoundtrip] then mimics the end of a real request:
+ * it drops the index if anything changed, and collects the changes as if they were sent to the browser.
+ *
+ * The index assumes that [TestingLifecycleHook.getAllChildren] only returns components attached to the UI.
+ */
+internal class ComponentIndex private constructor(
+    private val ui: UI,
+    private val hook: TestingLifecycleHook,
+    private val includeVirtualChildrenInTemplates: Boolean,
+    /**
+     * All components of the [ui], in the [_walkAll] order.
+     */
+    val components: List<Component>
+) {
+    private val byClass = HashMap<Class<*>, List<Component>>()
+    private val byId: Map<String, List<Component>> by lazy(LazyThreadSafetyMode.NONE) {
+        components.filter { it.id_ != null }.groupBy { it.id_!! }
+    }
+    private val byClassName: Map<String, List<Component>> by lazy(LazyThreadSafetyMode.NONE) {
+        val result = HashMap<String, MutableList<Component>>()
+        for (component in components) {
+            if (component is HasStyle) {
+                component.classNames.forEach { result.getOrPut(it) { mutableListOf() }.add(component) }
+            }
+        }
+        result
+    }
+
+    /**
+     * Returns all components which are instances of [clazz], in the [_walkAll] order.
+     */
+    fun ofClass(clazz: Class<*>): List<Component> {
+        if (clazz == Component::class.java) return components
+        return byClass.getOrPut(clazz) { components.filter { clazz.isInstance(it) } }
+    }
+
+    /**
+     * Narrows down [components] to those which may match given [spec], keeping the [_walkAll] order.
+     * Every component matching [spec] is guaranteed to be returned, but the returned components
+     * may not necessarily match [spec]: the caller still needs to filter them via [SearchSpec.toPredicate].
+     */
+    fun candidates(spec: SearchSpec<*>): List<Component> {
+        val id: String? = spec.id
+        if (id != null) {
+            return byId[id] ?: listOf()
+        }
+        val className: String? = spec.classes?.split(' ')?.filterNotBlank()?.firstOrNull()
+        if (className != null) {
+            return byClassName[className] ?: listOf()
+        }
+        return ofClass(spec.clazz)
+    }
+
+    companion object {
+        // the lookups are done in the test thread, on the current UI. Keeping the index
+        // out of the UI keeps the UI serializable.
+        private val current = ThreadLocal<ComponentIndex>()
+
+        /**
+         * Returns the index of given [ui], building it if necessary. Returns null if the UI's
+         * [StateTree] has unsent changes and the index can't be trusted; the caller needs to walk
+         * the component tree in such case.
+         */
+        fun of(ui: UI): ComponentIndex? {
+            if (ui.internals.stateTree.hasDirtyNodes()) {
+                current.remove()
+                return null
+            }
+            val hook: TestingLifecycleHook = KaribuConfig.testingLifecycleHook
+            val includeVirtualChildren: Boolean = KaribuConfig.includeVirtualChildrenInTemplates
+            var index: ComponentIndex? = current.get()
+            if (index == null || index.ui !== ui || index.hook !== hook || index.includeVirtualChildrenInTemplates != includeVirtualChildren) {
+                index = ComponentIndex(ui, hook, includeVirtualChildren, ui._walkAll().toList())
+                current.set(index)
+            }
+            return index
+        }
+
+        /**
+         * Drops the index; the next lookup walks the component tree again.
+         */
+        fun invalidate() {
+            current.remove()
+        }
+    }
+}
@@ -273,13 +273,7 @@ private fun MenuItemBase<*, *, *>.checkMenuItemEnabled(originalItem: MenuItemBas
     }
 }
 
-private val __SubMenuBase_getMenuManager: Method by lazy {
-    val m = SubMenuBase::class.java.getDeclaredMethod("getMenuManager")
-    m.isAccessible = true
-    m
-}
-
-public val SubMenuBase<*, *, *>._menuManager: MenuManager<*, *, *> get() = __SubMenuBase_getMenuManager.invoke(this) as MenuManager<*, *, *>
+public val SubMenuBase<*, *, *>._menuManager: MenuManager<*, *, *> get() = VaadinInternals.SubMenuBase_getMenuManager.invoke(this) as MenuManager<*, *, *>
 
 /**
  * Opens or closes the menu. Fires the [ContextMenuBase.OpenedChangeEvent].
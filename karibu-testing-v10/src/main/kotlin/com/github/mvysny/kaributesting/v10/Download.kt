@@ -2,15 +2,32 @@
 
 package com.github.mvysny.kaributesting.v10
 
+import com.github.mvysny.fakeservlet.FakeResponse
 import com.vaadin.flow.component.html.Anchor
 import com.vaadin.flow.component.html.Image
 import com.vaadin.flow.server.AbstractStreamResource
 import com.vaadin.flow.server.StreamResource
 import com.vaadin.flow.server.StreamResourceRegistry
 import com.vaadin.flow.server.VaadinSession
+import com.vaadin.flow.server.VaadinServletResponse
+import com.vaadin.flow.server.VaadinServletService
+import jakarta.servlet.ServletOutputStream
+import jakarta.servlet.WriteListener
+import jakarta.servlet.http.HttpServletResponseWrapper
 import java.io.ByteArrayOutputStream
-import java.lang.reflect.Field
+import java.io.InputStream
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.io.PrintWriter
 import java.net.URI
+import java.nio.channels.Channels
+import java.nio.channels.WritableByteChannel
+import java.nio.charset.Charset
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.security.MessageDigest
+import java.util.HexFormat
 import kotlin.test.expect
 import kotlin.test.fail
 
@@ -24,34 +41,87 @@ public fun Anchor._download(): ByteArray {
     return download()
 }
 
+/**
+ * Downloads contents of this link into [out], without buffering the contents in memory. Doesn't close [out].
+ * @throws IllegalStateException if the link was not visible, not enabled. See [checkEditableByUser] for
+ * more details.
+ */
+public fun Anchor._download(out: OutputStream) {
+    _expectEditableByUser()
+    download(out)
+}
+
 /**
  * Downloads contents of this link.
  */
-public fun Anchor.download(): ByteArray {
+public fun Anchor.download(): ByteArray = downloadResource(hrefOrFail())
+
+/**
+ * Downloads contents of this link into [out], without buffering the contents in memory. Doesn't close [out].
+ */
+public fun Anchor.download(out: OutputStream) {
+    downloadResource(hrefOrFail(), out)
+}
+
+/**
+ * Downloads contents of this link and summarizes them, without keeping the contents in memory; see [downloadResourceSummary].
+ * @throws IllegalStateException if the link was not visible, not enabled. See [checkEditableByUser] for
+ * more details.
+ */
+@JvmOverloads
+public fun Anchor._downloadSummary(
+    firstLines: Int = 10,
+    algorithm: String = "SHA-256",
+    charset: Charset = Charsets.UTF_8
+): DownloadSummary {
+    _expectEditableByUser()
+    return downloadResourceSummary(hrefOrFail(), firstLines, algorithm, charset)
+}
+
+private fun Anchor.hrefOrFail(): String {
     val uri = href
     expect(
         false,
         "href hasn't been set for ${this.toPrettyString()}"
     ) { uri.isNullOrBlank() }
-    return downloadResource(uri)
+    return uri
 }
 
 /**
  * Downloads contents of this image.
  */
-public fun Image.download(): ByteArray {
+public fun Image.download(): ByteArray = downloadResource(srcOrFail())
+
+/**
+ * Downloads contents of this image into [out], without buffering the contents in memory. Doesn't close [out].
+ */
+public fun Image.download(out: OutputStream) {
+    downloadResource(srcOrFail(), out)
+}
+
+private fun Image.srcOrFail(): String {
     val uri = src
     expect(
         false,
         "src hasn't been set for ${this.toPrettyString()}"
     ) { uri.isNullOrBlank() }
-    return downloadResource(uri)
+    return uri
 }
 
 /**
  * Downloads [AbstractStreamResource] with given [uri] and returns it as a [ByteArray].
  */
 public fun downloadResource(uri: String): ByteArray {
+    val bout = ByteArrayOutputStream()
+    downloadResource(uri, bout)
+    return bout.toByteArray()
+}
+
+/**
+ * Downloads [AbstractStreamResource] with given [uri] into [out]: the contents are passed to [out] as the resource
+ * produces them, and are never held in memory as a whole. Doesn't close [out].
+ */
+public fun downloadResource(uri: String, out: OutputStream) {
     require(!uri.isBlank()) { "uri is blank" }
     val s: AbstractStreamResource? =
         VaadinSession.getCurrent().resourceRegistry.getResource(URI(uri))
@@ -63,23 +133,193 @@ public fun downloadResource(uri: String): ByteArray {
         s != null
     }
     if (s is StreamResource) {
-        val bout = ByteArrayOutputStream()
-        s.writer.accept(bout, VaadinSession.getCurrent())
-        return bout.toByteArray()
+        s.writer.accept(out, VaadinSession.getCurrent())
+        return
     }
     // Vaadin 24.8 DownloadHandler
     if (s is StreamResourceRegistry.ElementStreamResource) {
         val req = MockVaadin.createVaadinRequest()
-        val res = MockVaadin.createVaadinResponse()
+        val res = VaadinServletResponse(StreamingResponse(out), currentService as VaadinServletService)
         s.elementRequestHandler.handleRequest(req, res, currentSession, s.owner)
-        return res.fake.buffer.toByteArray()
+        res.flushBuffer()
+        return
     }
     fail("Unsupported resource type: $s")
 }
 
-private val resField: Field =
-    StreamResourceRegistry::class.java.getDeclaredField("res")
-        .apply { isAccessible = true }
+/**
+ * Downloads [AbstractStreamResource] with given [uri] into [channel]; see [downloadResource]. Doesn't close [channel].
+ */
+public fun downloadResource(uri: String, channel: WritableByteChannel) {
+    val out: OutputStream = Channels.newOutputStream(channel)
+    downloadResource(uri, out)
+    out.flush()
+}
+
+/**
+ * Downloads [AbstractStreamResource] with given [uri] and returns its contents as an [InputStream]. The contents are
+ * stored in a temporary file rather than in memory; the file is deleted when the stream is closed, so make sure to close it:
+ * ```
+ * downloadResourceStream(link.href).bufferedReader().useLines { lines -> ... }
+ * ```
+ */
+public fun downloadResourceStream(uri: String): InputStream {
+    val file: Path = Files.createTempFile("karibu-download", null)
+    try {
+        Files.newOutputStream(file).use { downloadResource(uri, it) }
+        return Files.newInputStream(file, StandardOpenOption.DELETE_ON_CLOSE)
+    } catch (t: Throwable) {
+        Files.deleteIfExists(file)
+        throw t
+    }
+}
+
+/**
+ * Downloads [AbstractStreamResource] with given [uri] and summarizes its contents: the size, the digest
+ * and the first few lines. The contents are never held in memory, which makes this function suitable for huge exports:
+ * ```
+ * val summary = downloadResourceSummary(link.href)
+ * summary.expectSize(204_800_000)
+ * summary.expectFirstLines("Name,Email", "John Doe,john@example.com")
+ * ```
+ * @param firstLines how many lines to keep in [DownloadSummary.firstLines]. Only the first 64 KiB of the contents
+ * are decoded.
+ * @param algorithm the [MessageDigest] algorithm computing [DownloadSummary.digest].
+ * @param charset decodes [DownloadSummary.firstLines]; must encode the line separator as a single `\n` byte, e.g. UTF-8
+ * or ISO-8859-1.
+ */
+@JvmOverloads
+public fun downloadResourceSummary(
+    uri: String,
+    firstLines: Int = 10,
+    algorithm: String = "SHA-256",
+    charset: Charset = Charsets.UTF_8
+): DownloadSummary {
+    require(firstLines >= 0) { "firstLines must be 0 or greater but was $firstLines" }
+    val out = SummaryOutputStream(firstLines, MessageDigest.getInstance(algorithm))
+    downloadResource(uri, out)
+    val head: String = out.head.toString(charset)
+    // a trailing line separator doesn't start another line
+    val lines: List<String> = if (head.isEmpty()) listOf() else head.removeSuffix("\n").removeSuffix("\r").lines().take(firstLines)
+    return DownloadSummary(out.size, algorithm, HexFormat.of().formatHex(out.digest.digest()), lines)
+}
+
+/**
+ * The summary of a downloaded resource, produced by [downloadResourceSummary].
+ */
+public class DownloadSummary internal constructor(
+    /**
+     * The size of the contents, in bytes.
+     */
+    public val size: Long,
+    /**
+     * The [MessageDigest] algorithm used to compute [digest], e.g. `SHA-256`.
+     */
+    public val algorithm: String,
+    /**
+     * The digest of the contents, lower-case hex-encoded.
+     */
+    public val digest: String,
+    /**
+     * The first lines of the contents, without the line separators.
+     */
+    public val firstLines: List<String>
+) {
+    /**
+     * Expects that the contents are [expected] bytes long.
+     */
+    public fun expectSize(expected: Long) {
+        expect(expected, "The size of the download in bytes") { size }
+    }
+
+    /**
+     * Expects that the [digest] of the contents is [expected], hex-encoded.
+     */
+    public fun expectDigest(expected: String) {
+        expect(expected.lowercase(), "The $algorithm digest of the download") { digest }
+    }
+
+    /**
+     * Expects that the contents start with given [lines].
+     */
+    public fun expectFirstLines(vararg lines: String) {
+        expect(lines.toList(), "The first lines of the download") { firstLines.take(lines.size) }
+    }
+
+    override fun toString(): String = "DownloadSummary(size=$size, $algorithm=$digest, firstLines=$firstLines)"
+}
+
+/**
+ * Counts and digests the bytes written, and keeps the first few lines.
+ */
+private class SummaryOutputStream(private val lines: Int, val digest: MessageDigest) : OutputStream() {
+    var size: Long = 0
+        private set
+    val head = ByteArrayOutputStream()
+    private var newlines: Int = 0
+
+    override fun write(b: Int) {
+        write(byteArrayOf(b.toByte()), 0, 1)
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        digest.update(b, off, len)
+        size += len
+        var i: Int = off
+        while (i < off + len && newlines < lines && head.size() < MAX_HEAD) {
+            head.write(b[i].toInt())
+            if (b[i] == '\n'.code.toByte()) {
+                newlines++
+            }
+            i++
+        }
+    }
+
+    companion object {
+        const val MAX_HEAD: Int = 64 * 1024
+    }
+}
+
+/**
+ * Passes everything the [com.vaadin.flow.server.streams.DownloadHandler] writes straight to [out], instead of buffering
+ * it in the [FakeResponse].
+ */
+private class StreamingResponse(private val out: OutputStream) : HttpServletResponseWrapper(FakeResponse()) {
+    private val stream = object : ServletOutputStream() {
+        override fun write(b: Int) {
+            out.write(b)
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            out.write(b, off, len)
+        }
+
+        override fun flush() {
+            out.flush()
+        }
+
+        // the caller owns out
+        override fun close() {
+            flush()
+        }
+
+        override fun isReady(): Boolean = true
+        override fun setWriteListener(writeListener: WriteListener?) {}
+    }
+    private var writer: PrintWriter? = null
+
+    override fun getOutputStream(): ServletOutputStream = stream
+    override fun getWriter(): PrintWriter {
+        if (writer == null) {
+            writer = PrintWriter(OutputStreamWriter(stream, characterEncoding ?: "UTF-8"))
+        }
+        return writer!!
+    }
+    override fun flushBuffer() {
+        writer?.flush()
+        stream.flush()
+    }
+}
 
 /**
  * Retrieves current list of resources mappings from this registry.
@@ -87,4 +327,4 @@ private val resField: Field =
 @Suppress("UNCHECKED_CAST")
 public val StreamResourceRegistry.resources: Map<URI, AbstractStreamResource>
     get() =
-        resField.get(this) as Map<URI, AbstractStreamResource>
+        VaadinInternals.StreamResourceRegistry_res.invoke(this) as Map<URI, AbstractStreamResource>
@@ -0,0 +1,107 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.github.mvysny.kaributools.valueProvider
+import com.vaadin.flow.component.grid.Grid
+import com.vaadin.flow.data.renderer.BasicRenderer
+import com.vaadin.flow.data.renderer.ColumnPathRenderer
+import com.vaadin.flow.data.renderer.LitRenderer
+import com.vaadin.flow.data.renderer.Renderer
+import com.vaadin.flow.function.ValueProvider
+
+/**
+ * A range of Grid rows formatted by [_getFormattedRows]: a list of rows, each row being a list of Strings,
+ * one for every visible column. The cells are kept in a single flat array; the rows are views into that array.
+ *
+ * Compares equal to any other `List<List<String>>` with the same contents, so you can simply write
+ * ```
+ * expect(listOf(listOf("name 0", "0"), listOf("name 1", "1"))) { grid._getFormattedRows(0..1) }
+ * ```
+ * @property firstRowIndex the Grid row index of the first row of this list.
+ * @property columnCount the number of cells in every row: the number of visible columns.
+ */
+public class FormattedRows internal constructor(
+    public val firstRowIndex: Int,
+    public val columnCount: Int,
+    private val rowCount: Int,
+    private val cells: Array<String>
+) : AbstractList<List<String>>() {
+    override val size: Int get() = rowCount
+
+    /**
+     * Returns the formatted cells of the row at given [index] of this list, which is Grid row `firstRowIndex + index`.
+     */
+    override fun get(index: Int): List<String> {
+        checkElementIndex(index)
+        return cells.asList().subList(index * columnCount, (index + 1) * columnCount)
+    }
+
+    /**
+     * Returns the formatted cell at given [index] of this list and given visible [column].
+     */
+    public operator fun get(index: Int, column: Int): String {
+        checkElementIndex(index)
+        require(column in 0 until columnCount) { "column must be 0..${columnCount - 1}: $column" }
+        return cells[index * columnCount + column]
+    }
+
+    /**
+     * The Grid row indices of the rows in this list.
+     */
+    public val rowIndices: IntRange get() = firstRowIndex until firstRowIndex + rowCount
+
+    private fun checkElementIndex(index: Int) {
+        if (index !in 0 until rowCount) {
+            throw IndexOutOfBoundsException("index: $index, size: $rowCount")
+        }
+    }
+}
+
+/**
+ * Formats given [items] with given [columns], column by column. Everything the renderer of a column needs
+ * (the value provider, the compiled Lit template and its value providers) is looked up once per column rather than once per cell.
+ * Produces the same Strings as [Grid.Column._getFormatted].
+ */
+internal fun <T : Any> formatRows(firstRowIndex: Int, columns: List<Grid.Column<T>>, items: List<T>): FormattedRows {
+    val cells: Array<String?> = arrayOfNulls(columns.size * items.size)
+    columns.forEachIndexed { columnIndex: Int, column: Grid.Column<T> ->
+        val formatter: (T) -> String = column.cellFormatter()
+        items.forEachIndexed { rowIndex: Int, item: T ->
+            cells[rowIndex * columns.size + columnIndex] = formatter(item)
+        }
+    }
+    @Suppress("UNCHECKED_CAST")
+    return FormattedRows(firstRowIndex, columns.size, items.size, cells as Array<String>)
+}
+
+/**
+ * Resolves the renderer of this column into a function formatting a bean the same way as [Grid.Column._getFormatted] does.
+ */
+@Suppress("UNCHECKED_CAST")
+private fun <T : Any> Grid.Column<T>.cellFormatter(): (T) -> String {
+    val renderer: Renderer<T> = this.renderer
+    return when (renderer) {
+        is ColumnPathRenderer -> {
+            val valueProvider: ValueProvider<T, *> = renderer.valueProvider
+            val formatter: (T) -> String = { item -> valueProvider.apply(item).toString() }
+            formatter
+        }
+        is BasicRenderer<T, *> -> {
+            val valueProvider: ValueProvider<T, *> = renderer.valueProvider
+            val formatter: (T) -> String = { item ->
+                KaribuMetrics.measure(KaribuMetric.RENDERER) {
+                    VaadinInternals.BasicRenderer_getFormattedValue.invoke(renderer, valueProvider.apply(item)) as String?
+                }.toString()
+            }
+            formatter
+        }
+        is LitRenderer<*> -> {
+            val template: CompiledLitTemplate = CompiledLitTemplate.of(renderer)
+            val valueProviders: Map<String, ValueProvider<T, *>> = (renderer as LitRenderer<T>).valueProviders
+            val formatter: (T) -> String = { item ->
+                KaribuMetrics.measure(KaribuMetric.RENDERER) { template.text(valueProviders, item) }
+            }
+            formatter
+        }
+        else -> { item -> renderer._getPresentationValue(item).toString() }
+    }
+}
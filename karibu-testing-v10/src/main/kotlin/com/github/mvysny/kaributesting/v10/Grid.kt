@@ -25,6 +25,7 @@ import com.vaadin.flow.function.SerializablePredicate
 import com.vaadin.flow.function.ValueProvider
 import org.intellij.lang.annotations.RegExp
 import org.jsoup.nodes.Element
+import java.lang.invoke.MethodHandle
 import java.lang.reflect.Field
 import java.lang.reflect.Method
 import java.util.stream.Stream
@@ -82,7 +83,7 @@ public fun <T, F> DataProvider<T, F>._findAll(
  * For [TreeGrid] this function returns the x-th displayed row; skips children of collapsed nodes.
  * Uses [_rowSequence].
  *
- * WARNING: Very slow operation for [TreeGrid].
+ * WARNING: Very slow operation for [TreeGrid]; see [KaribuConfig.indexTreeGridRows].
  * @param rowIndex the row, 0..size - 1
  * @return the item at given row, not null.
  */
@@ -106,7 +107,7 @@ public fun <T : Any> Grid<T>._get(rowIndex: Int): T {
  * For [TreeGrid] this returns the x-th displayed row; skips children of collapsed nodes.
  * Uses [_rowSequence].
  *
- * WARNING: Very slow operation for [TreeGrid].
+ * WARNING: Very slow operation for [TreeGrid]; see [KaribuConfig.indexTreeGridRows].
  * @param rowIndex the row, 0 or larger.
  * @return the item at given row or null if the data provider provides less rows.
  */
@@ -119,8 +120,13 @@ public fun <T : Any> Grid<T>._getOrNull(rowIndex: Int): T? {
             return null
         }
     }
-    val fetchedItems: List<T> = _fetch(rowIndex, 1)
-    val fetchedItem = fetchedItems.firstOrNull() ?: return null
+    // see KaribuConfig.gridFetchPageSize
+    val fetchCache: GridFetchCache? = if (this !is TreeGrid && _dataProviderSupportsSizeOp) GridFetchCache.of(this) else null
+    val fetchedItem: T = if (fetchCache != null) {
+        fetchCache.getOrNull(this, rowIndex)
+    } else {
+        _fetch(rowIndex, 1).firstOrNull()
+    } ?: return null
 
     // cache the item, to simulate the actual grid communication with its client-side
     // counterpart. See https://github.com/mvysny/karibu-testing/issues/124 for more details.
@@ -159,10 +165,11 @@ public val Grid<*>._dataProviderSupportsSizeOp: Boolean
  * The Grid never sets any filters into the data provider, however any
  * ConfigurableFilterDataProvider will automatically apply its filters.
  *
- * WARNING: Very slow operation for [TreeGrid].
+ * WARNING: Very slow operation for [TreeGrid]; see [KaribuConfig.indexTreeGridRows].
  */
 public fun <T> Grid<T>._fetch(offset: Int, limit: Int): List<T> = when (this) {
-    is TreeGrid<T> -> this._rowSequence().drop(offset).take(limit).toList()
+    is TreeGrid<T> -> TreeGridRowIndex.of(this)?.fetch(offset, limit)
+        ?: this._rowSequence().drop(offset).take(limit).toList()
     else -> dataCommunicator.fetch(offset, limit)
 }
 
@@ -171,20 +178,6 @@ public val DataCommunicator<*>._saneFetchLimit: Int
 
 public val Grid<*>._saneFetchLimit: Int get() = dataCommunicator._saneFetchLimit
 
-private val _DataCommunicator_fetchFromProvider: Method =
-    DataCommunicator::class.java.getDeclaredMethod(
-        "fetchFromProvider",
-        Int::class.java,
-        Int::class.java
-    ).apply {
-        isAccessible = true
-    }
-
-private val _DataCommunicator_setPagingEnabled: Method? =
-    DataCommunicator::class.java.declaredMethods.firstOrNull { it.name == "setPagingEnabled" }
-private val _DataCommunicator_isPagingEnabled: Method? =
-    DataCommunicator::class.java.declaredMethods.firstOrNull { it.name == "isPagingEnabled" }
-
 /**
  * Returns items in given range from this data communicator. Uses current Grid sorting.
  * Any ConfigurableFilterDataProvider will automatically apply its filters.
@@ -194,20 +187,26 @@ private val _DataCommunicator_isPagingEnabled: Method? =
 public fun <T> DataCommunicator<T>.fetch(offset: Int, limit: Int): List<T> {
     require(limit <= _saneFetchLimit) { "Vaadin doesn't handle fetching of many items very well unfortunately. The sane limit is $_saneFetchLimit but you asked for $limit" }
 
-    if (_DataCommunicator_setPagingEnabled != null && _DataCommunicator_isPagingEnabled != null) {
-        if (_DataCommunicator_isPagingEnabled.invoke(this) as Boolean) {
+    val setPagingEnabled: MethodHandle? = VaadinInternals.DataCommunicator_setPagingEnabled
+    val isPagingEnabled: MethodHandle? = VaadinInternals.DataCommunicator_isPagingEnabled
+    if (setPagingEnabled != null && isPagingEnabled != null) {
+        if (isPagingEnabled.invoke(this) as Boolean) {
             // make sure the DataCommunicator is not in paged mode: https://github.com/mvysny/karibu-testing/issues/99
-            _DataCommunicator_setPagingEnabled.invoke(this, false)
+            setPagingEnabled.invoke(this, false)
         }
     }
 
-    @Suppress("UNCHECKED_CAST")
-    val fetched: Stream<T> = _DataCommunicator_fetchFromProvider.invoke(
-        this,
-        offset,
-        limit
-    ) as Stream<T>
-    return fetched.toList()
+    return KaribuMetrics.measure(KaribuMetric.GRID_FETCH) {
+        @Suppress("UNCHECKED_CAST")
+        val fetched: Stream<T> = VaadinInternals.DataCommunicator_fetchFromProvider.invoke(
+            this,
+            offset,
+            limit
+        ) as Stream<T>
+        val items: List<T> = fetched.toList()
+        KaribuMetrics.add(KaribuMetric.GRID_ROWS_FETCHED, items.size)
+        items
+    }
 }
 
 /**
@@ -284,7 +283,7 @@ public fun Grid<*>._size(): Int {
     if (!_dataProviderSupportsSizeOp) {
         return _findAll().size
     }
-    return dataCommunicator._size()
+    return GridFetchCache.of(this)?.size(this) ?: dataCommunicator._size()
 }
 
 /**
@@ -424,6 +423,45 @@ public fun <T : Any> Grid<T>._getFormattedRowOrNull(rowIndex: Int): List<String>
     return _getFormattedRow(rowObject)
 }
 
+/**
+ * Returns given range of [rows] formatted, one row per item and one String per every visible column; every row
+ * is the same as [_getFormattedRow] would return. Uses current Grid sorting.
+ *
+ * Much faster than calling [_getFormattedRow] for every row: all rows are fetched by a single data provider query,
+ * and every renderer is only looked up once for all rows. Use this to assert on many rows at once:
+ * ```
+ * expect(listOf(listOf("name 0", "0"), listOf("name 1", "1"))) { grid._getFormattedRows(0..1) }
+ * ```
+ * Just like [_get], the rows are remembered in the data communicator's key mapper and the column value providers
+ * are called at most once per bean. See https://github.com/mvysny/karibu-testing/issues/124 for more details.
+ *
+ * WARNING: Slow operation for [TreeGrid]; see [KaribuConfig.indexTreeGridRows].
+ * @param rows the row indices, 0 or higher. May reach beyond the last row of the Grid.
+ * @return the formatted rows; fewer than requested if the data provider doesn't have that many rows.
+ */
+public fun <T : Any> Grid<T>._getFormattedRows(rows: IntRange): FormattedRows {
+    require(rows.first >= 0) { "rows must start at 0 or greater: $rows" }
+    val limit: Int = if (rows.isEmpty()) 0 else (rows.last.toLong() - rows.first + 1).coerceAtMost(_saneFetchLimit.toLong()).toInt()
+    val fetched: List<T> = if (limit == 0) listOf() else _fetch(rows.first, limit)
+
+    // reuse the cached beans, to simulate the actual grid communication with its client-side counterpart.
+    val keyMapper = dataCommunicator.keyMapper
+    val newItems = ArrayList<T>()
+    val items: List<T> = fetched.map { item: T ->
+        if (keyMapper.has(item)) {
+            keyMapper.get(keyMapper.key(item))!!
+        } else {
+            newItems.add(item)
+            item
+        }
+    }
+    val formatted: FormattedRows = formatRows(rows.first, columns.filter { it.isVisible }, items)
+    // the column value providers have now been run for the new beans; cache them only now since they may have
+    // modified the beans, see _getCached().
+    newItems.forEach { keyMapper.key(it) }
+    return formatted
+}
+
 private val _ColumnPathRenderer_provider: Field by lazy(LazyThreadSafetyMode.PUBLICATION) {
     val f = ColumnPathRenderer::class.java.getDeclaredField("provider")
     f.isAccessible = true
@@ -482,7 +520,7 @@ private fun <T> Grid<T>.getSortIndicator(column: Grid.Column<T>): String {
 }
 
 /**
- * Dumps given range of [rows] of the Grid, formatting the values using the [_getFormatted] function. The output example:
+ * Dumps given range of [rows] of the Grid, formatting the values using the [_getFormattedRows] function. The output example:
  * ```
  * --[Name]--[Age]--[Occupation]--
  * 0: John, 25, Service Worker
@@ -515,25 +553,22 @@ public fun <T : Any> Grid<T>._dump(rows: IntRange = 0..9): String =
         } else if (_dataProviderSupportsSizeOp) {
             dsIndices = 0 until _size()
             displayIndices = rows.intersect(dsIndices)
-            for (i in displayIndices) {
-                _getFormattedRow(i).joinTo(
-                    this,
-                    prefix = "$i: ",
-                    postfix = "\n"
-                )
+            if (displayIndices.isNotEmpty()) {
+                val formatted: FormattedRows = _getFormattedRows(displayIndices.first()..displayIndices.last())
+                formatted.forEachIndexed { index: Int, row: List<String> ->
+                    row.joinTo(this, prefix = "${formatted.firstRowIndex + index}: ", postfix = "\n")
+                }
             }
             val andMore = dsIndices.size - displayIndices.size
             if (andMore > 0) {
                 append("--and $andMore more\n")
             }
         } else {
-            var rowsOutputted = 0
-            for (i in rows) {
-                val row = _getFormattedRowOrNull(i) ?: break
-                row.joinTo(this, prefix = "$i: ", postfix = "\n")
-                rowsOutputted++
+            val formatted: FormattedRows = _getFormattedRows(rows)
+            formatted.forEachIndexed { index: Int, row: List<String> ->
+                row.joinTo(this, prefix = "${formatted.firstRowIndex + index}: ", postfix = "\n")
             }
-            if (rowsOutputted == rows.size) {
+            if (formatted.size == rows.size) {
                 append("--and possibly more\n")
             } else {
                 append("--\n")
@@ -948,9 +983,10 @@ public fun <T, F> HierarchicalDataProvider<T, F>._rowSequence(
  * Returns the number of items the [TreeGrid] is actually showing. For example
  * it doesn't count in children of collapsed nodes.
  *
- * A very slow operation since it walks through all items returned by [_rowSequence].
+ * A very slow operation since it walks through all items returned by [_rowSequence],
+ * unless [KaribuConfig.indexTreeGridRows] is on.
  */
-public fun TreeGrid<*>._size(): Int = _rowSequence().count()
+public fun TreeGrid<*>._size(): Int = TreeGridRowIndex.of(this)?.size() ?: _rowSequence().count()
 
 private fun <T, F> HierarchicalDataProvider<T, F>.checkedSize(query: HierarchicalQuery<T, F>): Int {
     if (query.parent != null && !hasChildren(query.parent)) return 0
@@ -960,9 +996,13 @@ private fun <T, F> HierarchicalDataProvider<T, F>.checkedSize(query: Hierarchica
 }
 
 private fun <T, F> HierarchicalDataProvider<T, F>.checkedFetch(query: HierarchicalQuery<T, F>): List<T> =
-    when {
-        checkedSize(query) == 0 -> listOf()
-        else -> fetchChildren(query).toList()
+    KaribuMetrics.measure(KaribuMetric.GRID_FETCH) {
+        val items: List<T> = when {
+            checkedSize(query) == 0 -> listOf()
+            else -> fetchChildren(query).toList()
+        }
+        KaribuMetrics.add(KaribuMetric.GRID_ROWS_FETCHED, items.size)
+        items
     }
 
 public fun <T : Any> TreeGrid<T>._dataSourceToPrettyTree(): PrettyPrintTree {
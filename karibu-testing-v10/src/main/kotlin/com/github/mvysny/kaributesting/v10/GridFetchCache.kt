@@ -0,0 +1,138 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.vaadin.flow.component.grid.Grid
+import com.vaadin.flow.component.treegrid.TreeGrid
+import com.vaadin.flow.data.provider.DataCommunicator
+import com.vaadin.flow.data.provider.DataProvider
+import com.vaadin.flow.data.provider.DataViewUtils
+import com.vaadin.flow.shared.Registration
+import java.lang.ref.WeakReference
+
+/**
+ * Caches the rows and the row count of a [Grid], fetched in pages of [KaribuConfig.gridFetchPageSize] rows,
+ * the way the browser fetches the rows. Used by [_get] and [_size], so that asserting all rows one by one
+ * issues a handful of backend queries instead of two queries per row.
+ *
+ * The cache is dropped when:
+ * * the data provider fires any [com.vaadin.flow.data.provider.DataChangeEvent], e.g. on [DataProvider.refreshAll]
+ *   or [DataProvider.refreshItem];
+ * * the Grid's data provider, sorting, filter or the page size changes;
+ * * the Grid is detached, or [MockVaadin.tearDown] is called.
+ *
+ * Stored in the Grid itself via [ComponentCacheHolder], so that it's neither serialized with the Grid nor outlives it.
+ * Only weakly references the Grid's sorting comparator and filters: the data provider listener keeps the cache
+ * alive as long as the data provider, which may outlive the Grid.
+ */
+internal class GridFetchCache private constructor(
+    /**
+     * The holder of this cache. The data provider listener references the holder: the data provider is serialized
+     * together with the Grid, but the cache isn't serializable.
+     */
+    private val holder: ComponentCacheHolder<GridFetchCache>
+) : ComponentCache {
+    /**
+     * The data provider observed by [registration].
+     */
+    private var dataProvider: DataProvider<*, *>? = null
+    private var registration: Registration? = null
+    /**
+     * The state of the Grid the cached rows were fetched with; see [stateOf].
+     */
+    private var state: List<Any?>? = null
+    private var size: Int? = null
+    private val pages = HashMap<Int, List<Any?>>()
+
+    private fun invalidate() {
+        size = null
+        pages.clear()
+    }
+
+    override fun release() {
+        registration?.remove()
+        registration = null
+        dataProvider = null
+        state = null
+        invalidate()
+    }
+
+    /**
+     * Captures everything the fetched rows depend on, apart from the data provider contents. The sorting
+     * comparator and the filters are compared by identity: the Grid creates new instances whenever they change.
+     * The comparator is built from the Grid's columns which reference the Grid, so it's only referenced weakly.
+     */
+    private fun stateOf(grid: Grid<*>, pageSize: Int): List<Any?> {
+        val dataCommunicator: DataCommunicator<*> = grid.dataCommunicator
+        return listOf(
+            pageSize,
+            dataCommunicator.backEndSorting.map { it.sorted to it.direction },
+            IdentityKey(dataCommunicator.inMemorySorting),
+            IdentityKey(VaadinInternals.DataCommunicator_getFilter?.invoke(dataCommunicator)),
+            IdentityKey(DataViewUtils.getComponentFilter<Any?>(grid).orElse(null)),
+        )
+    }
+
+    private fun validate(grid: Grid<*>, pageSize: Int) {
+        val dataProvider: DataProvider<*, *> = grid.dataCommunicator.dataProvider
+        if (dataProvider !== this.dataProvider) {
+            release()
+            @Suppress("UNCHECKED_CAST")
+            registration = (dataProvider as DataProvider<Any?, *>).addDataProviderListener { holder.cache?.invalidate() }
+            this.dataProvider = dataProvider
+            ComponentCaches.register(this)
+        }
+        val state: List<Any?> = stateOf(grid, pageSize)
+        if (state != this.state) {
+            invalidate()
+            this.state = state
+        }
+    }
+
+    /**
+     * Returns the number of rows of given [grid]. Only call this if [_dataProviderSupportsSizeOp].
+     */
+    fun size(grid: Grid<*>): Int {
+        validate(grid, KaribuConfig.gridFetchPageSize)
+        return size ?: grid.dataCommunicator._size().also { size = it }
+    }
+
+    /**
+     * Returns the row at [rowIndex] of given [grid], or null if the data provider has fewer rows.
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun <T> getOrNull(grid: Grid<T>, rowIndex: Int): T? {
+        val pageSize: Int = KaribuConfig.gridFetchPageSize
+        validate(grid, pageSize)
+        val pageIndex: Int = rowIndex / pageSize
+        val page: List<Any?> = pages.getOrPut(pageIndex) { grid.dataCommunicator.fetch(pageIndex * pageSize, pageSize) }
+        return page.getOrNull(rowIndex % pageSize) as T?
+    }
+
+    /**
+     * Equal to another key of the same instance, as long as the instance hasn't been garbage-collected.
+     */
+    private class IdentityKey(value: Any?) {
+        private val ref: WeakReference<Any>? = value?.let { WeakReference(it) }
+        private val hash: Int = System.identityHashCode(value)
+        override fun equals(other: Any?): Boolean = other is IdentityKey && other.hash == hash && other.ref?.get() === ref?.get()
+        override fun hashCode(): Int = hash
+    }
+
+    companion object {
+        private const val KEY: String = "com.github.mvysny.kaributesting.v10.GridFetchCache"
+
+        /**
+         * Returns the cache of given [grid], or null if [KaribuConfig.gridFetchPageSize] is not positive or
+         * the grid is a [TreeGrid].
+         */
+        fun of(grid: Grid<*>): GridFetchCache? {
+            if (KaribuConfig.gridFetchPageSize <= 0 || grid is TreeGrid<*>) {
+                return null
+            }
+            val holder: ComponentCacheHolder<GridFetchCache> = ComponentCacheHolder.of(grid, KEY) { holder ->
+                // stop listening to the data provider: it may outlive the grid, e.g. a singleton bean.
+                grid.addDetachListener { holder.cache?.release() }
+            }
+            return holder.cache ?: GridFetchCache(holder).also { holder.cache = it }
+        }
+    }
+}
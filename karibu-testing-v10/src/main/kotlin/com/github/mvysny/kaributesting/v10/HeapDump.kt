@@ -0,0 +1,476 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.sun.management.HotSpotDiagnosticMXBean
+import java.io.BufferedInputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.lang.management.ManagementFactory
+import java.nio.file.Files
+
+/**
+ * A HotSpot heap dump in the HPROF format, used by [LeakDetector] to find out why an object is still reachable.
+ *
+ * Only the parts needed to find the reference paths are read: the class layouts, the static fields, the GC roots and
+ * the references between the objects; the values of the primitive fields and arrays are skipped. The references are
+ * not kept in memory: [pathTo] walks the references backwards, one pass over the file per step, so that even a dump of
+ * a large heap can be analyzed within a test JVM.
+ */
+internal class HeapDump private constructor(private val file: File) {
+    private var idSize: Int = 8
+    private val strings = HashMap<Long, String>()
+    /**
+     * Maps the ID of a class object to the ID of the string holding the class name, e.g. `java/util/HashMap`.
+     */
+    private val classNameIds = HashMap<Long, Long>()
+    private val classes = HashMap<Long, ClassDump>()
+    /**
+     * Maps the ID of an object which is a GC root to the description of the root.
+     */
+    private val roots = HashMap<Long, String>()
+    /**
+     * Maps the ID of an object referenced by a static field to the description of the field.
+     */
+    private val staticReferences = HashMap<Long, String>()
+    private val layouts = HashMap<Long, ReferenceLayout>()
+    private var buffer = ByteArray(1024)
+
+    /**
+     * @property fieldNames the IDs of the names of the instance fields declared by the class.
+     * @property fieldTypes the HPROF types of the instance fields declared by the class.
+     */
+    private class ClassDump(val superclassId: Long, val fieldNames: LongArray, val fieldTypes: ByteArray)
+
+    /**
+     * The reference fields of all instances of a class, including the fields declared by the superclasses.
+     * @property offsets the offsets of the fields in the instance data.
+     * @property names the names of the fields.
+     */
+    private class ReferenceLayout(val offsets: IntArray, val names: Array<String>)
+
+    /**
+     * A step of a path towards the object the path leads to.
+     * @property next the object referenced by the field.
+     * @property label the class name of the referencing object plus the field name or the array index.
+     */
+    private class Step(val next: Long, val className: String, val label: String)
+
+    /**
+     * Returns the name of the class with given ID, e.g. `java.util.HashMap` or `java.lang.Object[]`.
+     */
+    private fun className(classId: Long): String {
+        val name: String = classNameIds[classId]?.let { strings[it] } ?: return "class@${classId.toString(16)}"
+        if (!name.startsWith("[")) {
+            return name.replace('/', '.')
+        }
+        // an array class, e.g. [Ljava/lang/Object;
+        val dimensions: Int = name.indexOfFirst { it != '[' }
+        val component: String = name.substring(dimensions).removePrefix("L").removeSuffix(";").replace('/', '.')
+        return component + "[]".repeat(dimensions)
+    }
+
+    private fun referenceLayout(classId: Long): ReferenceLayout = layouts.getOrPut(classId) {
+        val offsets = mutableListOf<Int>()
+        val names = mutableListOf<String>()
+        var offset = 0
+        var clazz: ClassDump? = classes[classId]
+        var declaringClassId: Long = classId
+        // the instance data holds the fields of the class first, followed by the fields of its superclass
+        while (clazz != null) {
+            val declaringClass: String = className(declaringClassId)
+            for (i in clazz.fieldTypes.indices) {
+                val type: Int = clazz.fieldTypes[i].toInt()
+                val name: String = strings[clazz.fieldNames[i]] ?: "?"
+                // the referent of a weak/soft reference doesn't keep the object alive
+                val weak: Boolean = declaringClass == "java.lang.ref.Reference" && (name == "referent" || name == "discovered")
+                if (type == OBJECT && !weak) {
+                    offsets.add(offset)
+                    names.add(name)
+                }
+                offset += typeSize(type)
+            }
+            declaringClassId = clazz.superclassId
+            clazz = classes[declaringClassId]
+        }
+        ReferenceLayout(offsets.toIntArray(), names.toTypedArray())
+    }
+
+    private fun typeSize(type: Int): Int = when (type) {
+        OBJECT -> idSize
+        BOOLEAN, BYTE -> 1
+        CHAR, SHORT -> 2
+        FLOAT, INT -> 4
+        DOUBLE, LONG -> 8
+        else -> throw IOException("Unsupported HPROF type $type")
+    }
+
+    private fun readId(data: ByteArray, offset: Int): Long {
+        var id = 0L
+        for (i in 0 until idSize) {
+            id = (id shl 8) or (data[offset + i].toLong() and 0xFF)
+        }
+        return id
+    }
+
+    /**
+     * Returns the IDs of the instances of class [className] whose long field [fieldName] holds one of [values], mapped
+     * by the value.
+     */
+    fun findInstances(className: String, fieldName: String, values: Set<Long>): Map<Long, Long> {
+        val classId: Long = classNameIds.entries.firstOrNull { strings[it.value]?.replace('/', '.') == className }?.key
+            ?: return mapOf()
+        val clazz: ClassDump = classes[classId] ?: return mapOf()
+        var offset = 0
+        for (i in clazz.fieldTypes.indices) {
+            if (strings[clazz.fieldNames[i]] == fieldName) break
+            offset += typeSize(clazz.fieldTypes[i].toInt())
+        }
+        val result = HashMap<Long, Long>()
+        scan(onInstance = { id: Long, instanceClassId: Long, data: ByteArray, _: Int ->
+            if (instanceClassId == classId) {
+                var value = 0L
+                for (i in 0 until 8) {
+                    value = (value shl 8) or (data[offset + i].toLong() and 0xFF)
+                }
+                if (value in values) {
+                    result[value] = id
+                }
+            }
+        })
+        return result
+    }
+
+    /**
+     * Finds the shortest path from a GC root or a static field to the object with given [id], walking the references
+     * backwards. Returns the path as a list of lines, starting with the root, then listing the referencing fields,
+     * e.g. `static field com.example.Listeners.all`, `java.util.ArrayList.elementData`, `java.lang.Object[][2]`. The path
+     * is cut short at the last object of class [ownerClassName]; null if the object isn't reachable.
+     */
+    fun pathTo(id: Long, ownerClassName: String): List<String>? {
+        val steps = HashMap<Long, Step>()
+        val visited = HashSet<Long>()
+        visited.add(id)
+        var frontier: Set<Long> = setOf(id)
+        repeat(MAX_PATH_LENGTH) {
+            val start: Long? = frontier.firstOrNull { it in staticReferences || it in roots }
+            if (start != null) {
+                return render(start, id, steps, ownerClassName)
+            }
+            val next = HashSet<Long>()
+            scan(
+                onInstance = { objectId: Long, classId: Long, data: ByteArray, _: Int ->
+                    if (objectId !in visited) {
+                        val layout: ReferenceLayout = referenceLayout(classId)
+                        for (i in layout.offsets.indices) {
+                            val reference: Long = readId(data, layout.offsets[i])
+                            if (reference in frontier) {
+                                steps[objectId] = Step(reference, className(classId), ".${layout.names[i]}")
+                                visited.add(objectId)
+                                next.add(objectId)
+                                break
+                            }
+                        }
+                    }
+                },
+                onArrayElement = { arrayId: Long, classId: Long, index: Int, element: Long ->
+                    if (element in frontier && arrayId !in visited) {
+                        steps[arrayId] = Step(element, className(classId), "[$index]")
+                        visited.add(arrayId)
+                        next.add(arrayId)
+                    }
+                }
+            )
+            if (next.isEmpty()) {
+                return null
+            }
+            frontier = next
+        }
+        return null
+    }
+
+    private fun render(start: Long, target: Long, steps: Map<Long, Step>, ownerClassName: String): List<String> {
+        val path = mutableListOf<Step>()
+        var current: Long = start
+        while (current != target) {
+            val step: Step = steps.getValue(current)
+            path.add(step)
+            current = step.next
+        }
+        val owner: Int = path.indexOfLast { it.className == ownerClassName }
+        val lines = mutableListOf(staticReferences[start] ?: "GC root: ${roots[start]}")
+        if (owner >= 0) {
+            path.take(owner).mapTo(lines) { it.className + it.label }
+            lines.add(ownerClassName)
+        } else {
+            path.mapTo(lines) { it.className + it.label }
+        }
+        return lines
+    }
+
+    /**
+     * Reads the strings, the classes, the static fields and the GC roots.
+     */
+    private fun index() {
+        scan(index = true)
+    }
+
+    /**
+     * Reads the dump from start to end.
+     * @param index if true, reads the strings, the classes, the static fields and the GC roots.
+     * @param onInstance called for every instance: its ID, the ID of its class, and its field values. Instances are skipped if null.
+     * @param onArrayElement called for every element of every object array: the ID of the array, the ID of its class,
+     * the index and the element. Object arrays are skipped if null.
+     */
+    private fun scan(
+        index: Boolean = false,
+        onInstance: ((Long, Long, ByteArray, Int) -> Unit)? = null,
+        onArrayElement: ((Long, Long, Int, Long) -> Unit)? = null
+    ) {
+        Input(file).use { input: Input ->
+            while (input.readString() != null) {
+                // skip the header: the format name, the size of an ID and the timestamp
+            }
+            idSize = input.u4().toInt()
+            input.skip(8)
+            while (true) {
+                val tag: Int = input.u1OrEof()
+                if (tag < 0) break
+                input.skip(4) // time
+                val length: Long = input.u4()
+                when {
+                    tag == UTF8 && index -> {
+                        val id: Long = input.id()
+                        strings[id] = input.utf8((length - idSize).toInt())
+                    }
+                    tag == LOAD_CLASS && index -> {
+                        input.skip(4) // serial
+                        val classId: Long = input.id()
+                        input.skip(4) // stack trace serial
+                        classNameIds[classId] = input.id()
+                    }
+                    tag == HEAP_DUMP || tag == HEAP_DUMP_SEGMENT -> heapDump(input, input.position + length, index, onInstance, onArrayElement)
+                    else -> input.skip(length)
+                }
+            }
+        }
+    }
+
+    private fun heapDump(
+        input: Input,
+        end: Long,
+        index: Boolean,
+        onInstance: ((Long, Long, ByteArray, Int) -> Unit)?,
+        onArrayElement: ((Long, Long, Int, Long) -> Unit)?
+    ) {
+        while (input.position < end) {
+            when (val tag: Int = input.u1()) {
+                ROOT_UNKNOWN -> root(input.id(), "unknown", index)
+                ROOT_JNI_GLOBAL -> { root(input.id(), "JNI global reference", index); input.id() }
+                ROOT_JNI_LOCAL -> { root(input.id(), "JNI local reference", index); input.skip(8) }
+                ROOT_JAVA_FRAME -> { root(input.id(), "local variable of a running thread", index); input.skip(8) }
+                ROOT_NATIVE_STACK -> { root(input.id(), "native stack", index); input.skip(4) }
+                ROOT_STICKY_CLASS -> root(input.id(), "system class", index)
+                ROOT_THREAD_BLOCK -> { root(input.id(), "thread block", index); input.skip(4) }
+                ROOT_MONITOR_USED -> root(input.id(), "monitor held by a thread", index)
+                ROOT_THREAD_OBJECT -> { root(input.id(), "running thread", index); input.skip(8) }
+                CLASS_DUMP -> classDump(input, index)
+                INSTANCE_DUMP -> {
+                    val id: Long = input.id()
+                    input.skip(4)
+                    val classId: Long = input.id()
+                    val length: Int = input.u4().toInt()
+                    if (onInstance != null) {
+                        if (buffer.size < length) {
+                            buffer = ByteArray(length * 2)
+                        }
+                        input.readFully(buffer, length)
+                        onInstance(id, classId, buffer, length)
+                    } else {
+                        input.skip(length.toLong())
+                    }
+                }
+                OBJECT_ARRAY_DUMP -> {
+                    val id: Long = input.id()
+                    input.skip(4)
+                    val length: Int = input.u4().toInt()
+                    val classId: Long = input.id()
+                    if (onArrayElement != null) {
+                        for (i in 0 until length) {
+                            onArrayElement(id, classId, i, input.id())
+                        }
+                    } else {
+                        input.skip(length.toLong() * idSize)
+                    }
+                }
+                PRIMITIVE_ARRAY_DUMP -> {
+                    input.id()
+                    input.skip(4)
+                    val length: Long = input.u4()
+                    input.skip(length * typeSize(input.u1()))
+                }
+                else -> throw IOException("Unsupported HPROF heap dump record 0x${tag.toString(16)} at ${input.position}")
+            }
+        }
+    }
+
+    private fun root(id: Long, description: String, index: Boolean) {
+        if (index) {
+            roots.putIfAbsent(id, description)
+        }
+    }
+
+    private fun classDump(input: Input, index: Boolean) {
+        val classId: Long = input.id()
+        input.skip(4) // stack trace serial
+        val superclassId: Long = input.id()
+        input.skip(5L * idSize) // class loader, signers, protection domain, two reserved
+        input.skip(4) // instance size
+        repeat(input.u2()) {
+            input.skip(2) // constant pool index
+            input.skip(typeSize(input.u1()).toLong())
+        }
+        repeat(input.u2()) {
+            val nameId: Long = input.id()
+            val type: Int = input.u1()
+            if (type == OBJECT) {
+                val value: Long = input.id()
+                if (index && value != 0L) {
+                    staticReferences.putIfAbsent(value, "static field ${className(classId)}.${strings[nameId]}")
+                }
+            } else {
+                input.skip(typeSize(type).toLong())
+            }
+        }
+        val fieldCount: Int = input.u2()
+        val fieldNames = LongArray(fieldCount)
+        val fieldTypes = ByteArray(fieldCount)
+        for (i in 0 until fieldCount) {
+            fieldNames[i] = input.id()
+            fieldTypes[i] = input.u1().toByte()
+        }
+        if (index) {
+            classes[classId] = ClassDump(superclassId, fieldNames, fieldTypes)
+        }
+    }
+
+    /**
+     * Reads the HPROF file, keeping track of the position.
+     */
+    private inner class Input(file: File) : Closeable {
+        private val input = DataInputStream(BufferedInputStream(FileInputStream(file), 1 shl 20))
+        var position: Long = 0
+            private set
+
+        fun u1(): Int {
+            position++
+            return input.readUnsignedByte()
+        }
+
+        /**
+         * Returns -1 at the end of the file.
+         */
+        fun u1OrEof(): Int {
+            val value: Int = input.read()
+            if (value >= 0) position++
+            return value
+        }
+
+        fun u2(): Int {
+            position += 2
+            return input.readUnsignedShort()
+        }
+
+        fun u4(): Long {
+            position += 4
+            return input.readInt().toLong() and 0xFFFFFFFFL
+        }
+
+        fun id(): Long = if (idSize == 4) u4() else {
+            position += 8
+            input.readLong()
+        }
+
+        fun skip(count: Long) {
+            input.skipNBytes(count)
+            position += count
+        }
+
+        fun readFully(buffer: ByteArray, length: Int) {
+            input.readFully(buffer, 0, length)
+            position += length
+        }
+
+        fun utf8(length: Int): String {
+            val bytes = ByteArray(length)
+            readFully(bytes, length)
+            return String(bytes, Charsets.UTF_8)
+        }
+
+        /**
+         * Reads a null-terminated string; returns null once the terminating null is read.
+         */
+        fun readString(): Char? {
+            val value: Int = input.read()
+            if (value < 0) throw EOFException()
+            position++
+            return if (value == 0) null else value.toChar()
+        }
+
+        override fun close() {
+            input.close()
+        }
+    }
+
+    companion object {
+        private const val MAX_PATH_LENGTH = 100
+
+        private const val UTF8 = 0x01
+        private const val LOAD_CLASS = 0x02
+        private const val HEAP_DUMP = 0x0C
+        private const val HEAP_DUMP_SEGMENT = 0x1C
+
+        private const val ROOT_UNKNOWN = 0xFF
+        private const val ROOT_JNI_GLOBAL = 0x01
+        private const val ROOT_JNI_LOCAL = 0x02
+        private const val ROOT_JAVA_FRAME = 0x03
+        private const val ROOT_NATIVE_STACK = 0x04
+        private const val ROOT_STICKY_CLASS = 0x05
+        private const val ROOT_THREAD_BLOCK = 0x06
+        private const val ROOT_MONITOR_USED = 0x07
+        private const val ROOT_THREAD_OBJECT = 0x08
+        private const val CLASS_DUMP = 0x20
+        private const val INSTANCE_DUMP = 0x21
+        private const val OBJECT_ARRAY_DUMP = 0x22
+        private const val PRIMITIVE_ARRAY_DUMP = 0x23
+
+        private const val OBJECT = 2
+        private const val BOOLEAN = 4
+        private const val CHAR = 5
+        private const val FLOAT = 6
+        private const val DOUBLE = 7
+        private const val BYTE = 8
+        private const val SHORT = 9
+        private const val INT = 10
+        private const val LONG = 11
+
+        /**
+         * Dumps the live objects of this JVM into a temporary file, runs [block] with the dump, then deletes the file.
+         */
+        fun <T> dumpHeap(block: (HeapDump) -> T): T {
+            val dir: File = Files.createTempDirectory("karibu-heap").toFile()
+            val file = File(dir, "heap.hprof")
+            try {
+                ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean::class.java).dumpHeap(file.absolutePath, true)
+                val dump = HeapDump(file)
+                dump.index()
+                return block(dump)
+            } finally {
+                file.delete()
+                dir.delete()
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.vaadin.flow.di.Instantiator
+import com.vaadin.flow.di.Lookup
+import com.vaadin.flow.function.DeploymentConfiguration
+import com.vaadin.flow.router.Router
+import com.vaadin.flow.server.RouteRegistry
+import com.vaadin.flow.server.VaadinContext
+import com.vaadin.flow.server.VaadinService
+import jakarta.servlet.Servlet
+import jakarta.servlet.ServletContext
+import org.slf4j.Logger
+import java.lang.reflect.AccessibleObject
+import java.lang.reflect.Field
+import java.lang.reflect.Modifier
+import java.util.Collections
+import java.util.IdentityHashMap
+
+/**
+ * Walks the object graph via reflection and estimates the heap taken by the objects reachable from given roots,
+ * the way a heap dump analyzer would, without taking a heap dump. The sizes are estimates for a 64-bit JVM with
+ * compressed oops: 12 bytes of object header, 4 bytes per reference, objects aligned to 8 bytes.
+ *
+ * The fields of the JDK classes can't be read via reflection; the JDK collections and maps are walked via their public API
+ * instead, estimating the size of their internal nodes. The contents of other JDK objects (e.g. `AtomicReference`) are
+ * not walked, and neither are the referents of weak and soft references.
+ *
+ * The walk doesn't enter the objects shared by all sessions, such as the [VaadinService] or the classes; see [isShared].
+ * Every object is counted only once, even if it's reachable from multiple roots.
+ */
+internal class HeapWalker {
+    private val visited: MutableSet<Any> = Collections.newSetFromMap(IdentityHashMap())
+
+    /**
+     * Sums up the estimated sizes of the objects reachable from [root] which weren't counted before.
+     * Doesn't walk into the objects matching [stop], so that they can be counted via another root later on.
+     */
+    fun walk(root: Any, stop: (Any) -> Boolean = { false }): Long {
+        if (!visited.add(root)) {
+            return 0
+        }
+        var size = 0L
+        val stack = ArrayDeque<Any>()
+        stack.addLast(root)
+        while (stack.isNotEmpty()) {
+            val obj: Any = stack.removeLast()
+            size += shallowSize(obj)
+            forEachReference(obj) { ref: Any ->
+                if (!isShared(ref) && !stop(ref) && visited.add(ref)) {
+                    stack.addLast(ref)
+                }
+            }
+        }
+        return size
+    }
+
+    private companion object {
+        /**
+         * Layout of a class, computed once per class.
+         * @property shallowSize the size of an instance, not including the objects it references.
+         * @property references the reference fields which can be read via reflection.
+         * @property jdkContainer true if the class is (or extends) a JDK [Collection] or [Map], whose contents need to be
+         * walked via the public API.
+         */
+        private class Layout(val shallowSize: Long, val references: Array<Field>, val jdkContainer: Boolean)
+
+        private const val HEADER: Long = 12
+        private const val ARRAY_HEADER: Long = 16
+        private const val REFERENCE: Long = 4
+        /**
+         * The estimated size of the internal node of a JDK map entry, e.g. `HashMap.Node`, plus its slot in the table.
+         */
+        private const val MAP_ENTRY: Long = 40
+        /**
+         * The estimated size of a JDK collection element slot: a linked node, or a slot in an array with some spare capacity.
+         */
+        private const val COLLECTION_ELEMENT: Long = 16
+
+        private val layouts: ClassValue<Layout> = object : ClassValue<Layout>() {
+            override fun computeValue(type: Class<*>): Layout {
+                var size: Long = HEADER
+                val references = mutableListOf<Field>()
+                var jdkSuperclass = false
+                for (clazz in generateSequence(type) { it.superclass }) {
+                    if (clazz == Any::class.java) {
+                        break
+                    }
+                    val isJdk: Boolean = isJdkClass(clazz)
+                    jdkSuperclass = jdkSuperclass || isJdk
+                    for (field in clazz.declaredFields) {
+                        if (Modifier.isStatic(field.modifiers)) {
+                            continue
+                        }
+                        size += fieldSize(field.type)
+                        if (!field.type.isPrimitive && !isJdk && field.trySetAccessible()) {
+                            references.add(field)
+                        }
+                    }
+                }
+                val container: Boolean = jdkSuperclass &&
+                        (Collection::class.java.isAssignableFrom(type) || Map::class.java.isAssignableFrom(type))
+                return Layout(align(size), references.toTypedArray(), container)
+            }
+        }
+
+        /**
+         * True for the classes loaded by the bootstrap or the platform class loader. The module can't tell: the app,
+         * Vaadin and other libraries may be named modules too.
+         */
+        private fun isJdkClass(clazz: Class<*>): Boolean {
+            val loader: ClassLoader? = clazz.classLoader
+            return loader == null || loader === ClassLoader.getPlatformClassLoader()
+        }
+
+        private fun fieldSize(type: Class<*>): Long = when (type) {
+            java.lang.Boolean.TYPE, java.lang.Byte.TYPE -> 1
+            java.lang.Character.TYPE, java.lang.Short.TYPE -> 2
+            java.lang.Integer.TYPE, java.lang.Float.TYPE -> 4
+            java.lang.Long.TYPE, java.lang.Double.TYPE -> 8
+            else -> REFERENCE
+        }
+
+        private fun align(size: Long): Long = (size + 7) and 7L.inv()
+
+        private fun shallowSize(obj: Any): Long {
+            val clazz: Class<*> = obj.javaClass
+            if (clazz.isArray) {
+                return align(ARRAY_HEADER + java.lang.reflect.Array.getLength(obj) * fieldSize(clazz.componentType))
+            }
+            if (obj is String) {
+                // the String itself plus its byte array, Latin-1 or UTF-16 encoded
+                val bytesPerChar: Int = if (obj.all { it.code <= 0xFF }) 1 else 2
+                return layouts.get(clazz).shallowSize + align(ARRAY_HEADER + obj.length.toLong() * bytesPerChar)
+            }
+            val layout: Layout = layouts.get(clazz)
+            var size: Long = layout.shallowSize
+            if (layout.jdkContainer) {
+                size += when (obj) {
+                    is Map<*, *> -> obj.size * MAP_ENTRY
+                    is Collection<*> -> obj.size * COLLECTION_ELEMENT
+                    else -> 0
+                }
+            }
+            return size
+        }
+
+        private fun forEachReference(obj: Any, action: (Any) -> Unit) {
+            val clazz: Class<*> = obj.javaClass
+            if (clazz.isArray) {
+                if (!clazz.componentType.isPrimitive) {
+                    for (item in obj as Array<*>) {
+                        if (item != null) action(item)
+                    }
+                }
+                return
+            }
+            val layout: Layout = layouts.get(clazz)
+            for (field in layout.references) {
+                val value: Any? = field.get(obj)
+                if (value != null) action(value)
+            }
+            if (layout.jdkContainer) {
+                // copy the contents first: the action must not run while iterating, in case a lazily
+                // computed value modifies the collection.
+                val contents: List<Any?> = try {
+                    when (obj) {
+                        is Map<*, *> -> obj.entries.flatMap { listOf(it.key, it.value) }
+                        is Collection<*> -> obj.toList()
+                        else -> listOf()
+                    }
+                } catch (e: ConcurrentModificationException) {
+                    // modified by another thread; the size is an estimate anyway.
+                    listOf()
+                }
+                for (item in contents) {
+                    if (item != null) action(item)
+                }
+            }
+        }
+
+        /**
+         * The objects shared by all sessions, or which aren't a part of a session: the service and its configuration,
+         * the servlet, the route registry, the classes, the threads, the enum constants.
+         */
+        private fun isShared(obj: Any): Boolean = obj is Class<*> || obj is ClassLoader || obj is Thread ||
+                obj is Enum<*> || obj is AccessibleObject || obj is Logger ||
+                obj is VaadinService || obj is Servlet || obj is ServletContext || obj is VaadinContext ||
+                obj is DeploymentConfiguration || obj is Router || obj is RouteRegistry || obj is Instantiator ||
+                obj is Lookup
+    }
+}
@@ -1,12 +1,84 @@
 package com.github.mvysny.kaributesting.v10
 
+import com.github.mvysny.fakeservlet.FakeHttpSession
+import com.github.mvysny.fakeservlet.FakeRequest
 import com.vaadin.flow.component.internal.PendingJavaScriptInvocation
 import com.vaadin.flow.component.page.Page
+import java.io.File
 
 /**
  * Karibu-Testing configuration.
+ *
+ * All settings are JVM-global by default. To run tests with differing configuration in parallel,
+ * turn on [isolateThreads].
  */
 public object KaribuConfig {
+    /**
+     * The configuration shared by all threads; the only configuration unless [isolateThreads] is on.
+     */
+    private val shared = KaribuSettings()
+
+    /**
+     * The configuration of the current thread, used while [isolateThreads] is on. A thread started by a
+     * thread which already has its own configuration starts with a copy of it.
+     */
+    private val perThread = object : InheritableThreadLocal<KaribuSettings?>() {
+        override fun childValue(parentValue: KaribuSettings?): KaribuSettings? = parentValue?.copy()
+    }
+
+    @Volatile
+    private var isolateThreadsInt: Boolean = false
+
+    /**
+     * If `true`, every thread works with its own copy of this configuration (including [MockBrowser.userAgent]
+     * and [MockVaadin.mockRequestFactory]), so that tests running in parallel (e.g. with JUnit 5
+     * `junit.jupiter.execution.parallel.enabled=true`) may configure Karibu-Testing differently without
+     * affecting one another.
+     *
+     * A thread gets its copy when it first touches the configuration, typically in a `@BeforeEach` method
+     * right before [MockVaadin.setup]; the copy is taken from the configuration which was in effect
+     * when this flag was turned on. Any further changes done by the thread only affect the thread itself, and the
+     * threads it starts afterwards. [MockVaadin.tearDown] then discards the copy, so that the next test running in the same
+     * thread starts with the shared configuration again.
+     *
+     * Therefore, configure the settings shared by all tests first, then turn this on, e.g.:
+     * ```
+     * @BeforeAll @JvmStatic fun configureKaribu() {
+     *   KaribuConfig.testingLifecycleHook = MyLifecycleHook(TestingLifecycleHook.default)
+     *   KaribuConfig.isolateThreads = true
+     * }
+     * ```
+     * `false` by default.
+     */
+    @JvmStatic
+    public var isolateThreads: Boolean
+        get() = isolateThreadsInt
+        set(value) {
+            isolateThreadsInt = value
+            perThread.remove()
+        }
+
+    /**
+     * The configuration in effect for the current thread.
+     */
+    internal val settings: KaribuSettings
+        get() {
+            if (!isolateThreadsInt) return shared
+            var settings: KaribuSettings? = perThread.get()
+            if (settings == null) {
+                settings = shared.copy()
+                perThread.set(settings)
+            }
+            return settings
+        }
+
+    /**
+     * Discards the configuration of the current thread, if [isolateThreads] is on. Called from [MockVaadin.tearDown].
+     */
+    internal fun releaseCurrentThread() {
+        perThread.remove()
+    }
+
     /**
      * [PolymerTemplate]s and LitTemplates are a bit tricky.
      * The purpose of PolymerTemplates is to move as much code as possible to the client-side,
@@ -24,7 +96,9 @@ public object KaribuConfig {
      * Karibu-recognized tree of components.
      */
     @JvmStatic
-    public var includeVirtualChildrenInTemplates: Boolean = false
+    public var includeVirtualChildrenInTemplates: Boolean
+        get() = settings.includeVirtualChildrenInTemplates
+        set(value) { settings.includeVirtualChildrenInTemplates = value }
 
     /**
      * By default, Karibu fakes [MockPage.retrieveExtendedClientDetails].
@@ -39,7 +113,9 @@ public object KaribuConfig {
      * Expert setting: you most probably don't need to touch this!
      */
     @JvmStatic
-    public var fakeExtendedClientDetails: Boolean = true
+    public var fakeExtendedClientDetails: Boolean
+        get() = settings.fakeExtendedClientDetails
+        set(value) { settings.fakeExtendedClientDetails = value }
 
     /**
      * The `window.name` (browser tab identity) given to the **first** UI/tab that
@@ -53,7 +129,9 @@ public object KaribuConfig {
      * a specific initial tab id.
      */
     @JvmStatic
-    public var windowName: String = "ROOT-2521314-0.2626611481"
+    public var windowName: String
+        get() = settings.windowName
+        set(value) { settings.windowName = value }
 
     /**
      * If you need to hook into the testing lifecycle (e.g. you need to wait for any async operations to finish),
@@ -61,7 +139,9 @@ public object KaribuConfig {
      * where exactly you can hook into. The best way is to delegate to the [TestingLifecycleHook.default] implementation.
      */
     @JvmStatic
-    public var testingLifecycleHook: TestingLifecycleHook = TestingLifecycleHook.default
+    public var testingLifecycleHook: TestingLifecycleHook
+        get() = settings.testingLifecycleHook
+        set(value) { settings.testingLifecycleHook = value }
 
     /**
      * Called by default from [TestingLifecycleHook.handlePendingJavascriptInvocations].
@@ -72,20 +152,26 @@ public object KaribuConfig {
      * An empty list by default.
      */
     @JvmStatic
-    public var pendingJavascriptInvocationHandlers: MutableList<(PendingJavaScriptInvocation) -> Unit> = mutableListOf()
+    public var pendingJavascriptInvocationHandlers: MutableList<(PendingJavaScriptInvocation) -> Unit>
+        get() = settings.pendingJavascriptInvocationHandlers
+        set(value) { settings.pendingJavascriptInvocationHandlers = value }
 
     /**
      * Controls the behavior of [_value]. Since Karibu-Testing 2.4.0, this is set to `true`;
      * to configure Karibu-Testing to emulate previous versions set this to `false`.
      */
     @JvmStatic
-    public var defaultIsFromClient: Boolean = true
+    public var defaultIsFromClient: Boolean
+        get() = settings.defaultIsFromClient
+        set(value) { settings.defaultIsFromClient = value }
 
     /**
      * If `true` (the default), [MockVaadin.setup] also navigates to the root route (`""`).
      */
     @JvmStatic
-    public var initDefaultRoute: Boolean = true
+    public var initDefaultRoute: Boolean
+        get() = settings.initDefaultRoute
+        set(value) { settings.initDefaultRoute = value }
 
     /**
      * Controls *when*, during an F5 [Page.reload], Karibu simulates the browser unload beacon
@@ -104,7 +190,219 @@ public object KaribuConfig {
      * See `ideas/beacon-reload-timing.md` for the full analysis.
      */
     @JvmStatic
-    public var unloadBeaconTiming: UnloadBeaconTiming = UnloadBeaconTiming.EAGER
+    public var unloadBeaconTiming: UnloadBeaconTiming
+        get() = settings.unloadBeaconTiming
+        set(value) { settings.unloadBeaconTiming = value }
+
+    /**
+     * If `true`, [MockVaadin.setup] initializes the [com.github.mvysny.kaributesting.v10.mock.MockVaadinServlet],
+     * its [com.vaadin.flow.server.VaadinServletService] and the route registry only once per JVM
+     * (one instance per distinct set of [Routes]), and reuses it for all subsequent tests. Only the
+     * [com.vaadin.flow.server.VaadinSession] and the [com.vaadin.flow.component.UI] are created
+     * afresh for every test; [MockVaadin.tearDown] then closes just the session and the UI, and no longer
+     * fires the service destroy listeners.
+     *
+     * The servlet bootstrap (Lookup initialization, route registration) typically dominates the time
+     * spent in [MockVaadin.setup], so turning this on speeds up large test suites considerably.
+     * The catch is that any state your app stores in the service or in the application-scoped route
+     * registry (e.g. routes registered dynamically via `RouteConfiguration.forApplicationScope()`)
+     * leaks from one test to the next. Call [MockVaadin.destroyReusedServlets] to start from scratch.
+     *
+     * Only affects [MockVaadin.setup] overload which takes [Routes]; a custom servlet passed to
+     * [MockVaadin.setup] is always used as-is. `false` by default.
+     */
+    @JvmStatic
+    public var reuseServlet: Boolean
+        get() = settings.reuseServlet
+        set(value) { settings.reuseServlet = value }
+
+    /**
+     * If `true`, [_get]/[_find] and friends called on the UI keep an index of all components of the UI, and
+     * reuse it until the UI changes, instead of walking the entire component tree on every lookup.
+     * A lookup by [SearchSpec.id] or [SearchSpec.classes] then only examines components with that id or
+     * CSS class name; a lookup by [SearchSpec.clazz] only examines components of that class.
+     * The lookup results are identical to the ones without the index.
+     *
+     * The index is dropped whenever the UI's state tree has changes which haven't been sent to the browser
+     * yet. To be able to tell that, [MockVaadin.clientRoundtrip] collects the changes the way the real
+     * Vaadin does at the end of every request; therefore the index only pays off if your [testingLifecycleHook]
+     * calls [MockVaadin.clientRoundtrip] (the default hook does). If your [TestingLifecycleHook.getAllChildren]
+     * returns components which are not attached to the UI, leave this off: the index wouldn't notice the changes
+     * of such components.
+     *
+     * `false` by default.
+     */
+    @JvmStatic
+    public var indexComponentLookups: Boolean
+        get() = settings.indexComponentLookups
+        set(value) { settings.indexComponentLookups = value }
+
+    /**
+     * By default, [TestingLifecycleHookVaadin14Default.awaitBeforeLookup] calls [MockVaadin.clientRoundtrip] before
+     * every lookup. If this is `true`, the roundtrip is skipped if nothing has happened since the previous one: there are no changes
+     * in the current UI which would have to be sent to the browser, no blocks registered via
+     * [com.vaadin.flow.component.UI.beforeClientResponse], no pending JavaScript invocations and no tasks
+     * scheduled via [com.vaadin.flow.component.UI.access]. Since there's nothing for the roundtrip to do, the
+     * lookups behave exactly the same; they just don't waste time.
+     *
+     * To be able to tell whether the UI changed, [MockVaadin.clientRoundtrip] collects the changes
+     * the way the real Vaadin does at the end of every request.
+     * Calling [MockVaadin.clientRoundtrip] explicitly always performs the roundtrip.
+     *
+     * `false` by default.
+     */
+    @JvmStatic
+    public var skipCleanRoundtrips: Boolean
+        get() = settings.skipCleanRoundtrips
+        set(value) { settings.skipCleanRoundtrips = value }
+
+    /**
+     * If not null, [Routes.autoDiscoverViews] stores the outcome of every classpath scan into this directory, and
+     * reuses it in subsequent JVMs (e.g. in Gradle test forks or when re-running tests from the IDE) instead of scanning
+     * the classpath again. The stored outcome is discarded as soon as the classpath changes: when a jar file
+     * on the classpath or a class file in the scanned package changes, or when the classpath itself changes.
+     *
+     * Defaults to the value of the `karibu.routeIndexDirectory` system property, which is handy for configuring
+     * this from the build, for example:
+     * ```
+     * tasks.withType<Test> {
+     *     systemProperty("karibu.routeIndexDirectory", layout.buildDirectory.dir("karibu-routes").get().asFile.absolutePath)
+     * }
+     * ```
+     * Within a single JVM, the scans are memoized regardless of this setting.
+     */
+    @JvmStatic
+    public var routeIndexDirectory: File?
+        get() = settings.routeIndexDirectory
+        set(value) { settings.routeIndexDirectory = value }
+
+    /**
+     * If positive, [_get], [_getOrNull] and [_size] called on a [com.vaadin.flow.component.grid.Grid] fetch the rows
+     * from the data provider in pages of this many rows, the way the browser does, and remember the fetched rows and the
+     * row count. Iterating over all rows via `grid._get(i)` then issues one backend query per page, rather than
+     * a count query plus a fetch query per row.
+     *
+     * The remembered rows are dropped whenever the Grid's data provider fires a
+     * [com.vaadin.flow.data.provider.DataChangeEvent] (e.g. via `refreshAll()`), or the Grid's data provider,
+     * sorting or filter changes. Therefore, if your backend data changes without the data provider
+     * being refreshed, the Grid keeps returning the old rows - just like the real Grid would. Doesn't affect
+     * [com.vaadin.flow.component.treegrid.TreeGrid]s and [_fetch].
+     *
+     * 0 (disabled) by default; 50, the page size of the real Grid, is a good value.
+     */
+    @JvmStatic
+    public var gridFetchPageSize: Int
+        get() = settings.gridFetchPageSize
+        set(value) {
+            require(value >= 0) { "gridFetchPageSize must be 0 or greater: $value" }
+            settings.gridFetchPageSize = value
+        }
+
+    /**
+     * If `true`, [_get], [_getOrNull], [_fetch] and [_size] called on a [com.vaadin.flow.component.treegrid.TreeGrid]
+     * remember the rows the TreeGrid shows, walked in the [_rowSequence] order, instead of walking the tree from the root
+     * on every call. The tree is walked lazily: `_get(rowIndex)` only walks (and fetches the children) up to the requested row,
+     * while `_size()` walks the entire tree once. Looping over all rows via `treeGrid._get(i)` then polls the data
+     * provider for the children of every node just once.
+     *
+     * The remembered rows are dropped whenever a node is expanded or collapsed, the TreeGrid is sorted, its data provider
+     * changes or fires a [com.vaadin.flow.data.provider.DataChangeEvent] (e.g. via `refreshAll()`). Therefore,
+     * if you modify the `TreeData` without refreshing the data provider, the TreeGrid keeps returning the old rows.
+     *
+     * `false` by default.
+     */
+    @JvmStatic
+    public var indexTreeGridRows: Boolean
+        get() = settings.indexTreeGridRows
+        set(value) { settings.indexTreeGridRows = value }
+
+    /**
+     * The component tree included in the [ComponentLookupError] message only shows components at most this many levels
+     * below the component the lookup was performed on. 100 by default.
+     */
+    @JvmStatic
+    public var lookupFailureMaxDepth: Int
+        get() = settings.lookupFailureMaxDepth
+        set(value) {
+            require(value >= 0) { "lookupFailureMaxDepth must be 0 or greater: $value" }
+            settings.lookupFailureMaxDepth = value
+        }
+
+    /**
+     * The component tree included in the [ComponentLookupError] message shows at most this many components. 2000 by default.
+     */
+    @JvmStatic
+    public var lookupFailureMaxNodes: Int
+        get() = settings.lookupFailureMaxNodes
+        set(value) {
+            require(value >= 1) { "lookupFailureMaxNodes must be 1 or greater: $value" }
+            settings.lookupFailureMaxNodes = value
+        }
+
+    /**
+     * If `true`, [MockVaadin.tearDown] measures the heap and serialized size of the session before closing it,
+     * see [SessionFootprint.measure]. Read the outcome from [SessionFootprint.lastMeasured], or register [KaribuMetricsExtension]
+     * which logs it for every test. The measurement walks the entire session, so it slows down every test a bit.
+     * `false` by default.
+     */
+    @JvmStatic
+    public var measureSessionFootprint: Boolean
+        get() = settings.measureSessionFootprint
+        set(value) { settings.measureSessionFootprint = value }
+}
+
+/**
+ * Holds the values of all [KaribuConfig] settings, plus [MockBrowser.userAgent] and [MockVaadin.mockRequestFactory].
+ * See [KaribuConfig.isolateThreads] for details.
+ */
+internal class KaribuSettings {
+    var includeVirtualChildrenInTemplates: Boolean = false
+    var fakeExtendedClientDetails: Boolean = true
+    var windowName: String = "ROOT-2521314-0.2626611481"
+    var testingLifecycleHook: TestingLifecycleHook = TestingLifecycleHook.default
+    var pendingJavascriptInvocationHandlers: MutableList<(PendingJavaScriptInvocation) -> Unit> = mutableListOf()
+    var defaultIsFromClient: Boolean = true
+    var initDefaultRoute: Boolean = true
+    var unloadBeaconTiming: UnloadBeaconTiming = UnloadBeaconTiming.EAGER
+    var reuseServlet: Boolean = false
+    var indexComponentLookups: Boolean = false
+    var skipCleanRoundtrips: Boolean = false
+    var routeIndexDirectory: File? = System.getProperty("karibu.routeIndexDirectory")?.let { File(it) }
+    var gridFetchPageSize: Int = 0
+    var indexTreeGridRows: Boolean = false
+    var lookupFailureMaxDepth: Int = 100
+    var lookupFailureMaxNodes: Int = 2000
+    var measureSessionFootprint: Boolean = false
+    var userAgent: String = "Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:94.0) Gecko/20100101 Firefox/94.0"
+    var mockRequestFactory: (FakeHttpSession) -> FakeRequest = { FakeRequest(it) }
+
+    /**
+     * Creates an independent copy of these settings. The [pendingJavascriptInvocationHandlers] list is copied as well,
+     * so that registering a handler doesn't affect other threads.
+     */
+    fun copy(): KaribuSettings {
+        val copy = KaribuSettings()
+        copy.includeVirtualChildrenInTemplates = includeVirtualChildrenInTemplates
+        copy.fakeExtendedClientDetails = fakeExtendedClientDetails
+        copy.windowName = windowName
+        copy.testingLifecycleHook = testingLifecycleHook
+        copy.pendingJavascriptInvocationHandlers = pendingJavascriptInvocationHandlers.toMutableList()
+        copy.defaultIsFromClient = defaultIsFromClient
+        copy.initDefaultRoute = initDefaultRoute
+        copy.unloadBeaconTiming = unloadBeaconTiming
+        copy.reuseServlet = reuseServlet
+        copy.indexComponentLookups = indexComponentLookups
+        copy.skipCleanRoundtrips = skipCleanRoundtrips
+        copy.routeIndexDirectory = routeIndexDirectory
+        copy.gridFetchPageSize = gridFetchPageSize
+        copy.indexTreeGridRows = indexTreeGridRows
+        copy.lookupFailureMaxDepth = lookupFailureMaxDepth
+        copy.lookupFailureMaxNodes = lookupFailureMaxNodes
+        copy.measureSessionFootprint = measureSessionFootprint
+        copy.userAgent = userAgent
+        copy.mockRequestFactory = mockRequestFactory
+        return copy
+    }
 }
 
 /**
@@ -0,0 +1,177 @@
+package com.github.mvysny.kaributesting.v10
+
+import java.io.Serializable
+import java.util.concurrent.TimeUnit
+
+/**
+ * The operations measured by [KaribuMetrics]. A timed metric records the number of calls and the time spent
+ * within the calls; a counter only records a number.
+ */
+public enum class KaribuMetric(public val timed: Boolean, internal val displayName: String) {
+    /**
+     * [MockVaadin.setup], including the servlet initialization.
+     */
+    SETUP(true, "setup"),
+    /**
+     * [MockVaadin.tearDown].
+     */
+    TEAR_DOWN(true, "tearDown"),
+    /**
+     * [MockVaadin.clientRoundtrip], including the [RUN_UI_QUEUE] it performs.
+     */
+    CLIENT_ROUNDTRIP(true, "clientRoundtrip"),
+    /**
+     * [MockVaadin.runUIQueue].
+     */
+    RUN_UI_QUEUE(true, "runUIQueue"),
+    /**
+     * [_get], [_find], [_expectNone] and friends, including the [TestingLifecycleHook] calls
+     * (and therefore the [CLIENT_ROUNDTRIP]) they perform.
+     */
+    LOOKUP(true, "lookup"),
+    /**
+     * The number of components the [LOOKUP]s walked through.
+     */
+    LOOKUP_NODES_VISITED(false, "lookup nodes visited"),
+    /**
+     * The number of components the [LOOKUP]s matched.
+     */
+    LOOKUP_MATCHES(false, "lookup matches"),
+    /**
+     * Fetching items from a Grid's data provider, including the fetches of TreeGrid children.
+     */
+    GRID_FETCH(true, "grid fetch"),
+    /**
+     * The number of items the [GRID_FETCH]es returned.
+     */
+    GRID_ROWS_FETCHED(false, "grid rows fetched"),
+    /**
+     * Evaluating a renderer via [_getPresentationValue], e.g. from [_getFormattedRow].
+     */
+    RENDERER(true, "renderer"),
+}
+
+/**
+ * Records how many times Karibu-Testing performed certain operations, and how much time it spent doing them.
+ * Helps to tell whether a slow test is slow because of the app code or because of Karibu-Testing itself. See [KaribuMetric]
+ * for the list of the operations measured. The time of a nested operation is included in the time of the outer operation
+ * as well: for example the time of a [KaribuMetric.LOOKUP] includes the time of the [KaribuMetric.CLIENT_ROUNDTRIP] it performed.
+ *
+ * The metrics are only recorded while [enabled] is true, and are recorded separately for every thread.
+ * Use [snapshot] to obtain the metrics recorded by the current thread so far, and [reset] to clear them. Alternatively,
+ * register [KaribuMetricsExtension] to your JUnit 5 test class, to have a summary logged for every test and test class.
+ */
+public object KaribuMetrics {
+    /**
+     * If true, Karibu-Testing records the metrics. The overhead is negligible while disabled: just a check of this flag.
+     * Defaults to the value of the `karibu.metrics` system property, `false` if the property is not set.
+     */
+    @JvmStatic
+    @Volatile
+    public var enabled: Boolean = java.lang.Boolean.getBoolean("karibu.metrics")
+
+    private class Counters {
+        val counts = LongArray(KaribuMetric.entries.size)
+        val nanos = LongArray(KaribuMetric.entries.size)
+    }
+
+    private val counters: ThreadLocal<Counters> = ThreadLocal.withInitial { Counters() }
+
+    /**
+     * Returns the metrics recorded by the current thread since the last [reset].
+     */
+    @JvmStatic
+    public fun snapshot(): KaribuMetricsSnapshot {
+        val counters: Counters = counters.get()
+        return KaribuMetricsSnapshot(counters.counts.copyOf(), counters.nanos.copyOf())
+    }
+
+    /**
+     * Clears the metrics recorded by the current thread.
+     */
+    @JvmStatic
+    public fun reset() {
+        counters.remove()
+    }
+
+    /**
+     * Records one call of given [metric] which took [nanos] nanoseconds. Only called when [enabled].
+     */
+    internal fun record(metric: KaribuMetric, nanos: Long) {
+        val counters: Counters = counters.get()
+        counters.counts[metric.ordinal]++
+        counters.nanos[metric.ordinal] += nanos
+    }
+
+    /**
+     * Adds [amount] to the counter [metric], if [enabled].
+     */
+    internal fun add(metric: KaribuMetric, amount: Int) {
+        if (enabled) {
+            counters.get().counts[metric.ordinal] += amount.toLong()
+        }
+    }
+
+    /**
+     * Runs given [block], recording the call as [metric] if [enabled].
+     */
+    internal inline fun <T> measure(metric: KaribuMetric, block: () -> T): T {
+        if (!enabled) {
+            return block()
+        }
+        val start: Long = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            record(metric, System.nanoTime() - start)
+        }
+    }
+}
+
+/**
+ * The metrics recorded by [KaribuMetrics]. Immutable.
+ */
+public class KaribuMetricsSnapshot internal constructor(private val counts: LongArray, private val nanos: LongArray) : Serializable {
+    /**
+     * Returns the number of calls of a timed [metric], or the value of a counter [metric].
+     */
+    public fun count(metric: KaribuMetric): Long = counts[metric.ordinal]
+
+    /**
+     * Returns the total time spent in the calls of a timed [metric], in nanoseconds. Always 0 for a counter.
+     */
+    public fun nanos(metric: KaribuMetric): Long = nanos[metric.ordinal]
+
+    /**
+     * True if nothing was recorded.
+     */
+    public val isEmpty: Boolean get() = counts.all { it == 0L }
+
+    /**
+     * Sums up this and [other] metrics.
+     */
+    public operator fun plus(other: KaribuMetricsSnapshot): KaribuMetricsSnapshot =
+        KaribuMetricsSnapshot(LongArray(counts.size) { counts[it] + other.counts[it] }, LongArray(nanos.size) { nanos[it] + other.nanos[it] })
+
+    /**
+     * Lists all metrics which were recorded, e.g. `setup: 1x 120.4ms, lookup: 20x 15.1ms, lookup nodes visited: 1200`.
+     */
+    override fun toString(): String = KaribuMetric.entries
+        .filter { count(it) > 0 }
+        .joinToString { metric ->
+            if (metric.timed) {
+                "${metric.displayName}: ${count(metric)}x ${"%.1f".format(nanos(metric) / TimeUnit.MILLISECONDS.toNanos(1).toDouble())}ms"
+            } else {
+                "${metric.displayName}: ${count(metric)}"
+            }
+        }
+        .ifEmpty { "nothing recorded" }
+
+    public companion object {
+        /**
+         * No metrics recorded.
+         */
+        @JvmStatic
+        public val EMPTY: KaribuMetricsSnapshot = KaribuMetricsSnapshot(LongArray(KaribuMetric.entries.size), LongArray(KaribuMetric.entries.size))
+    }
+}
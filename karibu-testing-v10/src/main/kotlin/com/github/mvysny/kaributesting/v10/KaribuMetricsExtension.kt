@@ -0,0 +1,73 @@
+package com.github.mvysny.kaributesting.v10
+
+import org.junit.jupiter.api.extension.AfterAllCallback
+import org.junit.jupiter.api.extension.AfterEachCallback
+import org.junit.jupiter.api.extension.BeforeAllCallback
+import org.junit.jupiter.api.extension.BeforeEachCallback
+import org.junit.jupiter.api.extension.ExtensionContext
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+/**
+ * A JUnit 5 extension which turns on [KaribuMetrics], then logs the metrics recorded by every test, and a summary
+ * for the entire test class:
+ * ```
+ * @ExtendWith(KaribuMetricsExtension::class)
+ * class MyUITest { ... }
+ * ```
+ * The metrics of a test include everything the test thread did in `@BeforeEach` and `@AfterEach` methods,
+ * typically [MockVaadin.setup] and [MockVaadin.tearDown]. If [KaribuConfig.measureSessionFootprint] is on,
+ * the extension also logs the [SessionFootprint] measured by [MockVaadin.tearDown].
+ *
+ * [KaribuMetrics.enabled] stays on after the test class finishes, since other test classes may be running in parallel.
+ *
+ * Requires JUnit 5 on the classpath.
+ */
+public class KaribuMetricsExtension : BeforeAllCallback, AfterAllCallback, BeforeEachCallback, AfterEachCallback {
+    private val namespace: ExtensionContext.Namespace = ExtensionContext.Namespace.create(KaribuMetricsExtension::class.java)
+
+    /**
+     * The metrics of all tests of a test class, summed up. Tests may run in parallel, hence the synchronization.
+     */
+    private class ClassMetrics {
+        private var metrics: KaribuMetricsSnapshot = KaribuMetricsSnapshot.EMPTY
+        private var tests: Int = 0
+        @Synchronized
+        fun add(test: KaribuMetricsSnapshot) {
+            metrics += test
+            tests++
+        }
+        @Synchronized
+        override fun toString(): String = "$tests tests: $metrics"
+    }
+
+    override fun beforeAll(context: ExtensionContext) {
+        KaribuMetrics.enabled = true
+        context.getStore(namespace).put(ClassMetrics::class.java, ClassMetrics())
+    }
+
+    override fun beforeEach(context: ExtensionContext) {
+        KaribuMetrics.reset()
+    }
+
+    override fun afterEach(context: ExtensionContext) {
+        val metrics: KaribuMetricsSnapshot = KaribuMetrics.snapshot()
+        KaribuMetrics.reset()
+        log.info("Karibu metrics of ${context.requiredTestClass.simpleName}.${context.displayName}: $metrics")
+        val footprint: SessionFootprint? = SessionFootprint.takeLast()
+        if (footprint != null) {
+            log.info("Session footprint of ${context.requiredTestClass.simpleName}.${context.displayName}: $footprint")
+        }
+        context.getStore(namespace).get(ClassMetrics::class.java, ClassMetrics::class.java)?.add(metrics)
+    }
+
+    override fun afterAll(context: ExtensionContext) {
+        val classMetrics: ClassMetrics = context.getStore(namespace).get(ClassMetrics::class.java, ClassMetrics::class.java) ?: return
+        log.info("Karibu metrics of ${context.requiredTestClass.simpleName}, $classMetrics")
+    }
+
+    private companion object {
+        @JvmStatic
+        private val log: Logger = LoggerFactory.getLogger(KaribuMetricsExtension::class.java)
+    }
+}
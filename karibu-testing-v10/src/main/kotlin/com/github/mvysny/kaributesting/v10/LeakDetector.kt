@@ -0,0 +1,198 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.vaadin.flow.component.ComponentUtil
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.server.VaadinSession
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.io.Serializable
+import java.lang.ref.WeakReference
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Detects [VaadinSession]s and [UI]s which are still reachable after [MockVaadin.tearDown], e.g. because a static
+ * listener or a Spring singleton holds on to them, or because a test stored them in a static field. Such instances pile up
+ * over the test run and eventually make the test JVM fail with `OutOfMemoryError`.
+ *
+ * While [enabled], Karibu-Testing remembers every session and UI it creates, weakly, together with the stack trace
+ * of the code which created it. [MockVaadin.tearDown] then checks that the instances torn down by the *previous*
+ * [MockVaadin.tearDown] called by the same thread were garbage-collected; the instances of the current test are still
+ * likely to be referenced by the test itself, e.g. via a field holding a component. If they weren't, the check dumps the heap,
+ * finds the path from a GC root to every leaked instance, and fails with an [AssertionError] listing the leaks:
+ * ```
+ * 1 Vaadin instance(s) still reachable after MockVaadin.tearDown():
+ * MockedUI (uiId 1), created at
+ *     com.example.MyUITest.setup(MyUITest.kt:25)
+ *     ...
+ *   reachable via
+ *     static field com.example.EventBus.listeners
+ *     java.util.ArrayList.elementData
+ *     java.lang.Object[][0]
+ *     com.example.MyView$1.this$0
+ *     com.example.MyView.ui
+ *     com.github.mvysny.kaributesting.v10.MockedUI
+ * ```
+ * Call [check] from an `@AfterAll` method to check the instances torn down by the last test as well.
+ *
+ * The check runs a GC on every [MockVaadin.tearDown], which slows the tests down; the heap dump
+ * is only taken if there's a leak, and requires a HotSpot-based JVM.
+ */
+public object LeakDetector {
+    /**
+     * If true, Karibu-Testing tracks the sessions and the UIs it creates, and checks them in [MockVaadin.tearDown].
+     * Defaults to the value of the `karibu.leakDetector` system property, `false` if the property is not set.
+     */
+    @JvmStatic
+    @Volatile
+    public var enabled: Boolean = java.lang.Boolean.getBoolean("karibu.leakDetector")
+
+    /**
+     * If true (the default), the leak report includes the path from a GC root to every leaked instance. Finding the path
+     * requires dumping the heap and reading the dump several times, which may take seconds on large heaps.
+     */
+    @JvmStatic
+    @Volatile
+    public var findReferencePaths: Boolean = true
+
+    private val log: Logger = LoggerFactory.getLogger(LeakDetector::class.java)
+
+    /**
+     * Identifies a tracked instance in the heap dump. Only referenced by the tracked instance, therefore it's
+     * collected together with the instance.
+     */
+    private class Marker(val id: Long) : Serializable
+
+    private const val MARKER_KEY: String = "com.github.mvysny.kaributesting.v10.LeakDetector.marker"
+
+    private class Tracked(
+        val id: Long,
+        val marker: WeakReference<Marker>,
+        val className: String,
+        val description: String,
+        val createdAt: Throwable,
+        val threadId: Long
+    ) {
+        /**
+         * Set by [MockVaadin.tearDown]; the instance is expected to be garbage-collected afterwards.
+         */
+        @Volatile
+        var tornDown: Boolean = false
+
+        val isAlive: Boolean get() = marker.get() != null
+    }
+
+    private val tracked = ConcurrentLinkedQueue<Tracked>()
+    private val ids = AtomicLong()
+
+    /**
+     * Tracks given [session]; called by [MockVaadin] when it creates a session. The session must be locked.
+     */
+    internal fun track(session: VaadinSession) {
+        if (enabled) {
+            val marker = Marker(ids.incrementAndGet())
+            session.setAttribute(MARKER_KEY, marker)
+            track(marker, session.javaClass, session.javaClass.simpleName)
+        }
+    }
+
+    /**
+     * Tracks given [ui]; called by [MockVaadin] when it creates a UI.
+     */
+    internal fun track(ui: UI) {
+        if (enabled) {
+            val marker = Marker(ids.incrementAndGet())
+            ComponentUtil.setData(ui, MARKER_KEY, marker)
+            track(marker, ui.javaClass, "${ui.javaClass.simpleName} (uiId ${ui.uiId})")
+        }
+    }
+
+    private fun track(marker: Marker, clazz: Class<*>, description: String) {
+        tracked.add(Tracked(marker.id, WeakReference(marker), clazz.name, description,
+            Throwable("created here"), Thread.currentThread().threadId()))
+    }
+
+    /**
+     * Called at the end of [MockVaadin.tearDown]: checks the instances torn down by the previous [MockVaadin.tearDown]
+     * of this thread, then marks the instances of this thread as torn down.
+     */
+    internal fun afterTearDown() {
+        if (!enabled || tracked.isEmpty()) {
+            return
+        }
+        val current: Long = Thread.currentThread().threadId()
+        try {
+            checkTracked { it.threadId == current && it.tornDown }
+        } finally {
+            tracked.forEach { if (it.threadId == current) it.tornDown = true }
+        }
+    }
+
+    /**
+     * Checks that all sessions and UIs torn down by [MockVaadin.tearDown] so far, by any thread, were garbage-collected.
+     * @throws AssertionError if any of them is still reachable.
+     */
+    @JvmStatic
+    public fun check() {
+        checkTracked { it.tornDown }
+    }
+
+    /**
+     * Forgets all tracked instances, e.g. after a known leak was reported.
+     */
+    @JvmStatic
+    public fun clear() {
+        tracked.clear()
+    }
+
+    private fun checkTracked(filter: (Tracked) -> Boolean) {
+        var suspects: List<Tracked> = aliveSuspects(filter)
+        // weak references are only cleared by a GC; give the GC a couple of chances.
+        for (attempt in 0 until 3) {
+            if (suspects.isEmpty()) break
+            System.gc()
+            Thread.sleep(10L * attempt)
+            suspects = aliveSuspects(filter)
+        }
+        if (suspects.isEmpty()) {
+            return
+        }
+        // report every leak just once
+        tracked.removeAll(suspects.toSet())
+        val paths: Map<Long, List<String>> = if (findReferencePaths) findPaths(suspects) else mapOf()
+        val message: String = suspects.joinToString("\n", "${suspects.size} Vaadin instance(s) still reachable after MockVaadin.tearDown():\n") { leak ->
+            val createdAt: String = leak.createdAt.stackTrace
+                .dropWhile { it.className.startsWith(LeakDetector::class.java.name) || it.className.startsWith(MockVaadin::class.java.name) }
+                .take(8)
+                .joinToString("\n") { "    $it" }
+            val path: String = paths[leak.id]?.joinToString("\n", "\n  reachable via\n") { "    $it" } ?: ""
+            "${leak.description}, created at\n$createdAt$path"
+        }
+        throw AssertionError(message)
+    }
+
+    /**
+     * Forgets the instances which were garbage-collected meanwhile; returns the live ones matching [filter].
+     * A separate function, so that no local variable keeps a tracked instance alive.
+     */
+    private fun aliveSuspects(filter: (Tracked) -> Boolean): List<Tracked> {
+        tracked.removeIf { !it.isAlive }
+        return tracked.filter(filter)
+    }
+
+    private fun findPaths(leaks: List<Tracked>): Map<Long, List<String>> = try {
+        HeapDump.dumpHeap { dump: HeapDump ->
+            val markers: Map<Long, Long> = dump.findInstances(Marker::class.java.name, "id", leaks.map { it.id }.toSet())
+            // every path takes a pass over the dump per step; only find the paths of the first few leaks.
+            leaks.take(MAX_PATHS).mapNotNull { leak ->
+                val path: List<String>? = markers[leak.id]?.let { dump.pathTo(it, leak.className) }
+                if (path == null) null else leak.id to path
+            }.toMap()
+        }
+    } catch (e: Exception) {
+        log.warn("Failed to find the reference paths of the leaked Vaadin instances", e)
+        mapOf()
+    }
+
+    private const val MAX_PATHS = 3
+}
@@ -0,0 +1,244 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.github.mvysny.fakeservlet.FakeServletConfig
+import com.github.mvysny.kaributesting.v10.mock.MockVaadinHelper
+import com.github.mvysny.kaributesting.v10.mock.MockVaadinServlet
+import com.github.mvysny.kaributesting.v10.mock.MockedUI
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.server.VaadinServlet
+import com.vaadin.flow.server.VaadinServletService
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.math.ceil
+
+/**
+ * Drives many concurrent [MockVaadin] sessions against a single [VaadinServletService], to catch server-side
+ * scalability regressions: slow views, lock contention, memory hungry sessions. Every session runs in its own
+ * virtual thread, with its own session, UI, request and response, exactly as if [MockVaadin.setup] was called
+ * by a test running in that thread; the scenario therefore uses the usual [_get]/[_click] API:
+ * ```
+ * LoadDriver(routes).use { driver ->
+ *     driver.sessions = 200
+ *     driver.run { navigateTo<WelcomeView>() }  // warm up
+ *     val report: LoadReport = driver.run { session ->
+ *         _get<TextField> { label = "Name" }._value = "user$session"
+ *         _get<Button> { text = "Save" }._click()
+ *     }
+ *     println(report)
+ *     expect(true) { report.latencyNanos(99.0) < TimeUnit.MILLISECONDS.toNanos(50) }
+ * }
+ * ```
+ * The virtual threads inherit the [KaribuConfig] of the thread calling [run], even when [KaribuConfig.isolateThreads] is on.
+ *
+ * The servlet is initialized on the first [run] and then shared by all runs, until the driver is [close]d.
+ */
+public class LoadDriver(
+    private val uiFactory: () -> UI,
+    /**
+     * Serves all sessions; must be thread-safe, as [VaadinServlet] is.
+     */
+    private val servlet: VaadinServlet
+) : AutoCloseable {
+    /**
+     * Serves all sessions via a [MockVaadinServlet] serving given [routes].
+     */
+    @JvmOverloads
+    public constructor(routes: Routes = Routes(), uiFactory: () -> UI = @JvmSerializableLambda { MockedUI() }) :
+            this(uiFactory, MockVaadinServlet(routes, uiFactory))
+
+    /**
+     * The number of concurrent sessions, each running in its own virtual thread. Defaults to 100.
+     */
+    public var sessions: Int = 100
+        set(value) {
+            require(value >= 1) { "sessions: must be 1 or greater but was $value" }
+            field = value
+        }
+
+    /**
+     * How many times every session runs the scenario. Defaults to 1.
+     */
+    public var iterations: Int = 1
+        set(value) {
+            require(value >= 1) { "iterations: must be 1 or greater but was $value" }
+            field = value
+        }
+
+    /**
+     * If true (the default), [run] measures the heap used by the sessions while they're all alive: see [LoadReport.heapPerSession].
+     * Requires a full GC before and after the sessions are created; turn off for a faster run.
+     */
+    public var measureHeap: Boolean = true
+
+    private var closed: Boolean = false
+
+    /**
+     * Creates [sessions] sessions, each in its own virtual thread, and runs [scenario] [iterations] times in every session.
+     * [scenario] receives the index of the session, 0 up to [sessions] (exclusive). Blocks until all sessions
+     * are torn down.
+     * @return the throughput, the latencies of the scenario and the heap used per session.
+     * @throws AssertionError if a scenario failed in any session; the failures of the other sessions are suppressed
+     * exceptions.
+     */
+    public fun run(scenario: (session: Int) -> Unit): LoadReport {
+        check(!closed) { "$this is closed" }
+        if (!servlet.isInitialized) {
+            servlet.init(FakeServletConfig(MockVaadinHelper.createMockContext()))
+        }
+        MockVaadin.shareService(checkNotNull(servlet.service))
+
+        val sessions: Int = sessions
+        val iterations: Int = iterations
+        val latencies = arrayOfNulls<LongArray>(sessions)
+        val metrics = arrayOfNulls<KaribuMetricsSnapshot>(sessions)
+        val failures = ConcurrentLinkedQueue<Throwable>()
+        // counted down by every session once it finished the scenario; the sessions then stay alive until released
+        val finished = CountDownLatch(sessions)
+        val release = CountDownLatch(1)
+
+        val heapBefore: Long = if (measureHeap) usedHeap() else 0
+        val start: Long = System.nanoTime()
+        val threads: List<Thread> = (0 until sessions).map { session: Int ->
+            Thread.ofVirtual().name("karibu-load-$session").start {
+                KaribuMetrics.reset()
+                val sessionLatencies = LongArray(iterations)
+                var completed = 0
+                try {
+                    try {
+                        MockVaadin.setup(uiFactory, servlet)
+                        repeat(iterations) {
+                            val scenarioStart: Long = System.nanoTime()
+                            scenario(session)
+                            sessionLatencies[completed++] = System.nanoTime() - scenarioStart
+                        }
+                    } finally {
+                        finished.countDown()
+                        release.await()
+                    }
+                } catch (t: Throwable) {
+                    failures.add(t)
+                } finally {
+                    try {
+                        MockVaadin.tearDown()
+                    } catch (t: Throwable) {
+                        failures.add(t)
+                    }
+                    latencies[session] = sessionLatencies.copyOf(completed)
+                    metrics[session] = KaribuMetrics.snapshot()
+                }
+            }
+        }
+        val wallNanos: Long
+        val heapPerSession: Long
+        try {
+            finished.await()
+            wallNanos = System.nanoTime() - start
+            heapPerSession = if (measureHeap) ((usedHeap() - heapBefore) / sessions).coerceAtLeast(0) else -1
+        } finally {
+            release.countDown()
+            threads.forEach { it.join() }
+        }
+
+        if (failures.isNotEmpty()) {
+            val error = AssertionError("${failures.size} of $sessions sessions failed: ${failures.first()}", failures.first())
+            failures.drop(1).forEach { error.addSuppressed(it) }
+            throw error
+        }
+        val allLatencies: LongArray = latencies.flatMap { it!!.asList() }.toLongArray()
+        val allMetrics: KaribuMetricsSnapshot = metrics.fold(KaribuMetricsSnapshot.EMPTY) { acc, it -> acc + it!! }
+        return LoadReport(sessions, wallNanos, allLatencies, heapPerSession, allMetrics)
+    }
+
+    /**
+     * Fires the service destroy listeners. The driver can't be used afterwards.
+     */
+    override fun close() {
+        if (!closed) {
+            closed = true
+            if (servlet.isInitialized) {
+                MockVaadin.destroySharedService(servlet.service)
+            }
+        }
+    }
+
+    override fun toString(): String = "LoadDriver(servlet=$servlet, sessions=$sessions, iterations=$iterations)"
+
+    private companion object {
+        /**
+         * The heap used by live objects, as close as we can get without a heap dump.
+         */
+        fun usedHeap(): Long {
+            val runtime: Runtime = Runtime.getRuntime()
+            repeat(2) { System.gc() }
+            return runtime.totalMemory() - runtime.freeMemory()
+        }
+    }
+}
+
+/**
+ * The outcome of [LoadDriver.run]. Immutable.
+ */
+public class LoadReport internal constructor(
+    /**
+     * The number of concurrent sessions.
+     */
+    public val sessions: Int,
+    /**
+     * The time between starting the first session and finishing the scenario in the last session, in nanoseconds.
+     * Includes the setup of the sessions.
+     */
+    public val wallNanos: Long,
+    /**
+     * The latencies of all scenario runs, sorted.
+     */
+    private val latencies: LongArray,
+    /**
+     * The heap used per session while all sessions were alive, in bytes; -1 if [LoadDriver.measureHeap] was off.
+     * The difference of the heap used before and after the sessions were created, divided by the number of sessions;
+     * therefore only an approximation, skewed by anything else which allocated memory meanwhile, e.g. caches populated
+     * by the scenario.
+     */
+    public val heapPerSession: Long,
+    /**
+     * The [KaribuMetrics] recorded by all sessions, including [MockVaadin.setup] and [MockVaadin.tearDown]; empty
+     * unless [KaribuMetrics.enabled] is on.
+     */
+    public val metrics: KaribuMetricsSnapshot
+) {
+    init {
+        latencies.sort()
+    }
+
+    /**
+     * The number of scenario runs, [sessions] times [LoadDriver.iterations].
+     */
+    public val scenarioRuns: Int get() = latencies.size
+
+    /**
+     * The number of scenario runs per second.
+     */
+    public val throughput: Double get() = scenarioRuns / (wallNanos.coerceAtLeast(1) / TimeUnit.SECONDS.toNanos(1).toDouble())
+
+    /**
+     * Returns given [percentile] (0..100) of the scenario run latencies, in nanoseconds: for example
+     * `latencyNanos(99.0)` is the latency which 99% of the scenario runs didn't exceed.
+     */
+    public fun latencyNanos(percentile: Double): Long {
+        require(percentile in 0.0..100.0) { "percentile: must be 0..100 but was $percentile" }
+        val rank: Int = ceil(percentile / 100 * latencies.size).toInt()
+        return latencies[(rank - 1).coerceIn(latencies.indices)]
+    }
+
+    /**
+     * E.g. `100 sessions, 100 runs in 1520.3ms (65.8 runs/s), latency p50: 12.1ms, p90: 20.4ms, p99: 31.0ms, max: 33.2ms, heap per session: 350 KiB`.
+     */
+    override fun toString(): String {
+        fun ms(nanos: Long): String = "%.1fms".format(nanos / TimeUnit.MILLISECONDS.toNanos(1).toDouble())
+        val heap: String = if (heapPerSession < 0) "" else ", heap per session: ${heapPerSession / 1024} KiB"
+        val recorded: String = if (metrics.isEmpty) "" else ", $metrics"
+        return "$sessions sessions, $scenarioRuns runs in ${ms(wallNanos)} (${"%.1f".format(throughput)} runs/s), " +
+                "latency p50: ${ms(latencyNanos(50.0))}, p90: ${ms(latencyNanos(90.0))}, p99: ${ms(latencyNanos(99.0))}, " +
+                "max: ${ms(latencyNanos(100.0))}$heap$recorded"
+    }
+}
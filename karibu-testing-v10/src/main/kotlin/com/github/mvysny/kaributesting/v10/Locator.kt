@@ -12,6 +12,7 @@ import com.vaadin.flow.component.dialog.Dialog
 import com.vaadin.flow.component.icon.VaadinIcon
 import com.vaadin.flow.router.InternalServerError
 import java.io.PrintStream
+import java.lang.ref.WeakReference
 import java.util.function.Predicate
 
 /**
@@ -85,27 +86,47 @@ public class SearchSpec<T : Component>(
     /**
      * Returns a predicate which matches components based on this spec. All rules are matched except the [count] rule. The
      * rules are matched against given component only (not against its children).
+     *
+     * The rules are captured when this function is called; modifying this spec afterwards doesn't affect the predicate.
+     * The rules are evaluated from the cheapest to the most expensive one, and the evaluation stops
+     * at the first rule which doesn't match: the class first, then id, attributes, class names and themes, and then the
+     * rules which need to compute a value, such as the text, label or value. The custom [predicates] are evaluated last.
      */
     public fun toPredicate(): (Component) -> Boolean {
+        val clazz: Class<T> = clazz
         val p = mutableListOf<(Component)->Boolean>()
-        p.add { component -> clazz.isInstance(component)}
+        val id: String? = id
         if (id != null) p.add { component -> component.id_ == id }
-        if (label != null) p.add { component -> KaribuConfig.testingLifecycleHook.getLabel(component) == label }
-        @Suppress("DEPRECATION")
-        if (caption != null) p.add { component -> component.caption == caption }
+        attributes.forEach { (attrName, attrValue) -> p.add { component -> component.element.getAttribute(attrName) == attrValue }}
+        val classes: List<String> = classes.splitNames()
+        if (classes.isNotEmpty()) p.add { component -> component.hasAllClasses(classes) }
+        val withoutClasses: List<String> = withoutClasses.splitNames()
+        if (withoutClasses.isNotEmpty()) p.add { component -> component.doesntHaveAnyClasses(withoutClasses) }
+        val themes: List<String> = themes.splitNames()
+        if (themes.isNotEmpty()) p.add { component -> component.hasAllThemes(themes) }
+        val withoutThemes: List<String> = withoutThemes.splitNames()
+        if (withoutThemes.isNotEmpty()) p.add { component -> component.notContainsThemes(withoutThemes) }
+        val enabled: Boolean? = enabled
+        if (enabled != null) p.add { component -> component.isEnabled == enabled }
+        val placeholder: String? = placeholder
         if (placeholder != null) p.add { component -> component.placeholder == placeholder }
-        if (!classes.isNullOrBlank()) p.add { component -> component.hasAllClasses(classes!!) }
-        if (!withoutClasses.isNullOrBlank()) p.add { component -> component.doesntHaveAnyClasses(withoutClasses!!) }
-        if (!themes.isNullOrBlank()) p.add { component -> component.hasAllThemes(themes!!) }
-        if (!withoutThemes.isNullOrBlank()) p.add { component -> component.notContainsThemes(withoutThemes!!) }
+        val text: String? = text
         if (text != null) p.add { component -> component._text == text }
+        @Suppress("DEPRECATION")
+        val caption: String? = caption
+        @Suppress("DEPRECATION")
+        if (caption != null) p.add { component -> component.caption == caption }
+        val label: String? = label
+        if (label != null) p.add { component -> KaribuConfig.testingLifecycleHook.getLabel(component) == label }
+        val value: Any? = value
         if (value != null) p.add { component -> (component as? HasValue<*, *>)?.value == value }
+        val icon: IconName? = icon
         if (icon != null) p.add { component -> component._iconName == icon }
-        if (enabled != null) p.add { component -> component.isEnabled == enabled }
-        attributes.forEach { (attrName, attrValue) -> p.add { component -> component.element.getAttribute(attrName) == attrValue }}
+        // the class has already been checked when the predicates are evaluated.
         @Suppress("UNCHECKED_CAST")
-        p.addAll(predicates.map { predicate -> { component: Component -> clazz.isInstance(component) && predicate.test(component as T) } })
-        return p.and()
+        predicates.toList().forEach { predicate -> p.add { component -> predicate.test(component as T) } }
+        val rules: Array<(Component) -> Boolean> = p.toTypedArray()
+        return { component -> clazz.isInstance(component) && rules.all { it(component) } }
     }
 
     /**
@@ -128,23 +149,28 @@ public class SearchSpec<T : Component>(
  */
 public fun Iterable<String?>.filterNotBlank(): List<String> = filterNotNull().filter { it.isNotBlank() }
 
-private fun Component.hasAllClasses(classes: String): Boolean {
+/**
+ * Splits space-separated class names or theme names; returns an empty list for null or blank string.
+ */
+private fun String?.splitNames(): List<String> = if (isNullOrBlank()) listOf() else split(' ').filterNotBlank()
+
+private fun Component.hasAllClasses(classes: List<String>): Boolean {
     @Suppress("USELESS_IS_CHECK") // still needed for earlier Vaadin
     if (this !is HasStyle) return false
-    return classes.split(' ').filterNotBlank().all { classNames.contains(it) }
+    return classes.all { classNames.contains(it) }
 }
-private fun Component.doesntHaveAnyClasses(classes: String): Boolean {
+private fun Component.doesntHaveAnyClasses(classes: List<String>): Boolean {
     @Suppress("USELESS_IS_CHECK") // still needed for earlier Vaadin
     if (this !is HasStyle) return true
-    return classes.split(' ').filterNotBlank().all { !classNames.contains(it) }
+    return classes.all { !classNames.contains(it) }
 }
 
-private fun Component.hasAllThemes(themes: String): Boolean {
-    return themes.split(' ').filterNotBlank().all { element.themeList.contains(it) }
+private fun Component.hasAllThemes(themes: List<String>): Boolean {
+    return themes.all { element.themeList.contains(it) }
 }
 
-private fun Component.notContainsThemes(themes: String): Boolean {
-    return themes.split(' ').filterNotBlank().all { !element.themeList.contains(it) }
+private fun Component.notContainsThemes(themes: List<String>): Boolean {
+    return themes.all { !element.themeList.contains(it) }
 }
 
 /**
@@ -195,31 +221,99 @@ public fun <T: Component> _get(clazz: Class<T>, block: SearchSpec<T>.()->Unit =
 public fun <T: Component> Component._find(clazz: Class<T>, block: SearchSpec<T>.()->Unit = {}): List<T> {
     val spec: SearchSpec<T> = SearchSpec(clazz)
     spec.block()
-    val result: List<Component> = find(spec.toPredicate())
+    val result: List<Component> = find(spec)
     if (result.size !in spec.count) {
         val loc: String = currentPath ?: "?"
-        var message: String = when {
+        val header: String = when {
             result.isEmpty() -> "/$loc: No visible ${clazz.simpleName}"
             result.size < spec.count.first -> "/$loc: Too few (${result.size}) visible ${clazz.simpleName}s"
             else -> "/$loc: Too many visible ${clazz.simpleName}s (${result.size})"
         }
-        message = "$message in ${toPrettyString()} matching $spec: [${result.joinToString { it.toPrettyString() }}]. Component tree:\n${toPrettyTree()}"
-
-        // if there's a PolymerTemplate, warn that Karibu-Testing can't really locate components in there:
-        // https://github.com/mvysny/karibu-testing/tree/master/karibu-testing-v10#polymer-templates
-        // fixes https://github.com/mvysny/karibu-testing/issues/35
-        val hasPolymerTemplates: Boolean = _walkAll().any { it.isTemplate }
-        if (hasPolymerTemplates) {
-            message = "$message\nWarning: Karibu-Testing is not able to look up components from inside of PolymerTemplate/LitTemplate. Please see https://github.com/mvysny/karibu-testing/tree/master/karibu-testing-v10#polymer-templates--lit-templates for more details."
-        }
+        val maxDepth: Int = KaribuConfig.lookupFailureMaxDepth
+        val maxNodes: Int = KaribuConfig.lookupFailureMaxNodes
 
         // find() used to fail with IllegalArgumentException which makes sense for a general-purpose utility method. However,
         // since find() is used in tests overwhelmingly, not finding the correct set of components is generally treated as an assertion error.
-        throw AssertionError(message)
+        throw ComponentLookupError(header) { lookupFailureDetails(spec, result, maxDepth, maxNodes) }
     }
     return result.filterIsInstance(clazz)
 }
 
+/**
+ * At most this many matching components are listed in the [ComponentLookupError] message.
+ */
+private const val MAX_LISTED_MATCHES: Int = 100
+
+/**
+ * Renders the details of a failed lookup rooted in this component: the [spec], the [result] and the component tree
+ * of this component, capped at [maxDepth] and [maxNodes].
+ */
+private fun Component.lookupFailureDetails(spec: SearchSpec<*>, result: List<Component>, maxDepth: Int, maxNodes: Int): String {
+    var matches: String = result.take(MAX_LISTED_MATCHES).joinToString { it.toPrettyString() }
+    if (result.size > MAX_LISTED_MATCHES) {
+        matches = "$matches, … ${result.size - MAX_LISTED_MATCHES} more"
+    }
+    var message = " in ${toPrettyString()} matching $spec: [$matches]. Component tree:\n${toPrettyTree(maxDepth, maxNodes)}"
+
+    // if the search root is deep within the UI, show where it is
+    val ancestors: List<Component> = generateSequence(parent.orElse(null)) { it.parent.orElse(null) }.toList()
+    if (ancestors.isNotEmpty()) {
+        message = "${message}Searched in: ${(ancestors.reversed() + this).joinToString(" > ") { it.javaClass.simpleName + (if (it.id.isPresent) "#${it.id.get()}" else "") }}\n"
+    }
+
+    // if there's a PolymerTemplate, warn that Karibu-Testing can't really locate components in there:
+    // https://github.com/mvysny/karibu-testing/tree/master/karibu-testing-v10#polymer-templates
+    // fixes https://github.com/mvysny/karibu-testing/issues/35
+    val hasPolymerTemplates: Boolean = _walkAll().any { it.isTemplate }
+    if (hasPolymerTemplates) {
+        message = "$message\nWarning: Karibu-Testing is not able to look up components from inside of PolymerTemplate/LitTemplate. Please see https://github.com/mvysny/karibu-testing/tree/master/karibu-testing-v10#polymer-templates--lit-templates for more details."
+    }
+    return message
+}
+
+/**
+ * Thrown by [_find], [_get], [_expectOne], [_expectNone] and friends when an unexpected number of components matched.
+ *
+ * Rendering the component tree into the message is expensive on large UIs, and is wasted if the error is caught, for example
+ * by code which probes for a component or retries the lookup until the component shows up. Therefore, the message is only rendered
+ * when first read. Since the component tree may change afterwards, [MockVaadin.tearDown] renders the message of the last
+ * error thrown by the current thread: that's typically the error which failed the test.
+ *
+ * The rendered component tree is capped by [KaribuConfig.lookupFailureMaxDepth] and [KaribuConfig.lookupFailureMaxNodes].
+ */
+public class ComponentLookupError internal constructor(
+    private val header: String,
+    private val details: () -> String
+) : AssertionError() {
+
+    init {
+        last.set(WeakReference(this))
+    }
+
+    override val message: String by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        try {
+            header + details()
+        } catch (e: Exception) {
+            "$header (failed to render the component tree: $e)"
+        }
+    }
+
+    internal companion object {
+        /**
+         * The last error thrown by the current thread.
+         */
+        private val last = ThreadLocal<WeakReference<ComponentLookupError>>()
+
+        /**
+         * Renders the message of the last error thrown by the current thread, while the component tree still exists.
+         */
+        fun renderLast() {
+            last.get()?.get()?.message
+            last.remove()
+        }
+    }
+}
+
 /**
  * Finds a list of VISIBLE components of given type which matches [block]. This component and all of its descendants are searched.
  * @return the list of matching components, may be empty.
@@ -241,23 +335,25 @@ public inline fun <reified T: Component> _find(noinline block: SearchSpec<T>.()-
 public fun <T: Component> _find(clazz: Class<T>, block: SearchSpec<T>.()->Unit = {}): List<T> =
         currentUI._find(clazz, block)
 
-private fun Component.find(predicate: (Component)->Boolean): List<Component> {
+private fun Component.find(spec: SearchSpec<*>): List<Component> = KaribuMetrics.measure(KaribuMetric.LOOKUP) {
+    val predicate: (Component) -> Boolean = spec.toPredicate()
     KaribuConfig.testingLifecycleHook.awaitBeforeLookup()
-    val descendants: List<Component> = _walkAll().toList()
+    val index: ComponentIndex? = if (this is UI && KaribuConfig.indexComponentLookups) ComponentIndex.of(this) else null
+    val descendants: List<Component> = index?.components ?: _walkAll().toList()
     KaribuConfig.testingLifecycleHook.awaitAfterLookup()
-    val error: InternalServerError? = descendants.filterIsInstance<InternalServerError>().firstOrNull()
+    val error: InternalServerError? = (index?.ofClass(InternalServerError::class.java) ?: descendants).filterIsInstance<InternalServerError>().firstOrNull()
     if (error != null) {
         throw AssertionError("An internal server error occurred; please check log for the actual stack-trace. Error text: ${error._errorMessage}\n${currentUI.toPrettyTree()}")
     }
-    return descendants.filter { it.isEffectivelyVisible() && predicate(it) }
+    val candidates: List<Component> = index?.candidates(spec) ?: descendants
+    val visibility = EffectiveVisibility()
+    val result: List<Component> = candidates.filter { visibility.of(it) && predicate(it) }
+    // with the index, only the candidates are examined
+    KaribuMetrics.add(KaribuMetric.LOOKUP_NODES_VISITED, if (index != null) candidates.size else descendants.size)
+    KaribuMetrics.add(KaribuMetric.LOOKUP_MATCHES, result.size)
+    result
 }
 
-/**
- * `AND`s all predicates.
- */
-private fun <T> Iterable<(T) -> Boolean>.and(): (T) -> Boolean =
-    { component -> all { it(component) } }
-
 /**
  * Walks the component child/descendant tree, depth-first: first the component, then its descendants,
  * then its next sibling. Uses [TestingLifecycleHook.getAllChildren] to get the children.
@@ -444,5 +540,5 @@ public fun _expectInternalServerError(expectedErrorMessage: String = "") {
 @JvmOverloads
 public fun _dump(output: PrintStream = System.out) {
     KaribuConfig.testingLifecycleHook.awaitBeforeLookup()
-    output.print(currentUI.toPrettyTree())
+    currentUI.printPrettyTree(output)
 }
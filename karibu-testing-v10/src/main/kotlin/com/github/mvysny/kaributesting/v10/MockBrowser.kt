@@ -33,9 +33,13 @@ public object MockBrowser {
      * The `User-Agent` header the faked browser sends. Change it *before* [MockVaadin.setup] to
      * simulate a different browser (the default is Firefox 94 on Ubuntu Linux). It is read when the
      * session is created, so changing it afterwards has no effect on the current session.
+     *
+     * Scoped per-thread when [KaribuConfig.isolateThreads] is on.
      */
     @JvmStatic
-    public var userAgent: String = "Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:94.0) Gecko/20100101 Firefox/94.0"
+    public var userAgent: String
+        get() = KaribuConfig.settings.userAgent
+        set(value) { KaribuConfig.settings.userAgent = value }
 
     /**
      * Backs the monotonic default `window.name` generator in [newTab]. Real browsers/Flow use a
@@ -21,7 +21,7 @@ import com.vaadin.flow.server.communication.ServerRpcHandler
 import com.vaadin.flow.server.communication.UidlRequestHandler
 import com.vaadin.flow.shared.ApplicationConstants
 import com.vaadin.flow.shared.communication.PushMode
-import java.lang.reflect.Field
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ExecutionException
 import java.util.concurrent.locks.ReentrantLock
 import jakarta.servlet.ServletContext
@@ -50,6 +50,16 @@ public object MockVaadin {
      * See [MockPage.reload] for more details.
      */
     private val lastUILocation = ThreadLocal<Location>()
+    /**
+     * The outermost [batch] running in this thread; null outside of a batch.
+     */
+    private val currentBatch = ThreadLocal<Batch>()
+
+    /**
+     * @property propagateExceptionToHandler true if any of the deferred [clientRoundtrip]s asked to propagate the exceptions
+     * to the session error handler; the roundtrip performed at the end of the batch does so then.
+     */
+    private class Batch(var propagateExceptionToHandler: Boolean = false)
 
     /**
      * Marks a UI that Karibu left alive because its unload beacon was lost
@@ -78,6 +88,9 @@ public object MockVaadin {
      * Please consult [MockService] on what methods you must override in your custom service.
      * Alternatively, see `MockSpringServlet` on how to extend your custom servlet and
      * provide all necessary mocking code.
+     *
+     * If [KaribuConfig.reuseServlet] is set, the servlet is initialized only once for given [routes]
+     * and reused by all subsequent calls; only the session and the UI are created afresh.
      * @param routes all classes annotated with [com.vaadin.flow.router.Route]; use [Routes.autoDiscoverViews] to auto-discover all such classes.
      * @param uiFactory produces [UI] instances and sets them as current, by default simply instantiates [MockedUI] class.
      */
@@ -85,9 +98,81 @@ public object MockVaadin {
     @JvmOverloads
     public fun setup(routes: Routes = Routes(),
               uiFactory: () -> UI = @JvmSerializableLambda { MockedUI() }) {
-        // init servlet
-        val servlet = MockVaadinServlet(routes, uiFactory)
-        setup(uiFactory, servlet)
+        KaribuMetrics.measure(KaribuMetric.SETUP) {
+            // init servlet
+            val servlet: VaadinServlet = if (KaribuConfig.reuseServlet) {
+                reusedServlet(routes)
+            } else {
+                MockVaadinServlet(routes, uiFactory)
+            }
+            setupWith(uiFactory, servlet)
+        }
+    }
+
+    /**
+     * Servlets initialized by [setup] while [KaribuConfig.reuseServlet] is on. Shared by all threads:
+     * [VaadinServletService] is designed to serve many sessions concurrently.
+     *
+     * Keyed by a defensive copy of the [Routes] passed to [setup], so that modifying the [Routes]
+     * doesn't corrupt the key; two equal [Routes] therefore share the servlet.
+     */
+    private val reusedServlets = ConcurrentHashMap<Routes, VaadinServlet>()
+
+    /**
+     * The UI factory of a reused servlet. The servlet outlives the test which created it, so it
+     * can't capture that test's factory; instead it always delegates to the factory passed to
+     * the current [setup].
+     */
+    private val reusedServletUiFactory: () -> UI = @JvmSerializableLambda { currentUiFactory() }
+
+    private fun reusedServlet(routes: Routes): VaadinServlet {
+        val key: Routes = routes.copy(routes = routes.routes.toMutableSet(), errorRoutes = routes.errorRoutes.toMutableSet())
+        return reusedServlets.computeIfAbsent(key) {
+            val servlet = MockVaadinServlet(key, reusedServletUiFactory)
+            servlet.init(FakeServletConfig(MockVaadinHelper.createMockContext()))
+            servlet
+        }
+    }
+
+    /**
+     * Destroys all servlets cached because of [KaribuConfig.reuseServlet], firing
+     * their service destroy listeners. The next [setup] will initialize a fresh servlet. Call this from
+     * an `@AfterAll` method if your tests need to observe the service shutdown, or
+     * if a test polluted the service state.
+     *
+     * Must not be called between [setup] and [tearDown].
+     */
+    @JvmStatic
+    public fun destroyReusedServlets() {
+        check(VaadinSession.getCurrent() == null) { "Call tearDown() first" }
+        val servlets: List<VaadinServlet> = reusedServlets.values.toList()
+        reusedServlets.clear()
+        servlets.forEach { it.service.fireServiceDestroyListeners(ServiceDestroyEvent(it.service)) }
+    }
+
+    /**
+     * Services shared by the concurrent sessions of a [LoadDriver]; just like the reused services, [tearDown]
+     * doesn't destroy them.
+     */
+    private val sharedServices: MutableSet<VaadinService> = ConcurrentHashMap.newKeySet()
+
+    private fun isReusedService(service: VaadinService): Boolean =
+        service in sharedServices || reusedServlets.values.any { it.service === service }
+
+    /**
+     * Marks [service] as shared by many sessions, so that [tearDown] doesn't destroy it.
+     */
+    internal fun shareService(service: VaadinService) {
+        sharedServices.add(service)
+    }
+
+    /**
+     * Undoes [shareService] and fires the service destroy listeners.
+     */
+    internal fun destroySharedService(service: VaadinService) {
+        if (sharedServices.remove(service)) {
+            service.fireServiceDestroyListeners(ServiceDestroyEvent(service))
+        }
     }
 
     /**
@@ -108,10 +193,17 @@ public object MockVaadin {
      */
     @JvmStatic
     public fun setup(uiFactory: () -> UI = @JvmSerializableLambda { MockedUI() }, servlet: VaadinServlet) {
+        KaribuMetrics.measure(KaribuMetric.SETUP) {
+            setupWith(uiFactory, servlet)
+        }
+    }
+
+    private fun setupWith(uiFactory: () -> UI, servlet: VaadinServlet) {
         check(VaadinVersion.get.isAtLeast(25)) {
             "Karibu-Testing 2.6.x only works with Vaadin 25+ but you're using ${VaadinVersion.get}"
         }
         check(!VaadinMeta.isCompatibilityMode)
+        VaadinInternals.reportFailures()
 
         // disable the Page.reload() detection if tearDown() was not called.
        lastUILocation.remove()
@@ -352,19 +444,43 @@ public object MockVaadin {
      *
      * Any exceptions thrown by listeners such as UI detach listener, or session/service destroy listeners, or scheduled calls
      * to [UI.access] will be propagated and thrown by this function.
+     *
+     * If [KaribuConfig.isolateThreads] is on, this function also discards the configuration of the current thread.
+     * If [KaribuConfig.measureSessionFootprint] is on, this function measures the session before closing it.
+     * If [LeakDetector.enabled] is on, this function checks that the sessions and UIs closed by the previous call were
+     * garbage-collected.
      */
     @JvmStatic
     public fun tearDown() {
-        try {
-            clearVaadinInstances(false)
-        } finally {
-            lastUILocation.remove()
-        }
-        val service: VaadinService? = VaadinService.getCurrent()
-        if (service != null) {
-            service.fireServiceDestroyListeners(ServiceDestroyEvent(service))
-            VaadinService.setCurrent(null)
+        KaribuMetrics.measure(KaribuMetric.TEAR_DOWN) {
+            try {
+                ComponentLookupError.renderLast()
+                try {
+                    if (KaribuConfig.measureSessionFootprint) {
+                        SessionFootprint.measureLast()
+                    }
+                } finally {
+                    try {
+                        clearVaadinInstances(false)
+                    } finally {
+                        lastUILocation.remove()
+                        // closing the UI doesn't fire the detach listeners which release the caches otherwise
+                        ComponentCaches.releaseAll()
+                    }
+                }
+                val service: VaadinService? = VaadinService.getCurrent()
+                if (service != null) {
+                    // a reused service stays alive until destroyReusedServlets() is called.
+                    if (!isReusedService(service)) {
+                        service.fireServiceDestroyListeners(ServiceDestroyEvent(service))
+                    }
+                    VaadinService.setCurrent(null)
+                }
+            } finally {
+                KaribuConfig.releaseCurrentThread()
+            }
         }
+        LeakDetector.afterTearDown()
     }
 
     /**
@@ -413,6 +529,93 @@ public object MockVaadin {
         request.isUserInRole = { _, _ -> false }
     }
 
+    /**
+     * Captures the current [VaadinSession] with all of its UIs, the attributes of the HTTP session and the user
+     * logged in via [login], so that later tests can skip an expensive preamble and [restore] the snapshot instead.
+     * See [SessionSnapshot] for details.
+     *
+     * Runs [clientRoundtrip] first, so that the snapshot doesn't contain any pending [UI.access] tasks.
+     * @throws java.io.NotSerializableException if the session, its UIs or the HTTP session attributes can't be serialized.
+     */
+    @JvmStatic
+    public fun snapshot(): SessionSnapshot {
+        val session: VaadinSession = checkNotNull(VaadinSession.getCurrent()) {
+            "No VaadinSession - was MockVaadin.setup() called?"
+        }
+        forceClientRoundtrip()
+        val service: VaadinServletService = session.service as VaadinServletService
+        val httpSession: FakeHttpSession = session.fake
+        val httpSessionAttributes = HashMap<String, Any?>()
+        for (name in httpSession.attributeNames) {
+            if (name != service.sessionLockAttributeName && name != service.sessionAttributeName) {
+                httpSessionAttributes[name] = httpSession.getAttribute(name)
+            }
+        }
+        val bytes: ByteArray = SessionSnapshot.State(session, httpSessionAttributes).serializeToBytes()
+
+        val request: FakeRequest = currentRequest.fake
+        val userPrincipal = request.userPrincipalInt
+        val isUserInRole = request.isUserInRole
+        return SessionSnapshot(service.servlet, bytes, UI.getCurrent().uiId, currentUiFactory) {
+            it.userPrincipalInt = userPrincipal
+            it.isUserInRole = isUserInRole
+        }
+    }
+
+    /**
+     * Replaces the current Vaadin session and UI (if any) with a fresh copy of the session captured by [snapshot],
+     * much faster than running the [setup] preamble again. The UI which was current when the snapshot was taken
+     * becomes the current UI again, and the user logged in at that time is logged in again.
+     *
+     * The restored session is wired to the current thread exactly like a session created by [setup]:
+     * it's current, its lock is held by the current thread, and there's a current request and response.
+     * No session init listeners and no UI init listeners are fired: the session and the UIs were already
+     * initialized before the snapshot was taken. Call [tearDown] to close the restored session.
+     */
+    @JvmStatic
+    public fun restore(snapshot: SessionSnapshot) {
+        KaribuMetrics.measure(KaribuMetric.SETUP) {
+            lastUILocation.remove()
+            val servlet: VaadinServlet = snapshot.servlet
+            val service: VaadinServletService = checkNotNull(servlet.service)
+            VaadinService.setCurrent(service)
+
+            // init Vaadin Request
+            val httpSession: FakeHttpSession = FakeHttpSession.create(servlet.servletContext)
+            val request = createVaadinRequest(httpSession)
+            snapshot.restoreLogin(request.fake)
+            strongRefReq.set(request)
+            CurrentInstance.set(VaadinRequest::class.java, request)
+
+            // deserialize the session and reattach it to the HTTP session the same way createSession() does.
+            val state: SessionSnapshot.State = snapshot.restoreState()
+            val session: VaadinSession = state.session
+            state.httpSessionAttributes.forEach { (name, value) -> httpSession.setAttribute(name, value) }
+            httpSession.setAttribute(service.sessionLockAttributeName, ReentrantLock().apply { lock() })
+            httpSession.setAttribute(service.sessionAttributeName, session)
+            session.refreshTransients(WrappedHttpSession(httpSession), service)
+            check((session.lockInstance as ReentrantLock).isLocked) { "$session restored into $service: lock must be locked!" }
+            VaadinSession.setCurrent(session)
+            strongRefSession.set(session)
+            LeakDetector.track(session)
+            session.uIs.forEach { LeakDetector.track(it) }
+
+            // init Vaadin Response
+            val response = createVaadinResponse()
+            strongRefRes.set(response)
+            CurrentInstance.set(VaadinResponse::class.java, response)
+
+            strongRefUiFactory.set(snapshot.uiFactory)
+            val ui: UI = checkNotNull(session.getUIById(snapshot.uiId)) { "$session doesn't contain UI ${snapshot.uiId}" }
+            focusUI(ui)
+            ComponentIndex.invalidate()
+            forceClientRoundtrip()
+        }
+    }
+
+    private val VaadinService.sessionLockAttributeName: String get() = "$serviceName.lock"
+    private val VaadinService.sessionAttributeName: String get() = VaadinSession::class.java.name + "." + serviceName
+
     private fun clearVaadinInstances(fireUIDetach: Boolean) {
         try {
             discardBackgroundUIs()
@@ -424,6 +627,7 @@ public object MockVaadin {
             strongRefReq.remove()
             strongRefRes.remove()
             strongRefUiFactory.remove()
+            ComponentIndex.invalidate()
         }
     }
 
@@ -481,9 +685,13 @@ public object MockVaadin {
     /**
      * Creates [MockRequest]; override if you need to return a class that extends [MockRequest]
      * and modifies its behavior.
+     *
+     * Scoped per-thread when [KaribuConfig.isolateThreads] is on.
      */
     @JvmStatic
-    public var mockRequestFactory: (FakeHttpSession) -> FakeRequest = { FakeRequest(it) }
+    public var mockRequestFactory: (FakeHttpSession) -> FakeRequest
+        get() = KaribuConfig.settings.mockRequestFactory
+        set(value) { KaribuConfig.settings.mockRequestFactory = value }
 
     internal fun createVaadinRequest(httpSession: FakeHttpSession = currentSession.fake): VaadinServletRequest {
         val mockRequest = mockRequestFactory(httpSession)
@@ -510,8 +718,8 @@ public object MockVaadin {
         // See MockSession for more details. By default the service is a MockService
         // which creates MockSession.
         val session: VaadinSession = service._createVaadinSession(VaadinRequest.getCurrent())
-        httpSession.setAttribute(service.serviceName + ".lock", ReentrantLock().apply { lock() })
-        httpSession.setAttribute(VaadinSession::class.java.name + "." + service.serviceName, session)
+        httpSession.setAttribute(service.sessionLockAttributeName, ReentrantLock().apply { lock() })
+        httpSession.setAttribute(service.sessionAttributeName, session)
         session.refreshTransients(WrappedHttpSession(httpSession), service)
         check(session.lockInstance != null) { "$session created from $service has null lock. See the MockSession class on how to mock locks properly" }
         check((session.lockInstance as ReentrantLock).isLocked) { "$session created from $service: lock must be locked!" }
@@ -521,6 +729,7 @@ public object MockVaadin {
 
         VaadinSession.setCurrent(session)
         strongRefSession.set(session)
+        LeakDetector.track(session)
         session.browser = WebBrowser(request)
         checkNotNull(session.browser.browserApplication) { "The WebBrowser has not been mocked properly" }
 
@@ -634,6 +843,7 @@ public object MockVaadin {
         // any UI already there (the transient two-live-UI window on F5, or other open browser tabs).
         ui.doInit(request, uiId, "ROOT-1")
         strongRefUI.set(ui)
+        LeakDetector.track(ui)
 
         session.addUI(ui)
         session.service.fireUIInitListeners(ui)
@@ -642,7 +852,7 @@ public object MockVaadin {
         // This has the following effect: if UIInitListener fetches ExtendedClientDetails, this
         // is fetched before the main route is navigated to => ECD is available in main route's constructor.
         // Emulate this.
-        clientRoundtrip()
+        forceClientRoundtrip()
 
         // navigate to the initial page
         if (lastUILocation.get() != null) {
@@ -688,16 +898,105 @@ public object MockVaadin {
      * you're checking that your app's background jobs have their failures handled correctly. Note:
      * `true` only takes effect when a non-[DefaultErrorHandler] [VaadinSession.errorHandler] is
      * installed; otherwise Karibu still fails the test so the exception isn't silently swallowed.
+     *
+     * Inside a [batch], the roundtrip is deferred until the batch ends.
      * @throws IllegalStateException if the environment is not mocked
      */
     @JvmOverloads
     @JvmStatic
     public fun clientRoundtrip(propagateExceptionToHandler: Boolean = false) {
-        checkNotNull(VaadinSession.getCurrent()) { "No VaadinSession" }
-        runUIQueue(propagateExceptionToHandler)
-        UI.getCurrent().internals.stateTree.runExecutionsBeforeClientResponse()
-        cleanupDialogs()
-        KaribuConfig.testingLifecycleHook.handlePendingJavascriptInvocations(UI.getCurrent().internals.dumpPendingJavaScriptInvocations())
+        val batch: Batch? = currentBatch.get()
+        if (batch != null) {
+            // performed once the outermost batch ends
+            batch.propagateExceptionToHandler = batch.propagateExceptionToHandler || propagateExceptionToHandler
+            return
+        }
+        forceClientRoundtrip(propagateExceptionToHandler)
+    }
+
+    /**
+     * Performs the [clientRoundtrip] even inside a [batch]; for the Karibu-Testing functions which can't work
+     * without the effects of the roundtrip, e.g. [UI.beforeClientResponse] having been run.
+     */
+    internal fun forceClientRoundtrip(propagateExceptionToHandler: Boolean = false) {
+        KaribuMetrics.measure(KaribuMetric.CLIENT_ROUNDTRIP) {
+            checkNotNull(VaadinSession.getCurrent()) { "No VaadinSession" }
+            runUIQueue(propagateExceptionToHandler)
+            UI.getCurrent().internals.stateTree.runExecutionsBeforeClientResponse()
+            cleanupDialogs()
+            KaribuConfig.testingLifecycleHook.handlePendingJavascriptInvocations(UI.getCurrent().internals.dumpPendingJavaScriptInvocations())
+            if (KaribuConfig.indexComponentLookups || KaribuConfig.skipCleanRoundtrips) {
+                collectChanges(UI.getCurrent().internals.stateTree)
+            }
+        }
+    }
+
+    /**
+     * Runs [block] as a single client request, the way the browser batches several RPCs into one request: all
+     * [clientRoundtrip]s are deferred until [block] finishes, then a single [clientRoundtrip] is performed. That includes
+     * the roundtrips performed by the component lookups, by [_click], [_upload] and similar functions. For example:
+     * ```
+     * MockVaadin.batch {
+     *     _get<TextField> { label = "Name" }._value = "John"
+     *     _get<TextField> { label = "Email" }._value = "john@example.com"
+     *     _get<Button> { text = "Save" }._click()
+     * }
+     * ```
+     * Useful to save the redundant roundtrips of a scripted form fill, and to reproduce the bugs which only show up
+     * when the server processes several events before responding: the [UI.access] tasks, the [UI.beforeClientResponse]
+     * blocks and the pending JavaScript invocations only run after the last event of the batch, and the lookups inside
+     * [block] see the components as they were before the response was written: e.g. a [com.vaadin.flow.component.dialog.Dialog]
+     * opened by the first event is only attached once the batch ends.
+     *
+     * The batches may be nested; only the outermost batch performs the roundtrip. If [block] throws, no roundtrip is performed.
+     * If any of the deferred roundtrips was asked to `propagateExceptionToHandler`, the final roundtrip does so.
+     * @return whatever [block] returned.
+     */
+    @JvmStatic
+    public fun <T> batch(block: () -> T): T {
+        if (currentBatch.get() != null) {
+            // nested: the outermost batch performs the roundtrip
+            return block()
+        }
+        val batch = Batch()
+        currentBatch.set(batch)
+        val result: T = try {
+            block()
+        } finally {
+            currentBatch.remove()
+        }
+        forceClientRoundtrip(batch.propagateExceptionToHandler)
+        return result
+    }
+
+    /**
+     * Checks whether [clientRoundtrip] would have nothing to do: the current UI has no changes to be sent to the browser,
+     * no pending [UI.beforeClientResponse] blocks and no pending JavaScript invocations, and the session has
+     * no tasks scheduled via [UI.access]. Returns false if Karibu can't tell, e.g. on an unsupported Vaadin version.
+     *
+     * Only meaningful if [clientRoundtrip] collects the changes, see [KaribuConfig.skipCleanRoundtrips].
+     */
+    internal fun isCurrentUIClean(): Boolean {
+        val ui: UI = UI.getCurrent() ?: return false
+        val session: VaadinSession = VaadinSession.getCurrent() ?: return false
+        if (session.pendingAccessQueue.isNotEmpty()) return false
+        val stateTree: StateTree = ui.internals.stateTree
+        if (stateTree.hasDirtyNodes()) return false
+        val pendingExecutionNodes: Collection<*> = VaadinInternals.StateTree_pendingExecutionNodes?.invoke(stateTree) as? Collection<*> ?: return false
+        if (pendingExecutionNodes.isNotEmpty()) return false
+        val pendingJsInvocations: Collection<*> = VaadinInternals.UIInternals_pendingJsInvocations?.invoke(ui.internals) as? Collection<*> ?: return false
+        return pendingJsInvocations.isEmpty()
+    }
+
+    /**
+     * Collects the changes of the [stateTree] the way the real Vaadin does when it writes the response to
+     * the browser, leaving the tree with no dirty nodes. Drops the [ComponentIndex] if the tree changed.
+     */
+    private fun collectChanges(stateTree: StateTree) {
+        if (stateTree.hasDirtyNodes()) {
+            ComponentIndex.invalidate()
+            stateTree.collectChanges { }
+        }
     }
 
     /**
@@ -732,36 +1031,38 @@ public object MockVaadin {
     @JvmOverloads
     @JvmStatic
     public fun runUIQueue(propagateExceptionToHandler: Boolean = false, session: VaadinSession = VaadinSession.getCurrent()) {
-        // we need to set up UI error handler which will be notified for every exception thrown out of the acccess{} block
-        // otherwise the exceptions would simply be logged but unlock() wouldn't fail.
-        val errors: MutableList<Throwable> = mutableListOf<Throwable>()
-        val oldErrorHandler: ErrorHandler? = session.errorHandler
-        if (oldErrorHandler == null || oldErrorHandler is DefaultErrorHandler || !propagateExceptionToHandler) {
-            session.errorHandler = ErrorHandler {
-                var t: Throwable = it.throwable
-                if (t !is ExecutionException) {
-                    // for some weird reason t may not be ExecutionException when it originates from a coroutine :confused:
-                    // the stacktrace would point someplace random. Wrap it in ExecutionException whose stacktrace will point to the test
-                    t = ExecutionException(t.message, t)
+        KaribuMetrics.measure(KaribuMetric.RUN_UI_QUEUE) {
+            // we need to set up UI error handler which will be notified for every exception thrown out of the acccess{} block
+            // otherwise the exceptions would simply be logged but unlock() wouldn't fail.
+            val errors: MutableList<Throwable> = mutableListOf<Throwable>()
+            val oldErrorHandler: ErrorHandler? = session.errorHandler
+            if (oldErrorHandler == null || oldErrorHandler is DefaultErrorHandler || !propagateExceptionToHandler) {
+                session.errorHandler = ErrorHandler {
+                    var t: Throwable = it.throwable
+                    if (t !is ExecutionException) {
+                        // for some weird reason t may not be ExecutionException when it originates from a coroutine :confused:
+                        // the stacktrace would point someplace random. Wrap it in ExecutionException whose stacktrace will point to the test
+                        t = ExecutionException(t.message, t)
+                    }
+                    errors.add(t)
                 }
-                errors.add(t)
             }
-        }
 
-        try {
-            // make sure the lock is held exactly once, otherwise the session.unlock() won't
-            // process all Runnables registered via ui.access()
-            expect(1) { (session.lockInstance as ReentrantLock).holdCount }
-            session.unlock()  // this will process all Runnables registered via ui.access()
-            // lock the session back, so that the test can continue running as-if in the UI thread.
-            session.lock()
-        } finally {
-            session.errorHandler = oldErrorHandler
-        }
+            try {
+                // make sure the lock is held exactly once, otherwise the session.unlock() won't
+                // process all Runnables registered via ui.access()
+                expect(1) { (session.lockInstance as ReentrantLock).holdCount }
+                session.unlock()  // this will process all Runnables registered via ui.access()
+                // lock the session back, so that the test can continue running as-if in the UI thread.
+                session.lock()
+            } finally {
+                session.errorHandler = oldErrorHandler
+            }
 
-        if (errors.isNotEmpty()) {
-            errors.drop(1).forEach { errors[0].addSuppressed(it) }
-            throw errors[0]
+            if (errors.isNotEmpty()) {
+                errors.drop(1).forEach { errors[0].addSuppressed(it) }
+                throw errors[0]
+            }
         }
     }
 
@@ -794,38 +1095,29 @@ public object MockVaadin {
             // Vaadin 20.0.5+: closing session also clears the wrapped VaadinSession.getSession().
             // Acquire the wrapped session beforehand.
             val mockSession: FakeHttpSession = session.fake
+            // clearVaadinInstances() forgets the current UI factory; resolve the reused servlet's
+            // delegating factory beforehand.
+            val factory: () -> UI = if (uiFactory === reusedServletUiFactory) currentUiFactory else uiFactory
             clearVaadinInstances(true)
             mockSession.destroy()
-            createSession(mockSession.servletContext, uiFactory)
+            createSession(mockSession.servletContext, factory)
         }
     }
 }
 
-private val _VaadinService_sessionInitListeners: Field by lazy(LazyThreadSafetyMode.PUBLICATION) {
-    val field: Field = VaadinService::class.java.getDeclaredField("sessionInitListeners")
-    field.isAccessible = true
-    field
-}
-
 private fun VaadinService.fireSessionInitListeners(event: SessionInitEvent) {
     @Suppress("UNCHECKED_CAST")
     val sessionInitListeners: Collection<SessionInitListener> =
-        _VaadinService_sessionInitListeners.get(this) as Collection<SessionInitListener>
+        VaadinInternals.VaadinService_sessionInitListeners.invoke(this) as Collection<SessionInitListener>
     for (sessionInitListener in sessionInitListeners) {
         sessionInitListener.sessionInit(event)
     }
 }
 
-private val _VaadinService_sessionDestroyListeners: Field by lazy(LazyThreadSafetyMode.PUBLICATION) {
-    val field: Field = VaadinService::class.java.getDeclaredField("serviceDestroyListeners")
-    field.isAccessible = true
-    field
-}
-
 private fun VaadinService.fireServiceDestroyListeners(event: ServiceDestroyEvent) {
     @Suppress("UNCHECKED_CAST")
     val listeners: Collection<ServiceDestroyListener> =
-        _VaadinService_sessionDestroyListeners.get(this) as Collection<ServiceDestroyListener>
+        VaadinInternals.VaadinService_serviceDestroyListeners.invoke(this) as Collection<ServiceDestroyListener>
     for (listener in listeners) {
         listener.serviceDestroy(event)
     }
@@ -25,28 +25,26 @@ public var prettyPrintUseAscii: Boolean = false
  * Utility class to create a pretty-printed ASCII tree of arbitrary nodes that can be printed to the console.
  * You can build the tree out of any tree structure, just fill in this node [name] and its [children].
  *
- * To create a pretty tree dump of a Vaadin component, just use [ofVaadin].
+ * To create a pretty tree dump of a Vaadin component, use [toPrettyTree] or [printPrettyTree], which print
+ * the components directly; [ofVaadin] builds the entire tree in memory first.
  */
 public class PrettyPrintTree(public val name: String, public val children: MutableList<PrettyPrintTree>) {
 
-    private val pipe = if (!prettyPrintUseAscii) '│' else '|'
-    private val branchTail = if (!prettyPrintUseAscii) "└── " else "\\-- "
-    private val branch = if (!prettyPrintUseAscii) "├── " else "|-- "
+    public fun print(): String = buildString { print(this) }
 
-    public fun print(): String {
-        val sb = StringBuilder()
-        print(sb, "", true)
-        return sb.toString()
+    /**
+     * Prints this tree into [out], line by line.
+     */
+    public fun print(out: Appendable) {
+        print(PrettyTreeWriter(out), true)
     }
 
-    private fun print(sb: StringBuilder, prefix: String, isTail: Boolean) {
-        sb.append(prefix + (if (isTail) branchTail else branch) + name + "\n")
-        for (i in 0 until children.size - 1) {
-            children[i].print(sb, prefix + if (isTail) "    " else "$pipe   ", false)
-        }
-        if (children.size > 0) {
-            children[children.size - 1]
-                    .print(sb, prefix + if (isTail) "    " else "$pipe   ", true)
+    private fun print(writer: PrettyTreeWriter, isTail: Boolean) {
+        writer.line(name, isTail)
+        writer.children(isTail) {
+            children.forEachIndexed { index: Int, child: PrettyPrintTree ->
+                child.print(writer, index == children.size - 1)
+            }
         }
     }
 
@@ -62,6 +60,72 @@ public class PrettyPrintTree(public val name: String, public val children: Mutab
     }
 }
 
+/**
+ * Writes the lines of a pretty-printed tree into [out]. The prefix of the lines (the `│` and spaces) is kept in a single
+ * buffer which grows and shrinks as the tree is walked.
+ */
+private class PrettyTreeWriter(private val out: Appendable) {
+    private val pipe: String = if (!prettyPrintUseAscii) "│   " else "|   "
+    private val branchTail: String = if (!prettyPrintUseAscii) "└── " else "\\-- "
+    private val branch: String = if (!prettyPrintUseAscii) "├── " else "|-- "
+    private val prefix = StringBuilder()
+
+    fun line(name: String, isTail: Boolean) {
+        out.append(prefix).append(if (isTail) branchTail else branch).append(name).append('\n')
+    }
+
+    /**
+     * Runs [block] which prints the children of the node which has just been printed via [line].
+     */
+    fun children(isTail: Boolean, block: () -> Unit) {
+        val length: Int = prefix.length
+        prefix.append(if (isTail) "    " else pipe)
+        try {
+            block()
+        } finally {
+            prefix.setLength(length)
+        }
+    }
+}
+
+/**
+ * Pretty-prints the Vaadin component tree directly into [out], component by component, for example:
+ * ```
+ * └── MockedUI[]
+ *     └── Button[text='Hello!']
+ * ```
+ * Unlike `PrettyPrintTree.ofVaadin(this).print()`, this doesn't build the entire tree in memory first.
+ *
+ * Only the components at most [maxDepth] levels below this component, and at most [maxNodes] components in total are printed;
+ * the omitted components are summarized by a `…` line, so that the tree of a huge UI stays readable and cheap to print.
+ */
+@JvmOverloads
+public fun Component.printPrettyTree(out: Appendable, maxDepth: Int = Int.MAX_VALUE, maxNodes: Int = Int.MAX_VALUE) {
+    require(maxDepth >= 0) { "maxDepth must be 0 or greater: $maxDepth" }
+    require(maxNodes >= 1) { "maxNodes must be 1 or greater: $maxNodes" }
+    val writer = PrettyTreeWriter(out)
+    var nodes = 0
+    fun print(component: Component, depth: Int, isTail: Boolean) {
+        nodes++
+        writer.line(component.toPrettyString(), isTail)
+        val children: List<Component> = KaribuConfig.testingLifecycleHook.getAllChildren(component)
+        writer.children(isTail) {
+            if (children.isNotEmpty() && depth >= maxDepth) {
+                writer.line("… ${children.size} children not shown", true)
+                return@children
+            }
+            for ((index: Int, child: Component) in children.withIndex()) {
+                if (nodes >= maxNodes) {
+                    writer.line("… ${children.size - index} more not shown", true)
+                    break
+                }
+                print(child, depth + 1, index == children.size - 1)
+            }
+        }
+    }
+    print(this, 0, true)
+}
+
 /**
  * Pretty-prints the Vaadin component tree and returns it as a string, for example:
  * ```
@@ -69,7 +133,13 @@ public class PrettyPrintTree(public val name: String, public val children: Mutab
  *     └── Button[text='Hello!']
  * ```
  */
-public fun Component.toPrettyTree(): String = PrettyPrintTree.ofVaadin(this).print()
+public fun Component.toPrettyTree(): String = buildString { printPrettyTree(this) }
+
+/**
+ * Pretty-prints the Vaadin component tree, up to [maxDepth] levels below this component and at most [maxNodes] components.
+ * See [printPrettyTree] for details.
+ */
+public fun Component.toPrettyTree(maxDepth: Int, maxNodes: Int): String = buildString { printPrettyTree(this, maxDepth, maxNodes) }
 
 /**
  * Returns the most basic properties of the component, formatted as a concise string:
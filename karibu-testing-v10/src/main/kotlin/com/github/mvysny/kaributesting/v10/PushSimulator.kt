@@ -0,0 +1,373 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.internal.CurrentInstance
+import com.vaadin.flow.server.FutureAccess
+import com.vaadin.flow.server.VaadinSession
+import java.time.Duration
+import java.util.Queue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.Lock
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.math.ceil
+import kotlin.test.expect
+
+/**
+ * Simulates server push: background threads call [UI.access] concurrently, and the queued tasks are run either
+ * deterministically by the test, or by a dedicated UI thread, the way a real server pushes the updates to the browser.
+ * Also measures how many tasks wait in the queue and for how long; see [stats].
+ *
+ * Normally the [UI.access] tasks wait in the session queue until the test thread calls [MockVaadin.runUIQueue],
+ * e.g. via any [_get] call. The simulator offers two more modes:
+ * * **Deterministic**: [drain] runs the tasks queued so far, in the order they were queued, on the test thread.
+ *   Use [awaitQueueDepth] to wait for the background threads to queue the tasks first:
+ *   ```
+ *   PushSimulator().use { push ->
+ *       dashboard.startUpdates(executor)
+ *       push.awaitQueueDepth(3)
+ *       push.drain(1)
+ *       expect("1") { _get<Span> { id = "counter" }.text }
+ *   }
+ *   ```
+ * * **Concurrent**: [runConcurrently] releases the session lock held by the test thread and hands it over to a dedicated
+ *   UI thread, which runs the queued tasks in batches, [runConcurrently]'s `latency` after the first task of the batch
+ *   was queued:
+ *   ```
+ *   PushSimulator().use { push ->
+ *       push.runConcurrently(Duration.ofMillis(20)) {
+ *           repeat(1000) { executor.submit { ui.access { chart.addPoint(it) } } }
+ *           executor.shutdown(); executor.awaitTermination(1, TimeUnit.MINUTES)
+ *       }
+ *       println(push.stats)  // 1000 queued, 1000 run in 48 batches, queue depth 0 (max 37), wait p50: 11.2ms, ...
+ *   }
+ *   ```
+ *
+ * The simulator replaces the queue of the [session] with its own instrumented queue, until it's [close]d.
+ */
+public class PushSimulator @JvmOverloads constructor(
+    private val session: VaadinSession = checkNotNull(VaadinSession.getCurrent()) { "No VaadinSession - was MockVaadin.setup() called?" }
+) : AutoCloseable {
+    private val original: Queue<FutureAccess> = session.pendingAccessQueue
+    private val queue = TimedQueue()
+    private val recorder = PushStatsRecorder()
+    /**
+     * Released whenever a task is queued; wakes up the UI thread.
+     */
+    private val queued = Semaphore(0)
+    private var closed = false
+
+    init {
+        val setter = checkNotNull(VaadinInternals.VaadinSession_setPendingAccessQueue) {
+            "PushSimulator can't access VaadinSession.pendingAccessQueue; is this Vaadin version supported?"
+        }
+        // the tasks queued so far keep their place in the queue
+        original.drainTo(queue)
+        setter.invoke(session, queue)
+    }
+
+    /**
+     * The number of tasks waiting in the queue.
+     */
+    public val queueDepth: Int get() = queue.depth.get()
+
+    /**
+     * The statistics recorded so far. The tasks run by [MockVaadin.runUIQueue] are included as well.
+     */
+    public val stats: PushStats get() = recorder.snapshot(queueDepth)
+
+    /**
+     * Forgets the [stats] recorded so far.
+     */
+    public fun resetStats() {
+        recorder.reset(queueDepth)
+    }
+
+    /**
+     * Blocks until at least [depth] tasks are waiting in the queue.
+     * @throws AssertionError if that doesn't happen within [timeout].
+     */
+    @JvmOverloads
+    public fun awaitQueueDepth(depth: Int, timeout: Duration = Duration.ofSeconds(10)) {
+        val deadline: Long = System.nanoTime() + timeout.toNanos()
+        while (queueDepth < depth) {
+            if (System.nanoTime() - deadline > 0) {
+                throw AssertionError("Expected at least $depth tasks in the queue within $timeout but there are $queueDepth")
+            }
+            Thread.sleep(1)
+        }
+    }
+
+    /**
+     * Runs at most [maxTasks] tasks waiting in the queue, in the order they were queued, on the calling thread, which must
+     * hold the session lock; the test thread does. The tasks queued by other threads meanwhile are left in the queue,
+     * so that the call terminates even if the background threads keep queueing.
+     *
+     * Fails fast like [MockVaadin.runUIQueue]: the exceptions thrown by the tasks are re-thrown, wrapped in [ExecutionException].
+     * @return the number of tasks run.
+     */
+    @JvmOverloads
+    public fun drain(maxTasks: Int = Int.MAX_VALUE): Int {
+        require(maxTasks >= 0) { "maxTasks must be 0 or greater but was $maxTasks" }
+        check(!closed) { "$this is closed" }
+        session.checkHasLock()
+        val errors = mutableListOf<Throwable>()
+        val count: Int = runQueued(minOf(maxTasks, queueDepth), errors)
+        rethrow(errors)
+        return count
+    }
+
+    /**
+     * Runs [block] in the test thread, while a dedicated UI thread runs the queued tasks concurrently, just like the server
+     * pushes the UI updates made by the background threads while the user is idle. The UI thread holds the session lock
+     * in the meantime, and runs the tasks in batches: it waits [latency] after the first task of a batch was queued,
+     * then runs all tasks queued so far. Once [block] finishes, the UI thread runs the remaining tasks and hands
+     * the session lock back to the test thread.
+     *
+     * Since [block] doesn't hold the session lock, it must not touch the UI; use it to start the background threads and
+     * to wait for them to finish.
+     *
+     * Only the UI thread runs the queued tasks: the lock can't be handed over atomically, and a background thread
+     * calling [UI.access] while neither the test thread nor the UI thread holds the lock would otherwise grab the lock
+     * and run the tasks itself. The tasks queued after the UI thread stopped are left to the test thread.
+     * @throws ExecutionException the first exception thrown by the tasks, with the other ones added as suppressed.
+     */
+    @JvmOverloads
+    public fun runConcurrently(latency: Duration = Duration.ZERO, block: () -> Unit) {
+        check(!closed) { "$this is closed" }
+        val lock: Lock = session.lockInstance
+        expect(1, "The session lock must be held exactly once") { (lock as ReentrantLock).holdCount }
+        val errors = mutableListOf<Throwable>()
+        val locked = CountDownLatch(1)
+        val stopped = AtomicBoolean()
+        val uiThread: Thread = Thread.ofPlatform().name("karibu-push-ui").daemon(true).unstarted {
+            lock.lock()
+            try {
+                locked.countDown()
+                while (!stopped.get()) {
+                    if (queued.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                        Thread.sleep(latency)
+                        queued.drainPermits()
+                        runQueued(queueDepth, errors)
+                    }
+                }
+                runQueued(queueDepth, errors)
+            } catch (t: Throwable) {
+                errors.add(t)
+            } finally {
+                lock.unlock()
+                locked.countDown()
+            }
+        }
+        // hide the tasks from the other threads until the test thread holds the lock again
+        queue.owner = uiThread
+        try {
+            // bypass VaadinSession.unlock(), which would run the queued tasks in the test thread
+            lock.unlock()
+            try {
+                uiThread.start()
+                locked.await()
+                try {
+                    block()
+                } finally {
+                    stopped.set(true)
+                    uiThread.join()
+                }
+            } finally {
+                lock.lock()
+            }
+        } finally {
+            queue.owner = null
+        }
+        rethrow(errors)
+    }
+
+    /**
+     * Runs [count] queued tasks in the calling thread, which holds the session lock, the way
+     * [com.vaadin.flow.server.VaadinService.runPendingAccessTasks] does. Adds the failures to [errors].
+     */
+    private fun runQueued(count: Int, errors: MutableList<Throwable>): Int {
+        if (count == 0) {
+            return 0
+        }
+        recorder.batch()
+        val old: Map<Class<*>, CurrentInstance> = CurrentInstance.setCurrent(session)
+        try {
+            var run = 0
+            while (run < count) {
+                val access: FutureAccess = queue.poll() ?: break
+                access.run()
+                try {
+                    access.get()
+                } catch (e: ExecutionException) {
+                    errors.add(e)
+                }
+                run++
+            }
+            return run
+        } finally {
+            CurrentInstance.restoreInstances(old)
+        }
+    }
+
+    private fun rethrow(errors: List<Throwable>) {
+        if (errors.isNotEmpty()) {
+            errors.drop(1).forEach { errors[0].addSuppressed(it) }
+            throw errors[0]
+        }
+    }
+
+    /**
+     * Puts the original queue back into the session, together with the tasks still waiting in the queue.
+     */
+    override fun close() {
+        if (!closed) {
+            closed = true
+            queue.drainTo(original)
+            VaadinInternals.VaadinSession_setPendingAccessQueue!!.invoke(session, original)
+        }
+    }
+
+    override fun toString(): String = "PushSimulator($stats)"
+
+    /**
+     * Remembers when every task was queued.
+     */
+    private inner class TimedQueue : ConcurrentLinkedQueue<FutureAccess>() {
+        private val queuedAt = ConcurrentHashMap<FutureAccess, Long>()
+        val depth = AtomicInteger()
+        /**
+         * If not null, the queue appears empty to all other threads, so that only this thread runs the tasks:
+         * [com.vaadin.flow.server.VaadinService.runPendingAccessTasks] polls the queue, and
+         * [com.vaadin.flow.server.VaadinService.ensureAccessQueuePurged] only grabs the lock if the queue isn't empty.
+         */
+        @Volatile
+        var owner: Thread? = null
+
+        private val hidden: Boolean get() = owner.let { it != null && it !== Thread.currentThread() }
+
+        override fun isEmpty(): Boolean = hidden || super.isEmpty()
+
+        override fun peek(): FutureAccess? = if (hidden) null else super.peek()
+
+        override fun offer(e: FutureAccess): Boolean {
+            queuedAt[e] = System.nanoTime()
+            super.offer(e)
+            recorder.queued(depth.incrementAndGet())
+            queued.release()
+            return true
+        }
+
+        override fun poll(): FutureAccess? {
+            if (hidden) {
+                return null
+            }
+            val access: FutureAccess = super.poll() ?: return null
+            depth.decrementAndGet()
+            queuedAt.remove(access)?.let { recorder.run(System.nanoTime() - it) }
+            return access
+        }
+    }
+
+    private fun Queue<FutureAccess>.drainTo(target: Queue<FutureAccess>) {
+        while (true) {
+            target.add(poll() ?: break)
+        }
+    }
+}
+
+/**
+ * Collects the statistics of a [PushSimulator]; thread-safe.
+ */
+private class PushStatsRecorder {
+    private val queued = AtomicLong()
+    private val batches = AtomicLong()
+    private val maxDepth = AtomicInteger()
+    private val waits = ConcurrentLinkedQueue<Long>()
+
+    fun queued(depth: Int) {
+        queued.incrementAndGet()
+        maxDepth.accumulateAndGet(depth) { a, b -> maxOf(a, b) }
+    }
+
+    fun run(waitNanos: Long) {
+        waits.add(waitNanos)
+    }
+
+    fun batch() {
+        batches.incrementAndGet()
+    }
+
+    fun reset(depth: Int) {
+        queued.set(0)
+        batches.set(0)
+        maxDepth.set(depth)
+        waits.clear()
+    }
+
+    fun snapshot(depth: Int): PushStats =
+        PushStats(queued.get(), batches.get(), depth, maxOf(maxDepth.get(), depth), waits.toLongArray())
+}
+
+/**
+ * The statistics recorded by [PushSimulator.stats]. Immutable.
+ */
+public class PushStats internal constructor(
+    /**
+     * The number of tasks queued via [UI.access] or [VaadinSession.access].
+     */
+    public val queued: Long,
+    /**
+     * The number of times the queue was drained by [PushSimulator.drain] or by the UI thread of [PushSimulator.runConcurrently].
+     */
+    public val batches: Long,
+    /**
+     * The number of tasks waiting in the queue when the statistics were taken.
+     */
+    public val queueDepth: Int,
+    /**
+     * The maximum number of tasks waiting in the queue at once.
+     */
+    public val maxQueueDepth: Int,
+    /**
+     * How long the tasks run so far waited in the queue, sorted.
+     */
+    private val waits: LongArray
+) {
+    init {
+        waits.sort()
+    }
+
+    /**
+     * The number of tasks run so far.
+     */
+    public val run: Int get() = waits.size
+
+    /**
+     * Returns given [percentile] (0..100) of the time the tasks waited in the queue, in nanoseconds; 0 if no task was run.
+     */
+    public fun waitNanos(percentile: Double): Long {
+        require(percentile in 0.0..100.0) { "percentile: must be 0..100 but was $percentile" }
+        if (waits.isEmpty()) {
+            return 0
+        }
+        val rank: Int = ceil(percentile / 100 * waits.size).toInt()
+        return waits[(rank - 1).coerceIn(waits.indices)]
+    }
+
+    /**
+     * E.g. `1000 queued, 1000 run in 48 batches, queue depth 0 (max 37), wait p50: 11.2ms, p90: 19.0ms, p99: 21.4ms, max: 22.0ms`.
+     */
+    override fun toString(): String {
+        fun ms(nanos: Long): String = "%.1fms".format(nanos / TimeUnit.MILLISECONDS.toNanos(1).toDouble())
+        return "$queued queued, $run run in $batches batches, queue depth $queueDepth (max $maxQueueDepth), " +
+                "wait p50: ${ms(waitNanos(50.0))}, p90: ${ms(waitNanos(90.0))}, p99: ${ms(waitNanos(99.0))}, max: ${ms(waitNanos(100.0))}"
+    }
+}
@@ -1,43 +1,35 @@
 package com.github.mvysny.kaributesting.v10
 
-import com.github.mvysny.kaributools.template
-import com.github.mvysny.kaributools.textRecursively
 import com.github.mvysny.kaributools.valueProvider
 import com.vaadin.flow.component.Component
 import com.vaadin.flow.data.renderer.*
 import com.vaadin.flow.function.ValueProvider
 import org.jsoup.Jsoup
 import org.jsoup.nodes.Element
-import java.lang.reflect.Method
-
-private val _BasicRenderer_getFormattedValue: Method by lazy(LazyThreadSafetyMode.PUBLICATION) {
-    val getFormattedValueM: Method = BasicRenderer::class.java.declaredMethods
-        .first { it.name == "getFormattedValue" }
-    getFormattedValueM.isAccessible = true
-    getFormattedValueM
-}
 
 /**
  * Returns the output of this renderer for given [rowObject] formatted as close as possible
  * to the client-side output.
  */
-public fun <T> Renderer<T>._getPresentationValue(rowObject: T): String? = when {
-    this is BasicRenderer<T, *> -> {
-        val value: Any? = this.valueProvider.apply(rowObject)
-        _BasicRenderer_getFormattedValue.invoke(this, value) as String?
-    }
-    this is TextRenderer<T> -> {
-        renderText(rowObject)
-    }
-    this is ComponentRenderer<*, T> -> {
-        val component: Component? = createComponent(rowObject)
-        component?.toPrettyString() ?: ""
-    }
-    this is LitRenderer<*> -> {
-        @Suppress("UNCHECKED_CAST")
-        (this as LitRenderer<T>)._getPresentationJsoup(rowObject).textRecursively
+public fun <T> Renderer<T>._getPresentationValue(rowObject: T): String? = KaribuMetrics.measure(KaribuMetric.RENDERER) {
+    when {
+        this is BasicRenderer<T, *> -> {
+            val value: Any? = this.valueProvider.apply(rowObject)
+            VaadinInternals.BasicRenderer_getFormattedValue.invoke(this, value) as String?
+        }
+        this is TextRenderer<T> -> {
+            renderText(rowObject)
+        }
+        this is ComponentRenderer<*, T> -> {
+            val component: Component? = createComponent(rowObject)
+            component?.toPrettyString() ?: ""
+        }
+        this is LitRenderer<*> -> {
+            @Suppress("UNCHECKED_CAST")
+            CompiledLitTemplate.of(this).text((this as LitRenderer<T>).valueProviders, rowObject)
+        }
+        else -> null
     }
-    else -> null
 }
 
 /**
@@ -49,7 +41,7 @@ public fun <T> Renderer<T>._getPresentationValue(rowObject: T): String? = when {
  * particular tags or attributes. See [_getPresentationJsoup] for a directly queryable form.
  */
 public fun <T> LitRenderer<T>._getPresentationHtml(rowObject: T): String =
-    renderLitTemplate(template, valueProviders, rowObject)
+    CompiledLitTemplate.of(this).html(valueProviders, rowObject)
 
 /**
  * Renders this Lit renderer's template for given [rowObject] and returns it parsed by JSoup,
@@ -66,15 +58,12 @@ public fun <T> LitRenderer<T>._getPresentationHtml(rowObject: T): String =
 public fun <T> LitRenderer<T>._getPresentationJsoup(rowObject: T): Element =
     Jsoup.parseBodyFragment(_getPresentationHtml(rowObject)).body()
 
-public fun <T> renderLitTemplate(template: String, valueProviders: Map<String, ValueProvider<T, *>>, item: T): String {
-    var renderedTemplate = template;
-    valueProviders.forEach { (k: String, v: ValueProvider<T, *>) ->
-        if (renderedTemplate.contains("\${item.$k}")) {
-            renderedTemplate = renderedTemplate.replace("\${item.$k}", v.apply(item).toString())
-        }
-    }
-    return renderedTemplate
-}
+/**
+ * Renders given Lit [template] for given [item]: replaces every `${item.key}` placeholder with the value
+ * of the value provider registered for `key`. Placeholders with no value provider are left as they are.
+ */
+public fun <T> renderLitTemplate(template: String, valueProviders: Map<String, ValueProvider<T, *>>, item: T): String =
+    CompiledLitTemplate.compile(template).html(valueProviders, item)
 
 /**
  * Returns the text rendered for given [item].
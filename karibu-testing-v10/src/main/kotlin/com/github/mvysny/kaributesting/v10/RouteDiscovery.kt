@@ -0,0 +1,163 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.vaadin.flow.router.HasErrorParameter
+import com.vaadin.flow.router.Layout
+import com.vaadin.flow.router.Route
+import io.github.classgraph.ClassGraph
+import io.github.classgraph.ScanResult
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.IOException
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import java.util.Properties
+import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Names of the classes discovered by [Routes.autoDiscoverViews], in the order as they were found by the classpath scan.
+ * Holds class names rather than classes, so that the cache doesn't keep the class loaders alive.
+ * @property routes [Route]-annotated classes, followed by [Layout]-annotated classes.
+ * @property errorRoutes classes implementing [HasErrorParameter].
+ */
+internal class DiscoveredViews(val routes: List<String>, val errorRoutes: List<String>)
+
+/**
+ * Memoizes the classpath scans performed by [Routes.autoDiscoverViews], per context class loader and package name.
+ * Optionally also stores the scan results into [KaribuConfig.routeIndexDirectory], so that subsequent JVMs skip the
+ * scan as long as the classpath doesn't change.
+ */
+internal object RouteDiscovery {
+    @JvmStatic
+    private val log: Logger = LoggerFactory.getLogger(RouteDiscovery::class.java)
+
+    /**
+     * Bumped whenever the format of the index file or the contents of [DiscoveredViews] change.
+     */
+    private const val INDEX_VERSION = "1"
+
+    /**
+     * Maps context class loader to package name (an empty string for the whole classpath) to the scan result.
+     * Guarded by itself.
+     */
+    private val cache = WeakHashMap<ClassLoader?, ConcurrentHashMap<String, DiscoveredViews>>()
+
+    /**
+     * Returns the classes in given [packageName] (the whole classpath if null), scanning the classpath only
+     * if this JVM didn't scan the package yet and there's no up-to-date index file.
+     */
+    fun discover(packageName: String?): DiscoveredViews {
+        val classLoader: ClassLoader? = Thread.currentThread().contextClassLoader
+        val byPackage: ConcurrentHashMap<String, DiscoveredViews> = synchronized(cache) {
+            cache.getOrPut(classLoader) { ConcurrentHashMap() }
+        }
+        // the other threads discovering the same package wait for the scan to finish, rather than scanning too.
+        return byPackage.computeIfAbsent(packageName ?: "") { load(packageName) }
+    }
+
+    /**
+     * Forgets all scan results. Doesn't delete the index files.
+     */
+    fun clear() {
+        synchronized(cache) { cache.clear() }
+    }
+
+    private fun load(packageName: String?): DiscoveredViews {
+        val indexDirectory: File = KaribuConfig.routeIndexDirectory ?: return scan(packageName)
+        // no package produces `routes.properties`, not even one named `all`
+        val indexFile = File(indexDirectory, if (packageName == null) "routes.properties" else "routes-$packageName.properties")
+        val fingerprint: String = fingerprint(packageName)
+        val indexed: DiscoveredViews? = read(indexFile, fingerprint)
+        if (indexed != null) {
+            return indexed
+        }
+        val views: DiscoveredViews = scan(packageName)
+        try {
+            write(indexFile, fingerprint, views)
+        } catch (e: IOException) {
+            log.warn("Failed to write the route index to $indexFile", e)
+        }
+        return views
+    }
+
+    private fun scan(packageName: String?): DiscoveredViews {
+        val classGraph: ClassGraph = ClassGraph().enableClassInfo()
+                .enableAnnotationInfo()
+                .acceptPackages(*(if (packageName == null) arrayOf() else arrayOf(packageName)))
+        return classGraph.scan().use { scanResult: ScanResult ->
+            val routes: List<String> = scanResult.getClassesWithAnnotation(Route::class.java.name).names +
+                    scanResult.getClassesWithAnnotation(Layout::class.java.name).names
+            val errorRoutes: List<String> = scanResult.getClassesImplementing(HasErrorParameter::class.java.name).names
+            DiscoveredViews(routes, errorRoutes)
+        }
+    }
+
+    /**
+     * Computes a hash of the classpath: the path, size and modification time of every jar file, and of every class file
+     * in the classpath directories. Only the [packageName] subdirectories are considered, since classes outside of the
+     * package can't affect the result of the scan.
+     */
+    private fun fingerprint(packageName: String?): String {
+        val digest: MessageDigest = MessageDigest.getInstance("SHA-256")
+        fun update(s: String) { digest.update(s.toByteArray()); digest.update(0) }
+        update(INDEX_VERSION)
+        update(packageName ?: "")
+        val packagePath: String? = packageName?.replace('.', '/')
+        for (classpathFile: File in ClassGraph().classpathFiles) {
+            update(classpathFile.absolutePath)
+            if (classpathFile.isDirectory) {
+                val root: File = if (packagePath == null) classpathFile else File(classpathFile, packagePath)
+                root.walk().filter { it.isFile }.map { it.toRelativeString(classpathFile) to it }.sortedBy { it.first }.forEach { (path, file) ->
+                    update("$path:${file.length()}:${file.lastModified()}")
+                }
+            } else {
+                update("${classpathFile.length()}:${classpathFile.lastModified()}")
+            }
+        }
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+
+    private fun read(indexFile: File, fingerprint: String): DiscoveredViews? {
+        if (!indexFile.isFile) {
+            return null
+        }
+        val properties = Properties()
+        try {
+            indexFile.reader().use { properties.load(it) }
+        } catch (e: Exception) {
+            // IOException, or IllegalArgumentException on a corrupted file
+            log.warn("Failed to read the route index $indexFile, scanning the classpath", e)
+            return null
+        }
+        if (properties.getProperty("fingerprint") != fingerprint) {
+            return null
+        }
+        return DiscoveredViews(properties.getNames("routes"), properties.getNames("errorRoutes"))
+    }
+
+    private fun write(indexFile: File, fingerprint: String, views: DiscoveredViews) {
+        indexFile.parentFile.mkdirs()
+        val properties = Properties()
+        properties["fingerprint"] = fingerprint
+        properties["routes"] = views.routes.joinToString(",")
+        properties["errorRoutes"] = views.errorRoutes.joinToString(",")
+        // several test JVMs may write the same index at the same time: write to a temp file first, then move it.
+        val tempFile: File = File.createTempFile(indexFile.name, ".tmp", indexFile.parentFile)
+        try {
+            tempFile.writer().use { properties.store(it, "Karibu-Testing route index, generated by Routes.autoDiscoverViews()") }
+            try {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            } catch (e: AtomicMoveNotSupportedException) {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING)
+            }
+        } finally {
+            tempFile.delete()
+        }
+    }
+
+    private fun Properties.getNames(key: String): List<String> =
+        getProperty(key).orEmpty().split(',').filterNotBlank()
+}
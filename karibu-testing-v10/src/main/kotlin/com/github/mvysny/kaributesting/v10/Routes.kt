@@ -9,9 +9,6 @@ import com.vaadin.flow.server.VaadinContext
 import com.vaadin.flow.server.auth.AnonymousAllowed
 import com.vaadin.flow.server.startup.ApplicationRouteRegistry
 import com.vaadin.flow.server.startup.RouteRegistryInitializer
-import io.github.classgraph.ClassGraph
-import io.github.classgraph.ClassInfo
-import io.github.classgraph.ScanResult
 import org.slf4j.LoggerFactory
 import java.io.Serializable
 import java.lang.reflect.Field
@@ -68,25 +65,17 @@ public data class Routes(
      * * [HasErrorParameter] error views go into [errorRoutes]
      * After this function finishes, you can still modify the [routes] and [errorRoutes] sets,
      * for example you can clear the [errorRoutes] if there is some kind of misdetection.
+     *
+     * The classpath is scanned only once per JVM for every package (and context class loader); further calls reuse
+     * the outcome of the scan. Set [KaribuConfig.routeIndexDirectory] to also reuse it across JVMs.
      * @param packageName set the package name for the detector to be faster; or provide null to scan the whole classpath, but this is quite slow.
      * @return this
      */
     @JvmOverloads
     public fun autoDiscoverViews(packageName: String? = null): Routes = apply {
-        val classGraph: ClassGraph = ClassGraph().enableClassInfo()
-                .enableAnnotationInfo()
-                .acceptPackages(*(if (packageName == null) arrayOf() else arrayOf(packageName)))
-        classGraph.scan().use { scanResult: ScanResult ->
-            scanResult.getClassesWithAnnotation(Route::class.java.name).mapTo(routes) { info: ClassInfo ->
-                Class.forName(info.name).asSubclass(Component::class.java)
-            }
-            scanResult.getClassesWithAnnotation(Layout::class.java.name).mapTo(routes) { info: ClassInfo ->
-                Class.forName(info.name).asSubclass(Component::class.java)
-            }
-            scanResult.getClassesImplementing(HasErrorParameter::class.java.name).mapTo(errorRoutes) { info: ClassInfo ->
-                Class.forName(info.name).asSubclass(HasErrorParameter::class.java)
-            }
-        }
+        val views: DiscoveredViews = RouteDiscovery.discover(packageName)
+        views.routes.mapTo(routes) { Class.forName(it).asSubclass(Component::class.java) }
+        views.errorRoutes.mapTo(errorRoutes) { Class.forName(it).asSubclass(HasErrorParameter::class.java) }
 
         // remove @DefaultErrorHandler RouteAccessDeniedError and RouteNotFoundError so that they're replaced with Karibu's Mock counterparts
         // which perform better logging
@@ -109,6 +98,18 @@ public data class Routes(
 
     override fun toString(): String =
             "Routes(routes=${routes.joinToString { it.simpleName }}, errorRoutes=${errorRoutes.joinToString { it.simpleName }})"
+
+    public companion object {
+        /**
+         * Forgets the outcome of all classpath scans performed by [autoDiscoverViews], so that the next call
+         * scans the classpath again (or reads the index from [KaribuConfig.routeIndexDirectory]). Only needed if
+         * the classes change while the JVM is running.
+         */
+        @JvmStatic
+        public fun clearDiscoveryCache() {
+            RouteDiscovery.clear()
+        }
+    }
 }
 
 /**
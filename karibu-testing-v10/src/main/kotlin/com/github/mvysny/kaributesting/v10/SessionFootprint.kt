@@ -0,0 +1,142 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.vaadin.flow.component.Component
+import com.vaadin.flow.server.VaadinSession
+import java.io.NotSerializableException
+import java.util.IdentityHashMap
+
+/**
+ * How much memory a [VaadinSession] with all of its UIs takes, measured by [measure]:
+ * ```
+ * MockVaadin.setup(routes)
+ * navigateTo<CustomerView>()
+ * println(SessionFootprint.measure())
+ * // heap: 412.3 KiB, serialized: 120.5 KiB; Grid: 210.1 KiB, MockedUI: 95.0 KiB, TextField: 12.2 KiB, session: 40.4 KiB
+ * expectSessionSizeBelow(512 * 1024)
+ * ```
+ * The heap size is estimated by walking all objects reachable from the session, not including the objects shared
+ * by all sessions such as the `VaadinService`; see [heapSize] for details.
+ */
+public class SessionFootprint internal constructor(
+    /**
+     * The estimated heap taken by the objects reachable from the session, in bytes: the session, the UIs, the components,
+     * the attributes of the session and of the HTTP session, and anything else reachable from those,
+     * e.g. the Grid items. An estimate only, for a 64-bit JVM with compressed oops; also the JDK collections are only
+     * estimated. Good enough to spot a regression, or to compare two views.
+     */
+    public val heapSize: Long,
+    /**
+     * The size of the serialized session, in bytes, as stored by a servlet container which persists or replicates
+     * the sessions. -1 if the session isn't serializable.
+     */
+    public val serializedSize: Int,
+    /**
+     * The [heapSize] broken down by component class, the largest first. Every object is attributed to the component
+     * it was first reached from, components closer to the UI first; the objects of another component are not included,
+     * even if they're reachable, e.g. via the parent/children relationship.
+     */
+    public val byComponentClass: Map<Class<out Component>, Long>,
+    /**
+     * The part of [heapSize] not attributed to any component: the session itself, its attributes and the HTTP session.
+     */
+    public val sessionSize: Long
+) {
+    /**
+     * E.g. `heap: 412.3 KiB, serialized: 120.5 KiB; Grid: 210.1 KiB, MockedUI: 95.0 KiB, session: 40.4 KiB`. Only lists
+     * the 10 largest component classes.
+     */
+    override fun toString(): String {
+        val serialized: String = if (serializedSize < 0) "not serializable" else formatBytes(serializedSize.toLong())
+        val parts: List<String> = byComponentClass.entries.take(10)
+            .map { (clazz, size) -> "${clazz.simpleName.ifBlank { clazz.name }}: ${formatBytes(size)}" } +
+                "session: ${formatBytes(sessionSize)}"
+        return "heap: ${formatBytes(heapSize)}, serialized: $serialized; ${parts.joinToString()}"
+    }
+
+    public companion object {
+        private val last = ThreadLocal<SessionFootprint>()
+
+        /**
+         * Measures the footprint of the current session. Slow: walks every object reachable from the session, and
+         * serializes the session.
+         */
+        @JvmStatic
+        public fun measure(): SessionFootprint {
+            val session: VaadinSession = checkNotNull(VaadinSession.getCurrent()) {
+                "No VaadinSession - was MockVaadin.setup() called?"
+            }
+            return measure(session)
+        }
+
+        /**
+         * The footprint of the session measured by the last [MockVaadin.tearDown] called by this thread while
+         * [KaribuConfig.measureSessionFootprint] was on; null if nothing was measured.
+         */
+        @JvmStatic
+        public val lastMeasured: SessionFootprint? get() = last.get()
+
+        /**
+         * Called by [MockVaadin.tearDown] if [KaribuConfig.measureSessionFootprint] is on.
+         */
+        internal fun measureLast() {
+            last.set(VaadinSession.getCurrent()?.let { measure(it) })
+        }
+
+        /**
+         * Returns [lastMeasured] and forgets it, so that it isn't reported for the next test.
+         */
+        internal fun takeLast(): SessionFootprint? {
+            val footprint: SessionFootprint? = last.get()
+            last.remove()
+            return footprint
+        }
+
+        private fun measure(session: VaadinSession): SessionFootprint {
+            val components: List<Component> = session.uIs.flatMap { it._walkAll() }
+            // the component, its element and its state node are owned by the component. A Composite shares the element
+            // with its content; the element is then owned by the Composite, since it comes first.
+            val owners = IdentityHashMap<Any, Component>()
+            for (component in components) {
+                owners.putIfAbsent(component, component)
+                owners.putIfAbsent(component.element, component)
+                owners.putIfAbsent(component.element.node, component)
+            }
+
+            val walker = HeapWalker()
+            val byComponentClass = HashMap<Class<out Component>, Long>()
+            for (component in components) {
+                // the UI references the session; the session is walked last, to collect whatever no component references.
+                val size: Long = walker.walk(component) {
+                    it is VaadinSession || owners[it].let { owner -> owner != null && owner !== component }
+                }
+                byComponentClass.merge(component.javaClass, size) { a, b -> a + b }
+            }
+            val sessionSize: Long = walker.walk(session)
+
+            val serializedSize: Int = try {
+                session.serializeToBytes().size
+            } catch (e: NotSerializableException) {
+                -1
+            }
+            val sorted: Map<Class<out Component>, Long> = byComponentClass.entries
+                .sortedByDescending { it.value }
+                .associate { it.key to it.value }
+            return SessionFootprint(byComponentClass.values.sum() + sessionSize, serializedSize, sorted, sessionSize)
+        }
+
+        private fun formatBytes(bytes: Long): String =
+            if (bytes < 1024) "$bytes B" else "%.1f KiB".format(bytes / 1024.0)
+    }
+}
+
+/**
+ * Expects that the current session takes less than [maxHeapBytes] of heap, as measured by [SessionFootprint.measure]:
+ * `expectSessionSizeBelow(512 * 1024)`. Fails with a breakdown of the heap by component class otherwise.
+ * @throws AssertionError if the session takes [maxHeapBytes] or more.
+ */
+public fun expectSessionSizeBelow(maxHeapBytes: Long) {
+    val footprint: SessionFootprint = SessionFootprint.measure()
+    if (footprint.heapSize >= maxHeapBytes) {
+        throw AssertionError("Expected the session to take less than $maxHeapBytes bytes of heap but it takes ${footprint.heapSize} bytes: $footprint")
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.github.mvysny.fakeservlet.FakeRequest
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.server.VaadinServlet
+import com.vaadin.flow.server.VaadinSession
+import java.io.Serializable
+
+/**
+ * A [VaadinSession] with all of its UIs, captured by [MockVaadin.snapshot] after an expensive test preamble
+ * (navigating to a view, logging in, filling a wizard), to be restored via [MockVaadin.restore] by later tests:
+ * ```
+ * companion object {
+ *     lateinit var loggedIn: SessionSnapshot
+ *     @BeforeAll @JvmStatic fun preamble() {
+ *         MockVaadin.setup(routes)
+ *         MockVaadin.login("admin", listOf("admin"))
+ *         navigateTo<AdminView>()
+ *         loggedIn = MockVaadin.snapshot()
+ *         MockVaadin.tearDown()
+ *     }
+ * }
+ * @BeforeEach fun restore() { MockVaadin.restore(loggedIn) }
+ * @AfterEach fun tearDown() { MockVaadin.tearDown() }
+ * ```
+ * The session is kept in its serialized form, therefore every [MockVaadin.restore] produces a fresh copy of the
+ * session and the UIs, unaffected by anything the previous tests did with their copy. The session, its UIs and the
+ * attributes of the HTTP session must therefore be [Serializable], including any listeners and the UI factory
+ * passed to [MockVaadin.setup].
+ *
+ * The snapshot also remembers, by reference, the servlet and the user logged in via [MockVaadin.login].
+ * The servlet is thus shared by the tests restoring the snapshot, which goes best with [KaribuConfig.reuseServlet].
+ */
+public class SessionSnapshot internal constructor(
+    internal val servlet: VaadinServlet,
+    /**
+     * The serialized [State].
+     */
+    private val bytes: ByteArray,
+    /**
+     * The ID of the UI which was current when the snapshot was taken.
+     */
+    internal val uiId: Int,
+    internal val uiFactory: () -> UI,
+    /**
+     * Logs in the user which was logged in when the snapshot was taken.
+     */
+    internal val restoreLogin: (FakeRequest) -> Unit
+) {
+    /**
+     * The size of the serialized session and HTTP session attributes, in bytes.
+     */
+    public val size: Int get() = bytes.size
+
+    /**
+     * Deserializes a fresh copy of the session and the HTTP session attributes.
+     */
+    internal fun restoreState(): State = bytes.deserialize<State>()
+
+    /**
+     * Serialized together, so that the objects referenced both from the session and an HTTP session attribute
+     * are still shared after deserialization.
+     */
+    internal class State(val session: VaadinSession, val httpSessionAttributes: Map<String, Any?>) : Serializable
+
+    override fun toString(): String = "SessionSnapshot(uiId=$uiId, size=$size)"
+}
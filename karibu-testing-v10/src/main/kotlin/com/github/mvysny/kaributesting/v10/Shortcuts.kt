@@ -91,8 +91,8 @@ public fun Component._fireShortcut(key: Key, vararg modifiers: Key) {
     @Suppress("UNCHECKED_CAST")
     val data = MockFilterJsonObject(key, modifiers.toSet() as Set<KeyModifier>)
 
-    // the shortcut registration is only updated in [UI.beforeClientResponse]; run the registration code now.
-    MockVaadin.clientRoundtrip()
+    // the shortcut registration is only updated in [UI.beforeClientResponse]; run the registration code now, even inside a batch.
+    MockVaadin.forceClientRoundtrip()
 
     // this will fire the "keydown" DOM event, which in turn fires KeyDownEvent event,
     // which in turn invokes the ShortcutListener.
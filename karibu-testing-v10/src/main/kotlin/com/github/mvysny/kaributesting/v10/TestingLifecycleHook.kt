@@ -121,10 +121,14 @@ public open class TestingLifecycleHookVaadin14Default : TestingLifecycleHook {
     /**
      * Calls the [MockVaadin.clientRoundtrip] method. When overriding this method, you should
      * also call [MockVaadin.clientRoundtrip] (or simply call super).
+     *
+     * The roundtrip is skipped if [KaribuConfig.skipCleanRoundtrips] is enabled and there's nothing to do.
      */
     override fun awaitBeforeLookup() {
         if (UI.getCurrent() != null) {
-            MockVaadin.clientRoundtrip()
+            if (!KaribuConfig.skipCleanRoundtrips || !MockVaadin.isCurrentUIClean()) {
+                MockVaadin.clientRoundtrip()
+            }
         }
     }
 
@@ -0,0 +1,112 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.vaadin.flow.component.treegrid.TreeGrid
+import com.vaadin.flow.data.provider.hierarchy.HierarchicalDataProvider
+import com.vaadin.flow.shared.Registration
+
+/**
+ * The rows a [TreeGrid] is showing, flattened in the order of [_rowSequence]. The rows are walked lazily,
+ * only as far as needed: [fetch] only walks up to the last requested row, and the rows walked so far are remembered,
+ * so that `_get(rowIndex)` no longer re-walks the tree from the root. [size] walks the entire tree once.
+ *
+ * The remembered rows are dropped when:
+ * * a node is expanded or collapsed;
+ * * the TreeGrid is sorted;
+ * * the data provider fires any [com.vaadin.flow.data.provider.DataChangeEvent], e.g. on `refreshAll()`
+ *   or `TreeDataProvider.setFilter()`;
+ * * the TreeGrid's data provider changes;
+ * * the TreeGrid is detached, or [MockVaadin.tearDown] is called.
+ *
+ * Stored in the TreeGrid itself via [ComponentCacheHolder]: the walk references the TreeGrid, so the index
+ * can not be stored in a map keyed by the TreeGrid; neither can the index be serialized with the TreeGrid.
+ * See [KaribuConfig.indexTreeGridRows] for details.
+ */
+internal class TreeGridRowIndex<T> private constructor(
+    private val grid: TreeGrid<T>,
+    /**
+     * The holder of this index. The data provider listener references the holder: the data provider is serialized
+     * together with the TreeGrid, but the index isn't serializable.
+     */
+    private val holder: ComponentCacheHolder<TreeGridRowIndex<T>>
+) : ComponentCache {
+    /**
+     * The data provider observed by [registration].
+     */
+    private var dataProvider: HierarchicalDataProvider<T, *>? = null
+    private var registration: Registration? = null
+    /**
+     * The walk in progress; null if the walk needs to start from scratch.
+     */
+    private var walk: Iterator<T>? = null
+    private val rows = ArrayList<T>()
+
+    private fun invalidate() {
+        walk = null
+        rows.clear()
+    }
+
+    override fun release() {
+        registration?.remove()
+        registration = null
+        dataProvider = null
+        invalidate()
+    }
+
+    /**
+     * Continues the walk until at least [rowCount] rows are known, or there are no more rows.
+     */
+    private fun walkTo(rowCount: Int) {
+        val dataProvider: HierarchicalDataProvider<T, *> = grid.dataProvider
+        if (dataProvider !== this.dataProvider) {
+            release()
+            registration = dataProvider.addDataProviderListener { holder.cache?.invalidate() }
+            this.dataProvider = dataProvider
+            ComponentCaches.register(this)
+        }
+        val walk: Iterator<T> = walk ?: grid._rowSequence().iterator().also { walk = it }
+        while (rows.size < rowCount && walk.hasNext()) {
+            rows.add(walk.next())
+        }
+    }
+
+    /**
+     * Returns [limit] rows starting at [offset]; fewer if the TreeGrid doesn't show that many rows.
+     */
+    fun fetch(offset: Int, limit: Int): List<T> {
+        val end: Int = if (limit > Int.MAX_VALUE - offset) Int.MAX_VALUE else offset + limit
+        walkTo(end)
+        if (offset >= rows.size) {
+            return listOf()
+        }
+        return rows.subList(offset, end.coerceAtMost(rows.size)).toList()
+    }
+
+    /**
+     * Returns the number of rows the TreeGrid is showing.
+     */
+    fun size(): Int {
+        walkTo(Int.MAX_VALUE)
+        return rows.size
+    }
+
+    companion object {
+        private const val KEY: String = "com.github.mvysny.kaributesting.v10.TreeGridRowIndex"
+
+        /**
+         * Returns the index of given [grid], or null if [KaribuConfig.indexTreeGridRows] is off.
+         */
+        fun <T> of(grid: TreeGrid<T>): TreeGridRowIndex<T>? {
+            if (!KaribuConfig.indexTreeGridRows) {
+                return null
+            }
+            val holder: ComponentCacheHolder<TreeGridRowIndex<T>> = ComponentCacheHolder.of(grid, KEY) { holder ->
+                grid.addExpandListener { holder.cache?.invalidate() }
+                grid.addCollapseListener { holder.cache?.invalidate() }
+                grid.addSortListener { holder.cache?.invalidate() }
+                // stop listening to the data provider: it may outlive the grid, e.g. a singleton bean.
+                grid.addDetachListener { holder.cache?.release() }
+            }
+            return holder.cache ?: TreeGridRowIndex(grid, holder).also { holder.cache = it }
+        }
+    }
+}
@@ -2,14 +2,36 @@
 
 package com.github.mvysny.kaributesting.v10
 
+import com.github.mvysny.fakeservlet.FakeRequest
+import com.github.mvysny.fakeservlet.FakeResponse
 import com.vaadin.flow.component.upload.*
+import com.vaadin.flow.internal.CurrentInstance
 import com.vaadin.flow.internal.streams.UploadCompleteEvent
 import com.vaadin.flow.internal.streams.UploadStartEvent
 import com.vaadin.flow.server.StreamResourceRegistry
+import com.vaadin.flow.server.VaadinRequest
+import com.vaadin.flow.server.VaadinResponse
+import com.vaadin.flow.server.VaadinServletRequest
+import com.vaadin.flow.server.VaadinServletResponse
+import com.vaadin.flow.server.VaadinServletService
+import com.vaadin.flow.server.VaadinSession
 import com.vaadin.flow.server.streams.UploadEvent
 import com.vaadin.flow.server.streams.UploadHandler
 import com.vaadin.flow.server.streams.UploadResult
+import jakarta.servlet.ReadListener
+import jakarta.servlet.ServletInputStream
+import jakarta.servlet.http.HttpServletRequest
+import jakarta.servlet.http.HttpServletRequestWrapper
+import java.io.InputStream
 import java.net.URI
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.test.expect
 
 /**
  * Invokes [StartedEvent], then feeds given [file] to the [Upload.receiver], then
@@ -43,6 +65,184 @@ public fun Upload._upload(
     }
 }
 
+/**
+ * Uploads the contents of given [file] the way [_upload] does, but streams the contents in chunks of [chunkSize] bytes
+ * instead of loading the whole file into memory; see the `InputStream` overload of [_upload] for details.
+ */
+@JvmOverloads
+public fun Upload._upload(
+    file: Path,
+    fileName: String = file.fileName.toString(),
+    mimeType: String = currentService.getMimeType(fileName) ?: "application/octet-stream",
+    chunkSize: Int = DEFAULT_UPLOAD_CHUNK_SIZE
+) {
+    Files.newInputStream(file).use { content: InputStream ->
+        _upload(fileName, mimeType, Files.size(file), content, chunkSize)
+    }
+}
+
+/**
+ * Uploads [content] the way [_upload] does, but delivers it in chunks of [chunkSize] bytes, the way a browser would,
+ * without ever holding the whole content in memory. Doesn't close [content].
+ *
+ * The receiver or the [UploadHandler] pulls the chunks at its own pace: a chunk is only read from [content] when
+ * the receiver asks for it. That makes it possible to test huge uploads, backpressure and progress reporting:
+ * * With a [Upload.receiver], [ProgressUpdateEvent] is fired after every chunk, before the next one is read.
+ * * With an [UploadHandler], the request input stream yields at most [chunkSize] bytes per read; the [com.vaadin.flow.server.streams.TransferProgressListener]s
+ *   of the handler report the progress.
+ * @param contentLength the length of [content] in bytes, reported by the events; -1 if not known.
+ */
+@Suppress("DEPRECATION")
+@JvmOverloads
+public fun Upload._upload(
+    fileName: String,
+    mimeType: String = currentService.getMimeType(fileName) ?: "application/octet-stream",
+    contentLength: Long = -1,
+    content: InputStream,
+    chunkSize: Int = DEFAULT_UPLOAD_CHUNK_SIZE
+) {
+    require(chunkSize > 0) { "chunkSize must be 1 or greater but was $chunkSize" }
+    _expectEditableByUser()
+    if (receiver != null) {
+        _uploadLegacy(fileName, mimeType, contentLength, content, chunkSize)
+    } else {
+        val chunked = ChunkedInputStream(content, chunkSize) {}
+        val req = StreamingRequest(MockVaadin.createVaadinRequest().fake, chunked, contentLength)
+        _uploadNew(fileName, mimeType, contentLength, VaadinServletRequest(req, currentService as VaadinServletService))
+        // events are fired asynchronously
+        MockVaadin.clientRoundtrip()
+    }
+}
+
+/**
+ * A file to be uploaded by [_uploadConcurrently].
+ * @property content opens the content; called from the thread uploading the file. The stream is closed once uploaded.
+ * @property contentLength the length of the content in bytes; -1 if not known.
+ */
+public class UploadFile(
+    public val fileName: String,
+    public val mimeType: String,
+    public val contentLength: Long,
+    public val content: () -> InputStream
+) {
+    /**
+     * A file with given [content].
+     */
+    @JvmOverloads
+    public constructor(
+        fileName: String,
+        content: ByteArray,
+        mimeType: String = currentService.getMimeType(fileName) ?: "application/octet-stream"
+    ) : this(fileName, mimeType, content.size.toLong(), { content.inputStream() })
+
+    /**
+     * A file with the contents of given [file].
+     */
+    @JvmOverloads
+    public constructor(
+        file: Path,
+        mimeType: String = currentService.getMimeType(file.fileName.toString()) ?: "application/octet-stream"
+    ) : this(file.fileName.toString(), mimeType, Files.size(file), { Files.newInputStream(file) })
+
+    override fun toString(): String = "UploadFile($fileName, $mimeType, $contentLength bytes)"
+}
+
+/**
+ * Uploads all [files] at once, the way the browser uploads multiple files selected by the user: every file is sent to
+ * the [UploadHandler] in its own request, and the requests are handled concurrently by [executor]. Use this to
+ * reproduce the thread-safety and lock contention bugs of your [UploadHandler].
+ *
+ * Fires [UploadStartEvent] for every file, then handles the requests concurrently; every request streams its file
+ * in chunks of [chunkSize] bytes, see the `InputStream` overload of [_upload]. While the requests are being handled,
+ * the test thread doesn't hold the session lock, exactly like a real server between two requests: the handlers may
+ * call [com.vaadin.flow.component.UI.access] and [com.vaadin.flow.component.UI.accessSynchronously], which run
+ * in the request threads, competing for the lock. Once every request completes, fires [UploadCompleteEvent]
+ * for every file, then [AllFinishedEvent] once, even if some of the requests failed, the way the client-side Upload does.
+ *
+ * Requires an [UploadHandler]; the legacy [Upload.receiver] is not supported.
+ * @param executor handles the requests. Defaults to a virtual thread per file. May also run the requests in the calling
+ * thread, one by one, e.g. a `CallerRunsPolicy` pool.
+ * @throws Exception the first failure of the [UploadHandler], with the other failures added as suppressed exceptions.
+ */
+@JvmOverloads
+public fun Upload._uploadConcurrently(
+    files: List<UploadFile>,
+    executor: Executor? = null,
+    chunkSize: Int = DEFAULT_UPLOAD_CHUNK_SIZE
+) {
+    require(chunkSize > 0) { "chunkSize must be 1 or greater but was $chunkSize" }
+    _expectEditableByUser()
+    @Suppress("DEPRECATION")
+    check(receiver == null) { "${toPrettyString()}: _uploadConcurrently() requires an UploadHandler, but a receiver has been set" }
+    val handler: UploadHandler = _handler
+    if (executor == null) {
+        Executors.newVirtualThreadPerTaskExecutor().use { _uploadConcurrently(files, handler, it, chunkSize) }
+    } else {
+        _uploadConcurrently(files, handler, executor, chunkSize)
+    }
+    // events are fired asynchronously
+    MockVaadin.clientRoundtrip()
+}
+
+private fun Upload._uploadConcurrently(files: List<UploadFile>, handler: UploadHandler, executor: Executor, chunkSize: Int) {
+    val session: VaadinSession = currentSession
+    val service = currentService as VaadinServletService
+    // the requests are created in the test thread which has access to the current session
+    val requests: List<FakeRequest> = files.map { MockVaadin.createVaadinRequest().fake }
+    files.forEach { _fireEvent(UploadStartEvent(this)) }
+
+    // a real server doesn't hold the session lock while handling an upload request. The requests are only submitted
+    // once the lock is released: an executor may run the request in the calling thread, e.g. a `CallerRunsPolicy` pool.
+    expect(1, "The session lock must be held exactly once") { (session.lockInstance as ReentrantLock).holdCount }
+    val failures = mutableListOf<Throwable>()
+    session.unlock()
+    try {
+        val futures: List<CompletableFuture<Void>> = files.mapIndexed { index: Int, file: UploadFile ->
+            CompletableFuture.runAsync({
+                // the request thread of a real server has the service, the session, the request and the response current
+                val old: Map<Class<*>, CurrentInstance> = CurrentInstance.getInstances()
+                val res: VaadinResponse = VaadinServletResponse(FakeResponse(), service)
+                try {
+                    CurrentInstance.setCurrent(session)
+                    CurrentInstance.set(VaadinResponse::class.java, res)
+                    file.content().use { content: InputStream ->
+                        val chunked = ChunkedInputStream(content, chunkSize) {}
+                        val req = VaadinServletRequest(StreamingRequest(requests[index], chunked, file.contentLength), service)
+                        CurrentInstance.set(VaadinRequest::class.java, req)
+                        handler.handleUploadRequest(UploadEvent(req, res, session, file.fileName, file.contentLength, file.mimeType, element, null))
+                    }
+                    handler.responseHandled(UploadResult(true, res))
+                } catch (e: Exception) {
+                    handler.responseHandled(UploadResult(false, res, e))
+                    throw e
+                } finally {
+                    CurrentInstance.clearAll()
+                    CurrentInstance.restoreInstances(old)
+                }
+            }, executor)
+        }
+        for (future in futures) {
+            try {
+                future.join()
+            } catch (e: CompletionException) {
+                failures.add(e.cause ?: e)
+            }
+        }
+    } finally {
+        session.lock()
+    }
+
+    files.forEach { _fireEvent(UploadCompleteEvent(this)) }
+    // emulate client-side Upload which fires this DOM event once all files are finished.
+    _fireEvent(AllFinishedEvent(this))
+    if (failures.isNotEmpty()) {
+        failures.drop(1).forEach { failures[0].addSuppressed(it) }
+        throw failures[0]
+    }
+}
+
+private const val DEFAULT_UPLOAD_CHUNK_SIZE: Int = 64 * 1024
+
 /**
  * Returns the [UploadHandler] set to this [Upload] via [Upload.setUploadHandler]. Fails if no [UploadHandler]
  * has been set.
@@ -55,7 +255,7 @@ public val Upload._handler: UploadHandler get() {
     require(isAttached) { "Karibu-Testing can't retrieve UploadHandler unless the Upload component is attached to the UI" }
     var target = element.getAttribute("target")
     if (target == null) {
-        MockVaadin.clientRoundtrip()
+        MockVaadin.forceClientRoundtrip()
         target = element.getAttribute("target")
     }
     checkNotNull(target) { "${toPrettyString()}: upload handler has not been set" }
@@ -66,11 +266,15 @@ public val Upload._handler: UploadHandler get() {
 }
 
 private fun Upload._uploadNew(fileName: String, mimeType: String, file: ByteArray) {
-    val handler = _handler
     val req = MockVaadin.createVaadinRequest()
     req.fake.content = file
+    _uploadNew(fileName, mimeType, file.size.toLong(), req)
+}
+
+private fun Upload._uploadNew(fileName: String, mimeType: String, contentLength: Long, req: VaadinRequest) {
+    val handler = _handler
     val res = MockVaadin.createVaadinResponse()
-    val event = UploadEvent(req, res, currentSession, fileName, file.size.toLong(), mimeType, element, null)
+    val event = UploadEvent(req, res, currentSession, fileName, contentLength, mimeType, element, null)
     try {
         _fireEvent(UploadStartEvent(this))
         try {
@@ -116,6 +320,101 @@ private fun Upload._uploadLegacy(fileName: String, mimeType: String, file: ByteA
     }
 }
 
+@Suppress("DEPRECATION")
+private fun Upload._uploadLegacy(fileName: String, mimeType: String, contentLength: Long, content: InputStream, chunkSize: Int) {
+    _fireEvent(StartedEvent(this, fileName, mimeType, contentLength))
+    val chunked = ChunkedInputStream(content, chunkSize) { readBytes: Long ->
+        _fireEvent(ProgressUpdateEvent(this, readBytes, contentLength, fileName))
+    }
+    val failure: Exception? = try {
+        val r: Receiver =
+            checkNotNull(receiver) { "${toPrettyString()}: receiver has not been set" }
+        r.receiveUpload(fileName, mimeType).use { sout ->
+            val buffer = ByteArray(chunkSize)
+            while (true) {
+                val read: Int = chunked.read(buffer)
+                if (read < 0) break
+                sout.write(buffer, 0, read)
+            }
+        }
+        null
+    } catch (e: Exception) {
+        e
+    }
+    if (failure == null) {
+        _fireEvent(SucceededEvent(this, fileName, mimeType, chunked.readBytes))
+    } else {
+        _fireEvent(FailedEvent(this, fileName, mimeType, chunked.readBytes, failure))
+    }
+    _fireEvent(FinishedEvent(this, fileName, mimeType, chunked.readBytes))
+    if (failure != null) {
+        throw failure
+    }
+}
+
+/**
+ * Reads at most [chunkSize] bytes from [content] at a time, and calls [onChunk] with the number of bytes read so far
+ * after every whole chunk, and after the last, possibly partial, chunk.
+ */
+private class ChunkedInputStream(
+    private val content: InputStream,
+    private val chunkSize: Int,
+    private val onChunk: (readBytes: Long) -> Unit
+) : InputStream() {
+    var readBytes: Long = 0
+        private set
+    /**
+     * The bytes read since [onChunk] was called last time.
+     */
+    private var pending: Long = 0
+    private val single = ByteArray(1)
+
+    override fun read(): Int = if (read(single, 0, 1) < 0) -1 else single[0].toInt() and 0xFF
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        if (len == 0) {
+            return 0
+        }
+        val read: Int = content.read(b, off, minOf(len.toLong(), chunkSize - pending).toInt())
+        if (read < 0) {
+            if (pending > 0) {
+                pending = 0
+                onChunk(readBytes)
+            }
+            return -1
+        }
+        readBytes += read
+        pending += read
+        if (pending >= chunkSize) {
+            pending = 0
+            onChunk(readBytes)
+        }
+        return read
+    }
+}
+
+/**
+ * Serves [content] as the request body, instead of the byte array held by the `FakeRequest`.
+ */
+private class StreamingRequest(
+    request: HttpServletRequest,
+    private val content: InputStream,
+    private val contentLength: Long
+) : HttpServletRequestWrapper(request) {
+    private var finished = false
+    private val stream = object : ServletInputStream() {
+        override fun read(): Int = content.read().also { if (it < 0) finished = true }
+        override fun read(b: ByteArray, off: Int, len: Int): Int = content.read(b, off, len).also { if (it < 0) finished = true }
+        override fun isFinished(): Boolean = finished
+        override fun isReady(): Boolean = true
+        override fun setReadListener(readListener: ReadListener?) {}
+    }
+
+    override fun getInputStream(): ServletInputStream = stream
+    override fun getContentLengthLong(): Long = contentLength
+    override fun getContentLength(): Int = if (contentLength > Int.MAX_VALUE) -1 else contentLength.toInt()
+}
+
 /**
  * Tests the "upload interrupted" scenario. First invokes [StartedEvent], then polls [Upload.receiver], then
  * fires [FailedEvent] and [FinishedEvent].
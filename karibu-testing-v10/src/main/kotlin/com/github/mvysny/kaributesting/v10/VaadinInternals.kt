@@ -0,0 +1,146 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.vaadin.flow.component.contextmenu.SubMenuBase
+import com.vaadin.flow.component.internal.UIInternals
+import com.vaadin.flow.component.tabs.TabSheet
+import com.vaadin.flow.data.provider.DataCommunicator
+import com.vaadin.flow.data.renderer.BasicRenderer
+import com.vaadin.flow.internal.StateTree
+import com.vaadin.flow.server.StreamResourceRegistry
+import com.vaadin.flow.server.VaadinService
+import com.vaadin.flow.server.VaadinSession
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Handles to the non-public Vaadin members which Karibu-Testing calls over and over, e.g. for every Grid row or
+ * from every [MockVaadin.setup]. The handles are resolved once, when this object is initialized, and are kept in
+ * `static final` fields: the JIT treats them as constants and can inline the call, which it can't do with
+ * [java.lang.reflect.Method.invoke].
+ *
+ * A member which can't be resolved (typically because a Vaadin upgrade renamed or removed it) doesn't fail the
+ * initialization: all such members are listed together by [reportFailures] when [MockVaadin.setup] is called, and their
+ * handles throw [IllegalStateException] when called. Members present only in some Vaadin versions are nullable
+ * instead, and are never reported.
+ *
+ * Call the handles via [MethodHandle.invoke], which adapts the argument and return types as needed.
+ */
+internal object VaadinInternals {
+    @JvmStatic
+    private val log: Logger = LoggerFactory.getLogger(VaadinInternals::class.java)
+
+    private val lookup: MethodHandles.Lookup = MethodHandles.lookup()
+    // must be initialized before the handles below
+    private val failures: MutableList<String> = mutableListOf()
+    private val failuresReported = AtomicBoolean()
+
+    /**
+     * `DataCommunicator.fetchFromProvider(int offset, int limit): Stream<T>`
+     */
+    val DataCommunicator_fetchFromProvider: MethodHandle =
+        method(DataCommunicator::class.java, "fetchFromProvider", Int::class.java, Int::class.java)
+    /**
+     * `DataCommunicator.setPagingEnabled(boolean)`; not present in older Vaadin versions.
+     */
+    val DataCommunicator_setPagingEnabled: MethodHandle? =
+        optionalMethod(DataCommunicator::class.java, "setPagingEnabled", Boolean::class.java)
+    /**
+     * `DataCommunicator.isPagingEnabled(): boolean`; not present in older Vaadin versions.
+     */
+    val DataCommunicator_isPagingEnabled: MethodHandle? =
+        optionalMethod(DataCommunicator::class.java, "isPagingEnabled")
+    /**
+     * `DataCommunicator.getFilter(): Object`, the filter the Grid passes to the data provider.
+     */
+    val DataCommunicator_getFilter: MethodHandle? =
+        optionalMethod(DataCommunicator::class.java, "getFilter")
+    /**
+     * `BasicRenderer.getFormattedValue(TARGET value): String`
+     */
+    val BasicRenderer_getFormattedValue: MethodHandle =
+        method(BasicRenderer::class.java, "getFormattedValue", Object::class.java)
+    /**
+     * `StreamResourceRegistry.res: Map<URI, AbstractStreamResource>`
+     */
+    val StreamResourceRegistry_res: MethodHandle = getter(StreamResourceRegistry::class.java, "res")
+    /**
+     * `SubMenuBase.getMenuManager(): MenuManager`
+     */
+    val SubMenuBase_getMenuManager: MethodHandle = method(SubMenuBase::class.java, "getMenuManager")
+    /**
+     * `TabSheet.tabs: Tabs`
+     */
+    val TabSheet_tabs: MethodHandle = getter(TabSheet::class.java, "tabs")
+    /**
+     * `VaadinService.sessionInitListeners: Collection<SessionInitListener>`
+     */
+    val VaadinService_sessionInitListeners: MethodHandle = getter(VaadinService::class.java, "sessionInitListeners")
+    /**
+     * `VaadinService.serviceDestroyListeners: Collection<ServiceDestroyListener>`
+     */
+    val VaadinService_serviceDestroyListeners: MethodHandle = getter(VaadinService::class.java, "serviceDestroyListeners")
+    /**
+     * `StateTree.pendingExecutionNodes: Set<StateNode>`; if absent, [MockVaadin.isCurrentUIClean] reports the UI as dirty.
+     */
+    val StateTree_pendingExecutionNodes: MethodHandle? = optionalGetter(StateTree::class.java, "pendingExecutionNodes")
+    /**
+     * `UIInternals.pendingJsInvocations: List<PendingJavaScriptInvocation>`; if absent, [MockVaadin.isCurrentUIClean]
+     * reports the UI as dirty.
+     */
+    val UIInternals_pendingJsInvocations: MethodHandle? = optionalGetter(UIInternals::class.java, "pendingJsInvocations")
+    /**
+     * Sets `VaadinSession.pendingAccessQueue: ConcurrentLinkedQueue<FutureAccess>`; if absent, [PushSimulator] can't be used.
+     */
+    val VaadinSession_setPendingAccessQueue: MethodHandle? = optionalSetter(VaadinSession::class.java, "pendingAccessQueue")
+
+    /**
+     * Logs all members which couldn't be resolved, once per JVM. Called from [MockVaadin.setup].
+     */
+    fun reportFailures() {
+        if (failures.isNotEmpty() && failuresReported.compareAndSet(false, true)) {
+            log.error("Karibu-Testing failed to access the following Vaadin internals; is this Vaadin version supported? Functions relying on them will fail.\n${failures.joinToString("\n")}")
+        }
+    }
+
+    private fun optionalMethod(clazz: Class<*>, name: String, vararg parameterTypes: Class<*>): MethodHandle? = try {
+        lookup.unreflect(clazz.getDeclaredMethod(name, *parameterTypes).apply { isAccessible = true })
+    } catch (e: Exception) {
+        // NoSuchMethodException, IllegalAccessException or InaccessibleObjectException
+        null
+    }
+
+    private fun optionalGetter(clazz: Class<*>, name: String): MethodHandle? = try {
+        lookup.unreflectGetter(clazz.getDeclaredField(name).apply { isAccessible = true })
+    } catch (e: Exception) {
+        // NoSuchFieldException, IllegalAccessException or InaccessibleObjectException
+        null
+    }
+
+    private fun optionalSetter(clazz: Class<*>, name: String): MethodHandle? = try {
+        lookup.unreflectSetter(clazz.getDeclaredField(name).apply { isAccessible = true })
+    } catch (e: Exception) {
+        // NoSuchFieldException, IllegalAccessException or InaccessibleObjectException
+        null
+    }
+
+    private fun method(clazz: Class<*>, name: String, vararg parameterTypes: Class<*>): MethodHandle =
+        optionalMethod(clazz, name, *parameterTypes)
+            ?: missing("${clazz.name}.$name(${parameterTypes.joinToString { it.simpleName }})", MethodType.methodType(Any::class.java, clazz, *parameterTypes))
+
+    private fun getter(clazz: Class<*>, name: String): MethodHandle =
+        optionalGetter(clazz, name) ?: missing("${clazz.name}.$name", MethodType.methodType(Any::class.java, clazz))
+
+    /**
+     * Records the [member] as missing, and returns a handle of given [type] which throws [IllegalStateException] when called.
+     */
+    private fun missing(member: String, type: MethodType): MethodHandle {
+        failures.add(member)
+        val thrower: MethodHandle = MethodHandles.throwException(type.returnType(), IllegalStateException::class.java)
+            .bindTo(IllegalStateException("$member is not available in this Vaadin version"))
+        return MethodHandles.dropArguments(thrower, 0, type.parameterList())
+    }
+}
@@ -28,8 +28,15 @@ open class AbstractAllTests10(val isModuleTest: Boolean) {
     @Nested inner class LocatorJTests : AbstractLocatorJTests()
     @Nested inner class LocatorTest : AbstractLocatorTest()
     @Nested inner class LocatorTest2 : AbstractLocatorTest2()
+    @Nested inner class ComponentIndexTests : AbstractComponentIndexTests()
     @Nested inner class MockVaadinTests : AbstractMockVaadinTests()
     @Nested inner class MockBrowserTests : AbstractMockBrowserTests()
+    @Nested inner class KaribuConfigTests : AbstractKaribuConfigTests()
+    @Nested inner class KaribuMetricsTests : AbstractKaribuMetricsTests()
+    @Nested inner class LoadDriverTests : AbstractLoadDriverTests()
+    @Nested inner class SessionFootprintTests : AbstractSessionFootprintTests()
+    @Nested inner class LeakDetectorTests : AbstractLeakDetectorTests()
+    @Nested inner class PushSimulatorTests : AbstractPushSimulatorTests()
     @Nested inner class BinderTests : AbstractBinderTests()
     @Nested inner class PrettyPrintTests : AbstractPrettyPrintTreeTests()
     @Nested inner class SearchSpecTests : AbstractSearchSpecTests()
@@ -0,0 +1,138 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.github.mvysny.karibudsl.v10.button
+import com.github.mvysny.karibudsl.v10.div
+import com.github.mvysny.karibudsl.v10.textField
+import com.github.mvysny.karibudsl.v10.verticalLayout
+import com.vaadin.flow.component.Component
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.component.button.Button
+import com.vaadin.flow.component.dialog.Dialog
+import com.vaadin.flow.component.html.Div
+import com.vaadin.flow.component.orderedlayout.VerticalLayout
+import com.vaadin.flow.component.textfield.TextField
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import kotlin.test.expect
+
+abstract class AbstractComponentIndexTests {
+    private lateinit var hook: CountingLifecycleHook
+    @BeforeEach fun fakeVaadin() {
+        MockVaadin.setup()
+        hook = CountingLifecycleHook(TestingLifecycleHook.default)
+        KaribuConfig.testingLifecycleHook = hook
+        KaribuConfig.indexComponentLookups = true
+    }
+    @AfterEach fun tearDownVaadin() {
+        KaribuConfig.indexComponentLookups = false
+        KaribuConfig.testingLifecycleHook = TestingLifecycleHook.default
+        MockVaadin.tearDown()
+    }
+
+    @Test fun `index is reused when nothing changes`() {
+        UI.getCurrent().verticalLayout {
+            button("foo")
+            textField("bar")
+        }
+        _get<Button> { text = "foo" }
+        expect(true) { hook.getAllChildrenCalls > 0 }
+        hook.getAllChildrenCalls = 0
+        _get<TextField> { label = "bar" }
+        _expectNone<Div>()
+        expect(0) { hook.getAllChildrenCalls }
+    }
+
+    @Test fun `added and removed components`() {
+        val layout = UI.getCurrent().verticalLayout()
+        _expectNone<Button>()
+        val button = layout.button("foo")
+        expect(button) { _get<Button>() }
+        layout.button("bar")
+        expect(2) { _find<Button>().size }
+        button.removeFromParent()
+        expectList("bar") { _find<Button>().map { it.text } }
+    }
+
+    @Test fun `moved components`() {
+        val layout1 = UI.getCurrent().verticalLayout { id_ = "layout1" }
+        val layout2 = UI.getCurrent().verticalLayout { id_ = "layout2" }
+        val button = layout1.button("foo")
+        expect(button) { _get<VerticalLayout> { id = "layout1" }._get<Button>() }
+        layout2.add(button)
+        _get<VerticalLayout> { id = "layout1" }._expectNone<Button>()
+        expect(button) { _get<Button>() }
+    }
+
+    @Test fun `changed id`() {
+        val button = UI.getCurrent().button("foo")
+        _expectNone<Button> { id = "foo" }
+        button.id_ = "foo"
+        expect(button) { _get<Button> { id = "foo" } }
+        button.id_ = "bar"
+        _expectNone<Button> { id = "foo" }
+        expect(button) { _get<Button> { id = "bar" } }
+    }
+
+    @Test fun `changed class names`() {
+        val div = UI.getCurrent().div()
+        _expectNone<Div> { classes = "foo" }
+        div.addClassNames("foo", "bar")
+        expect(div) { _get<Div> { classes = "bar foo" } }
+        div.removeClassName("foo")
+        _expectNone<Div> { classes = "foo" }
+        expect(div) { _get<Component> { classes = "bar" } }
+    }
+
+    @Test fun `changed visibility`() {
+        val button = UI.getCurrent().button("foo")
+        _get<Button>()
+        button.isVisible = false
+        _expectNone<Button>()
+        button.isVisible = true
+        _get<Button>()
+    }
+
+    @Test fun `dialogs`() {
+        val dialog = Dialog(Button("foo"))
+        dialog.open()
+        _get<Button> { text = "foo" }
+        dialog.close()
+        _expectNone<Button>()
+        _expectNoDialogs()
+    }
+
+    @Test fun `same results as the tree walk`() {
+        UI.getCurrent().verticalLayout {
+            repeat(5) { i ->
+                div { addClassName("row"); id_ = "div$i"
+                    button("button$i") { isVisible = i % 2 == 0 }
+                    textField("field$i")
+                }
+            }
+        }
+        fun lookups(): List<List<Component>> = listOf(
+            _find<Component>(), _find<Button>(), _find<Div> { classes = "row" },
+            _find<Component> { id = "div3" }, _find<TextField> { label = "field2" }
+        )
+        val indexed: List<List<Component>> = lookups()
+        KaribuConfig.indexComponentLookups = false
+        expect(lookups()) { indexed }
+    }
+
+    @Test fun `lookups on other components than UI walk the tree`() {
+        val layout = UI.getCurrent().verticalLayout { button("foo") }
+        expect(layout) { _get<VerticalLayout>() }
+        hook.getAllChildrenCalls = 0
+        layout._get<Button>()
+        expect(true) { hook.getAllChildrenCalls > 0 }
+    }
+}
+
+class CountingLifecycleHook(val delegate: TestingLifecycleHook) : TestingLifecycleHook by delegate {
+    var getAllChildrenCalls: Int = 0
+    override fun getAllChildren(component: Component): List<Component> {
+        getAllChildrenCalls++
+        return delegate.getAllChildren(component)
+    }
+}
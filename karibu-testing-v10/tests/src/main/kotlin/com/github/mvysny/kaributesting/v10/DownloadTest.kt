@@ -19,8 +19,13 @@ import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Nested
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.io.TempDir
+import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.IOException
+import java.io.InputStream
+import java.io.SequenceInputStream
+import java.nio.channels.Channels
+import java.util.Enumeration
 import kotlin.test.expect
 
 abstract class AbstractDownloadTests() {
@@ -136,6 +141,97 @@ abstract class AbstractDownloadTests() {
         }
     }
 
+    @Nested inner class streaming {
+        private val csv = "Name,Email\nJohn,john@example.com\r\nJane,jane@example.com\n"
+
+        @Test fun `StreamResource into OutputStream`() {
+            val link = UI.getCurrent().anchor("")
+            link.setHref(StreamResource("foo.csv", InputStreamFactory { csv.byteInputStream() }))
+            val out = ByteArrayOutputStream()
+            link._download(out)
+            expect(csv) { out.toString(Charsets.UTF_8) }
+        }
+
+        @Test fun `DownloadHandler into OutputStream`() {
+            val link = UI.getCurrent().anchor("")
+            link.setHref(DownloadHandler(csv.toByteArray(), "foo.csv"), AttachmentType.DOWNLOAD)
+            val out = ByteArrayOutputStream()
+            link._download(out)
+            expect(csv) { out.toString(Charsets.UTF_8) }
+        }
+
+        @Test fun `image into OutputStream`() {
+            val image = UI.getCurrent().image()
+            image.setSrc(DownloadHandler(csv.toByteArray(), "foo.csv"))
+            val out = ByteArrayOutputStream()
+            image.download(out)
+            expect(csv) { out.toString(Charsets.UTF_8) }
+        }
+
+        @Test fun `into WritableByteChannel`() {
+            val link = UI.getCurrent().anchor("")
+            link.setHref(DownloadHandler(csv.toByteArray(), "foo.csv"), AttachmentType.DOWNLOAD)
+            val out = ByteArrayOutputStream()
+            downloadResource(link.href, Channels.newChannel(out))
+            expect(csv) { out.toString(Charsets.UTF_8) }
+        }
+
+        @Test fun `as InputStream`() {
+            val link = UI.getCurrent().anchor("")
+            link.setHref(DownloadHandler(csv.toByteArray(), "foo.csv"), AttachmentType.DOWNLOAD)
+            val lines: List<String> = downloadResourceStream(link.href).bufferedReader().use { it.readLines() }
+            expect(listOf("Name,Email", "John,john@example.com", "Jane,jane@example.com")) { lines }
+        }
+
+        @Test fun summary() {
+            val link = UI.getCurrent().anchor("")
+            link.setHref(DownloadHandler(csv.toByteArray(), "foo.csv"), AttachmentType.DOWNLOAD)
+            val summary: DownloadSummary = link._downloadSummary(firstLines = 2)
+            expect(csv.length.toLong()) { summary.size }
+            expect("5410096ff4cbe59c6e1bb74af21e6f3f125e1c74d2e057937b0d94c1e95145f4") { summary.digest }
+            expect(listOf("Name,Email", "John,john@example.com")) { summary.firstLines }
+            summary.expectSize(csv.length.toLong())
+            summary.expectDigest("5410096FF4CBE59C6E1BB74AF21E6F3F125E1C74D2E057937B0D94C1E95145F4")
+            summary.expectFirstLines("Name,Email")
+            expectThrows(AssertionError::class, "The size of the download in bytes") {
+                summary.expectSize(1)
+            }
+            expectThrows(AssertionError::class, "The first lines of the download") {
+                summary.expectFirstLines("Email,Name")
+            }
+        }
+
+        @Test fun `summary of all lines`() {
+            val link = UI.getCurrent().anchor("")
+            link.setHref(DownloadHandler(csv.toByteArray(), "foo.csv"), AttachmentType.DOWNLOAD)
+            expect(listOf("Name,Email", "John,john@example.com", "Jane,jane@example.com")) { link._downloadSummary().firstLines }
+        }
+
+        @Test fun `summary of an empty resource`() {
+            val link = UI.getCurrent().anchor("")
+            link.setHref(emptyDownloadHandler(), AttachmentType.DOWNLOAD)
+            val summary: DownloadSummary = link._downloadSummary()
+            expect(0L) { summary.size }
+            expect(listOf<String>()) { summary.firstLines }
+        }
+
+        @Test fun `summary of a large resource`() {
+            val rows = 200_000
+            val link = UI.getCurrent().anchor("")
+            link.setHref(StreamResource("big.csv", InputStreamFactory {
+                // generates the rows lazily
+                val iterator: Iterator<InputStream> = (0 until rows).asSequence().map { "Row $it\n".byteInputStream() }.iterator()
+                SequenceInputStream(object : Enumeration<InputStream> {
+                    override fun hasMoreElements(): Boolean = iterator.hasNext()
+                    override fun nextElement(): InputStream = iterator.next()
+                })
+            }))
+            val summary: DownloadSummary = downloadResourceSummary(link.href, 3)
+            expect((0 until rows).sumOf { "Row $it\n".length.toLong() }) { summary.size }
+            expect(listOf("Row 0", "Row 1", "Row 2")) { summary.firstLines }
+        }
+    }
+
     @Test fun `progress-notifications-error`() {
         val link = UI.getCurrent().anchor("")
         val progress = TestTransferProgressListener()
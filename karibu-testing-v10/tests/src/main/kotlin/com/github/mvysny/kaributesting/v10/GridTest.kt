@@ -21,6 +21,7 @@ import com.vaadin.flow.component.icon.VaadinIcon
 import com.vaadin.flow.component.textfield.TextField
 import com.vaadin.flow.data.provider.*
 import com.vaadin.flow.data.renderer.ComponentRenderer
+import com.vaadin.flow.data.renderer.LitRenderer
 import com.vaadin.flow.data.renderer.LocalDateRenderer
 import com.vaadin.flow.data.renderer.NativeButtonRenderer
 import com.vaadin.flow.data.selection.SelectionEvent
@@ -477,6 +478,74 @@ abstract class AbstractGridTests {
         }
     }
 
+    @Nested inner class _getFormattedRows {
+        @Test fun basic() {
+            val grid = UI.getCurrent().grid<TestPerson> {
+                addColumnFor(TestPerson::name)
+                addColumnFor(TestPerson::age)
+                setItems2((0..10).map { TestPerson("name $it", it) })
+            }
+            val rows: FormattedRows = grid._getFormattedRows(1..3)
+            expect(listOf(listOf("name 1", "1"), listOf("name 2", "2"), listOf("name 3", "3"))) { rows }
+            expect(1) { rows.firstRowIndex }
+            expect(1..3) { rows.rowIndices }
+            expect(2) { rows.columnCount }
+            expect("2") { rows[1, 1] }
+            expect(grid._getFormattedRow(3)) { rows[2] }
+        }
+
+        @Test fun `beyond the last row`() {
+            val grid = UI.getCurrent().grid<TestPerson>(PersonBackendDataProvider(10)) {
+                addColumnFor(TestPerson::name)
+            }
+            val rows: FormattedRows = grid._getFormattedRows(8..20)
+            expect(listOf(listOf("name 8"), listOf("name 9"))) { rows }
+            expect(8..9) { rows.rowIndices }
+            expect(listOf<List<String>>()) { grid._getFormattedRows(10..20) }
+            expect(listOf<List<String>>()) { grid._getFormattedRows(IntRange.EMPTY) }
+        }
+
+        @Test fun `fetches all rows in one query`() {
+            val dp = CountingDataProvider(1000)
+            val grid = UI.getCurrent().grid<TestPerson>(dp) {
+                addColumnFor(TestPerson::name)
+            }
+            val fetches = dp.fetches
+            val rows: FormattedRows = grid._getFormattedRows(0..499)
+            expect(fetches + 1) { dp.fetches }
+            expect(500) { rows.size }
+            expect(listOf("name 499")) { rows[499] }
+        }
+
+        @Test fun `same output as _getFormattedRow`() {
+            val grid = UI.getCurrent().grid<TestPerson> {
+                addColumnFor(TestPerson::name)
+                addColumn(NativeButtonRenderer<TestPerson>("View", { }))
+                addColumn(ComponentRenderer<Button, TestPerson> { it -> Button(it.name) })
+                addColumn(LocalDateRenderer<TestPerson>({ LocalDate.of(2019, 3, it.age + 1) }, "d.M.yyyy"))
+                addColumn(LitRenderer.of<TestPerson>("<b>\${item.name}</b>").withProperty("name") { it.name })
+                addColumn(ValueProvider<TestPerson, String?> { it -> null })
+            }
+            grid.dataProvider = ListDataProvider<TestPerson>((0 until 7).map { TestPerson("name $it", it) })
+            expect(listOf("name 2", "View", "Button[text='name 2']", "3.3.2019", "name 2", "")) {
+                grid._getFormattedRows(2..2)[0]
+            }
+            expect((0 until 7).map { grid._getFormattedRow(it) }) { grid._getFormattedRows(0..6) }
+        }
+
+        // https://github.com/mvysny/karibu-testing/issues/124
+        @Test fun `calls column valueproviders at most once`() {
+            val grid = UI.getCurrent().grid<TestPerson>(PersonBackendDataProvider()) {
+                addColumn { it.age--; it.name }
+            }
+            expect(listOf(listOf("name 2"), listOf("name 3"))) { grid._getFormattedRows(2..3) }
+            expect(1) { grid._get(2).age }
+            grid._getFormattedRows(0..9)
+            expect(1) { grid._get(2).age }
+            expect(2) { grid._get(3).age }
+        }
+    }
+
     @Nested inner class _clickItem {
         @Test fun `fails on disabled grid`() {
             val grid = Grid<TestPerson>().apply {
@@ -904,6 +973,98 @@ abstract class AbstractGridTests {
         }
     }
 
+    @Nested inner class gridFetchPageSize {
+        @BeforeEach fun enable() { KaribuConfig.gridFetchPageSize = 50 }
+        @AfterEach fun disable() { KaribuConfig.gridFetchPageSize = 0 }
+
+        @Test fun `_get() fetches rows in pages`() {
+            val dp = CountingDataProvider(1000)
+            val grid = UI.getCurrent().grid<TestPerson>(dp)
+            val fetches = dp.fetches
+            val sizes = dp.sizes
+            for (i in 0 until 200) {
+                expect("name $i") { grid._get(i).name }
+            }
+            expect(fetches + 4) { dp.fetches }
+            expect(sizes + 1) { dp.sizes }
+            expect(1000) { grid._size() }
+            expect(sizes + 1) { dp.sizes }
+        }
+
+        @Test fun `_getOrNull() beyond the last row`() {
+            val dp = CountingDataProvider(60)
+            val grid = UI.getCurrent().grid<TestPerson>(dp)
+            expect("name 59") { grid._getOrNull(59)!!.name }
+            expect(null) { grid._getOrNull(60) }
+            expectThrows(AssertionError::class, "Requested to get row 60 but the data provider only has 60 rows") {
+                grid._get(60)
+            }
+        }
+
+        @Test fun `refreshAll() drops the cache`() {
+            val dp = CountingDataProvider(100)
+            val grid = UI.getCurrent().grid<TestPerson>(dp)
+            grid._get(0)
+            dp.size = 10
+            // the backend changed without a refresh: the Grid keeps showing the old rows
+            expect(100) { grid._size() }
+            dp.refreshAll()
+            expect(10) { grid._size() }
+            expect(null) { grid._getOrNull(20) }
+        }
+
+        @Test fun `changing the data provider drops the cache`() {
+            val grid = UI.getCurrent().grid<TestPerson>(CountingDataProvider(100))
+            grid._get(0)
+            grid.dataProvider = CountingDataProvider(5)
+            expect(5) { grid._size() }
+            expect(null) { grid._getOrNull(50) }
+        }
+
+        @Test fun `sorting drops the cache`() {
+            val grid = UI.getCurrent().grid<TestPerson> {
+                addColumnFor(TestPerson::name)
+                addColumnFor(TestPerson::age)
+                setItems2((0..10).map { TestPerson("name $it", it) })
+            }
+            expect(0) { grid._get(0).age }
+            grid._sort(TestPerson::age.desc)
+            expect(10) { grid._get(0).age }
+            expect(0) { grid._get(10).age }
+        }
+
+        @Test fun `filtering drops the cache`() {
+            val dp = ListDataProvider((0..10).map { TestPerson("name $it", it) })
+            val grid = UI.getCurrent().grid<TestPerson>(dp)
+            expect(11) { grid._size() }
+            dp.setFilter { it.age >= 5 }
+            expect(6) { grid._size() }
+            expect(5) { grid._get(0).age }
+        }
+
+        @Test fun `_get() still caches values`() {
+            val grid = UI.getCurrent().grid<TestPerson>(PersonBackendDataProvider()) {
+                addColumn { it.age--; it.name }
+            }
+            val person = grid._get(2)
+            expect(1) { person.age }
+            expect(true) { person === grid._get(2) }
+            expect(1) { grid._get(2).age }
+        }
+
+        @Test fun `sorted Grid with cached rows is serializable`() {
+            val grid = UI.getCurrent().grid<String> {
+                addColumn { it }.setKey("name")
+                setItems((0..10).map { "item $it" })
+            }
+            grid._sortByKey("name", SortDirection.DESCENDING)
+            expect("item 9") { grid._get(0) }
+            UI.getCurrent().cloneBySerialization()
+            MockVaadin.snapshot()
+            expect("item 9") { grid._get(0) }
+        }
+    }
+
     @Nested inner class _fireColumnResizedEvent {
         @Test fun smoke() {
             lateinit var column: Grid.Column<TestPerson>
@@ -962,6 +1123,25 @@ class PersonBackendDataProvider(val size: Int = 10) : AbstractBackEndDataProvide
     override fun sizeInBackEnd(query: Query<TestPerson, Void>): Int = size
 }
 
+/**
+ * Provides fresh instances of [TestPerson], counting the backend calls.
+ */
+class CountingDataProvider(var size: Int) : AbstractBackEndDataProvider<TestPerson, Void>() {
+    var fetches: Int = 0
+    var sizes: Int = 0
+
+    override fun fetchFromBackEnd(query: Query<TestPerson, Void>): Stream<TestPerson> {
+        fetches++
+        val rows = query.offset until (query.offset + query.limit).coerceAtMost(size)
+        return rows.map { TestPerson("name $it", it) }.stream()
+    }
+
+    override fun sizeInBackEnd(query: Query<TestPerson, Void>): Int {
+        sizes++
+        return size
+    }
+}
+
 fun <T> Grid<T>.setItems2(items: Collection<T>) {
     // Vaadin 15+ uses DataView and setItems() has been moved to HasDataView,
     // introducing binary incompatibility. We thus can't have a code which calls [setItems] since that
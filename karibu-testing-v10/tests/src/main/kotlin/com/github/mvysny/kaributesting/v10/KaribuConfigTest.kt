@@ -0,0 +1,123 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.github.mvysny.karibudsl.v10.button
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.component.button.Button
+import com.vaadin.flow.server.VaadinSession
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Nested
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+import kotlin.test.expect
+
+/**
+ * Tests [KaribuConfig.isolateThreads].
+ */
+abstract class AbstractKaribuConfigTests {
+    @BeforeEach fun isolateThreads() {
+        KaribuConfig.isolateThreads = true
+    }
+    @AfterEach fun sharedConfig() {
+        KaribuConfig.isolateThreads = false
+    }
+
+    @Nested inner class `thread isolation` {
+        @Test fun `changes are not visible to other threads`() {
+            val executor = Executors.newSingleThreadExecutor()
+            // start the executor thread beforehand, otherwise it would inherit the changed configuration
+            executor.submit { }.get()
+            KaribuConfig.windowName = "changed"
+            MockBrowser.userAgent = "changed"
+            expect("changed") { KaribuConfig.windowName }
+            var otherWindowName: String? = null
+            var otherUserAgent: String? = null
+            try {
+                executor.submit {
+                    otherWindowName = KaribuConfig.windowName
+                    otherUserAgent = MockBrowser.userAgent
+                }.get()
+            } finally {
+                executor.shutdown()
+            }
+            expect("ROOT-2521314-0.2626611481") { otherWindowName }
+            expect(false) { otherUserAgent == "changed" }
+        }
+
+        @Test fun `child threads inherit a copy`() {
+            KaribuConfig.windowName = "parent"
+            var childWindowName: String? = null
+            thread {
+                childWindowName = KaribuConfig.windowName
+                KaribuConfig.windowName = "child"
+            }.join()
+            expect("parent") { childWindowName }
+            expect("parent") { KaribuConfig.windowName }
+        }
+
+        @Test fun `pending javascript handlers are copied`() {
+            KaribuConfig.pendingJavascriptInvocationHandlers.add { }
+            var otherHandlers: Int = -1
+            thread {
+                KaribuConfig.pendingJavascriptInvocationHandlers.clear()
+                otherHandlers = KaribuConfig.pendingJavascriptInvocationHandlers.size
+            }.join()
+            expect(0) { otherHandlers }
+            expect(1) { KaribuConfig.pendingJavascriptInvocationHandlers.size }
+        }
+
+        @Test fun `tearDown discards the thread configuration`() {
+            KaribuConfig.windowName = "changed"
+            MockVaadin.setup()
+            expect("changed") { MockBrowser.currentWindowName }
+            MockVaadin.tearDown()
+            expect("ROOT-2521314-0.2626611481") { KaribuConfig.windowName }
+        }
+    }
+
+    @Test fun `many simultaneous sessions with differing configuration`() {
+        val routes: Routes = Routes().autoDiscoverViews("com.github")
+        val threads = 8
+        val iterations = 25
+        val start = CountDownLatch(1)
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            val futures: List<Future<*>> = (0 until threads).map { threadNo ->
+                executor.submit {
+                    start.await()
+                    repeat(iterations) { iteration ->
+                        val name = "thread-$threadNo-$iteration"
+                        KaribuConfig.windowName = name
+                        MockBrowser.userAgent = "Agent $name"
+                        KaribuConfig.initDefaultRoute = threadNo % 2 == 0
+                        KaribuConfig.skipCleanRoundtrips = threadNo % 3 == 0
+                        KaribuConfig.indexComponentLookups = threadNo % 4 == 0
+                        MockVaadin.setup(routes)
+                        try {
+                            expect(name) { MockBrowser.currentWindowName }
+                            expect("Agent $name") { VaadinSession.getCurrent().browser.browserApplication }
+                            if (threadNo % 2 == 0) _get<WelcomeView>() else _expectNone<WelcomeView>()
+                            UI.getCurrent().button(name)
+                            _get<Button> { text = name }
+                        } finally {
+                            MockVaadin.tearDown()
+                        }
+                    }
+                }
+            }
+            start.countDown()
+            futures.forEach { it.get(1, TimeUnit.MINUTES) }
+        } finally {
+            executor.shutdown()
+            executor.awaitTermination(10, TimeUnit.SECONDS)
+        }
+        // none of the threads touched the shared configuration
+        expect("ROOT-2521314-0.2626611481") { KaribuConfig.windowName }
+        expect(true) { KaribuConfig.initDefaultRoute }
+        expect(false) { KaribuConfig.indexComponentLookups }
+    }
+}
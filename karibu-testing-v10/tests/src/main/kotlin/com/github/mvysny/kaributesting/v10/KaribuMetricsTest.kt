@@ -0,0 +1,80 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.github.mvysny.karibudsl.v10.button
+import com.github.mvysny.karibudsl.v10.verticalLayout
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.component.button.Button
+import com.vaadin.flow.component.grid.Grid
+import com.vaadin.flow.data.renderer.TextRenderer
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import kotlin.test.expect
+
+abstract class AbstractKaribuMetricsTests {
+    @BeforeEach fun enableMetrics() {
+        KaribuMetrics.enabled = true
+        KaribuMetrics.reset()
+    }
+    @AfterEach fun disableMetrics() {
+        MockVaadin.tearDown()
+        KaribuMetrics.enabled = false
+        KaribuMetrics.reset()
+    }
+
+    @Test fun `setup and tearDown`() {
+        MockVaadin.setup()
+        expect(1L) { KaribuMetrics.snapshot().count(KaribuMetric.SETUP) }
+        expect(true) { KaribuMetrics.snapshot().nanos(KaribuMetric.SETUP) > 0 }
+        MockVaadin.tearDown()
+        expect(1L) { KaribuMetrics.snapshot().count(KaribuMetric.TEAR_DOWN) }
+    }
+
+    @Test fun lookups() {
+        MockVaadin.setup()
+        UI.getCurrent().verticalLayout {
+            button("foo")
+            button("bar")
+        }
+        KaribuMetrics.reset()
+        _find<Button>()
+        _get<Button> { text = "foo" }
+        val metrics: KaribuMetricsSnapshot = KaribuMetrics.snapshot()
+        expect(2L) { metrics.count(KaribuMetric.LOOKUP) }
+        expect(2L) { metrics.count(KaribuMetric.CLIENT_ROUNDTRIP) }
+        expect(2L) { metrics.count(KaribuMetric.RUN_UI_QUEUE) }
+        // at least the UI, the VerticalLayout and two buttons; twice
+        expect(true) { metrics.count(KaribuMetric.LOOKUP_NODES_VISITED) >= 8 }
+        expect(3L) { metrics.count(KaribuMetric.LOOKUP_MATCHES) }
+        expect(0L) { metrics.count(KaribuMetric.GRID_FETCH) }
+    }
+
+    @Test fun `grid fetches and renderers`() {
+        MockVaadin.setup()
+        val grid = Grid<String>().apply {
+            addColumn(TextRenderer<String> { it })
+            setItems((0 until 10).map { "$it" })
+        }
+        KaribuMetrics.reset()
+        grid._getFormattedRow(3)
+        val metrics: KaribuMetricsSnapshot = KaribuMetrics.snapshot()
+        expect(true) { metrics.count(KaribuMetric.GRID_FETCH) > 0 }
+        expect(true) { metrics.count(KaribuMetric.GRID_ROWS_FETCHED) > 0 }
+        expect(1L) { metrics.count(KaribuMetric.RENDERER) }
+    }
+
+    @Test fun `nothing is recorded when disabled`() {
+        KaribuMetrics.enabled = false
+        MockVaadin.setup()
+        _find<Button>()
+        expect(true) { KaribuMetrics.snapshot().isEmpty }
+        expect("nothing recorded") { KaribuMetrics.snapshot().toString() }
+    }
+
+    @Test fun summary() {
+        MockVaadin.setup()
+        val metrics: KaribuMetricsSnapshot = KaribuMetrics.snapshot()
+        expect(true, metrics.toString()) { metrics.toString().startsWith("setup: 1x ") }
+        expect(2L) { (metrics + metrics).count(KaribuMetric.SETUP) }
+    }
+}
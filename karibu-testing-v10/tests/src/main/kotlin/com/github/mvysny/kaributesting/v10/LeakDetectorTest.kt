@@ -0,0 +1,85 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.vaadin.flow.component.UI
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import kotlin.test.expect
+
+abstract class AbstractLeakDetectorTests {
+    @BeforeEach fun fakeVaadin() {
+        LeakDetector.enabled = true
+        MockVaadin.setup()
+    }
+    @AfterEach fun tearDownVaadin() {
+        try {
+            MockVaadin.tearDown()
+        } finally {
+            leaked = null
+            LeakDetector.enabled = false
+            LeakDetector.findReferencePaths = true
+            LeakDetector.clear()
+        }
+    }
+
+    @Test fun `no leaks`() {
+        repeat(3) {
+            MockVaadin.tearDown()
+            MockVaadin.setup()
+        }
+        MockVaadin.tearDown()
+        LeakDetector.check()
+    }
+
+    @Test fun `a UI kept in a static field is reported by the next tearDown()`() {
+        LeakDetector.findReferencePaths = false
+        leaked = UI.getCurrent()
+        MockVaadin.tearDown()
+        MockVaadin.setup()
+        val e: AssertionError = expectThrows(AssertionError::class, "2 Vaadin instance(s) still reachable after MockVaadin.tearDown()") {
+            MockVaadin.tearDown()
+        }
+        expect(true, e.message) { e.message!!.contains("MockedUI (uiId 1), created at") }
+        expect(true, e.message) { e.message!!.contains("AbstractLeakDetectorTests.fakeVaadin") }
+        expect(false, e.message) { e.message!!.contains("reachable via") }
+
+        // every leak is reported just once
+        MockVaadin.setup()
+        MockVaadin.tearDown()
+    }
+
+    @Test fun `the report shows the path to the leaked UI`() {
+        leaked = UI.getCurrent()
+        MockVaadin.tearDown()
+        val e: AssertionError = expectThrows(AssertionError::class, "reachable via") {
+            LeakDetector.check()
+        }
+        expect(true, e.message) { e.message!!.contains("static field ${AbstractLeakDetectorTests::class.java.name}.leaked") }
+        MockVaadin.setup()
+    }
+
+    @Test fun `instances which are still in use are not reported`() {
+        leaked = UI.getCurrent()
+        // the UI of the current test is only checked by the next tearDown()
+        LeakDetector.check()
+    }
+
+    @Test fun `nothing is tracked while disabled`() {
+        MockVaadin.tearDown()
+        LeakDetector.enabled = false
+        MockVaadin.setup()
+        leaked = UI.getCurrent()
+        MockVaadin.tearDown()
+        MockVaadin.setup()
+        // only the UI created while the detector was enabled is checked; that one was collected.
+        LeakDetector.enabled = true
+        MockVaadin.tearDown()
+        LeakDetector.check()
+        MockVaadin.setup()
+    }
+
+    companion object {
+        @JvmStatic
+        var leaked: UI? = null
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.github.mvysny.karibudsl.v10.button
+import com.github.mvysny.karibudsl.v10.onClick
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.component.button.Button
+import com.vaadin.flow.server.VaadinService
+import com.vaadin.flow.server.VaadinSession
+import org.junit.jupiter.api.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.expect
+
+abstract class AbstractLoadDriverTests {
+    @Test fun `every session runs the scenario in its own session and UI`() {
+        val sessions: MutableSet<VaadinSession> = ConcurrentHashMap.newKeySet()
+        val uis: MutableSet<UI> = ConcurrentHashMap.newKeySet()
+        val services: MutableSet<VaadinService> = ConcurrentHashMap.newKeySet()
+        val indices: MutableSet<Int> = ConcurrentHashMap.newKeySet()
+        LoadDriver().use { driver ->
+            driver.sessions = 20
+            driver.measureHeap = false
+            driver.run { session ->
+                sessions.add(VaadinSession.getCurrent())
+                uis.add(UI.getCurrent())
+                services.add(VaadinService.getCurrent())
+                indices.add(session)
+                expect(true) { VaadinSession.getCurrent().hasLock() }
+            }
+        }
+        expect(20) { sessions.size }
+        expect(20) { uis.size }
+        expect(1) { services.size }
+        expect((0 until 20).toSet()) { indices }
+        // the calling thread is not affected
+        expect(null) { VaadinSession.getCurrent() }
+    }
+
+    @Test fun `scenario uses the lookup API`() {
+        val clicks = AtomicInteger()
+        LoadDriver().use { driver ->
+            driver.sessions = 10
+            driver.iterations = 3
+            driver.measureHeap = false
+            driver.run {
+                if (_find<Button>().isEmpty()) {
+                    UI.getCurrent().button("Save") { onClick { clicks.incrementAndGet() } }
+                }
+                _get<Button> { text = "Save" }._click()
+            }
+        }
+        expect(30) { clicks.get() }
+    }
+
+    @Test fun report() {
+        LoadDriver().use { driver ->
+            driver.sessions = 5
+            driver.iterations = 2
+            driver.measureHeap = false
+            val report: LoadReport = driver.run { Thread.sleep(1) }
+            expect(5) { report.sessions }
+            expect(10) { report.scenarioRuns }
+            expect(-1L) { report.heapPerSession }
+            expect(true) { report.latencyNanos(0.0) > 0 }
+            expect(true) { report.latencyNanos(50.0) <= report.latencyNanos(100.0) }
+            expect(true) { report.throughput > 0 }
+            expect(true, report.toString()) { report.toString().startsWith("5 sessions, 10 runs in ") }
+        }
+    }
+
+    @Test fun `heap is measured`() {
+        LoadDriver().use { driver ->
+            driver.sessions = 5
+            expect(true) { driver.run { }.heapPerSession >= 0 }
+        }
+    }
+
+    @Test fun metrics() {
+        KaribuMetrics.enabled = true
+        try {
+            LoadDriver().use { driver ->
+                driver.sessions = 4
+                driver.measureHeap = false
+                val report: LoadReport = driver.run { }
+                expect(4L) { report.metrics.count(KaribuMetric.SETUP) }
+                expect(4L) { report.metrics.count(KaribuMetric.TEAR_DOWN) }
+            }
+        } finally {
+            KaribuMetrics.enabled = false
+        }
+    }
+
+    @Test fun `a failing session fails the run`() {
+        LoadDriver().use { driver ->
+            driver.sessions = 10
+            driver.measureHeap = false
+            val ex: AssertionError = expectThrows(AssertionError::class, "2 of 10 sessions failed") {
+                driver.run { session -> if (session == 3 || session == 7) throw RuntimeException("failed $session") }
+            }
+            expect(1) { ex.suppressed.size }
+            // the driver is still usable
+            expect(10) { driver.run { }.sessions }
+        }
+    }
+
+    @Test fun `close() destroys the service`() {
+        var destroyed = 0
+        val driver = LoadDriver()
+        driver.measureHeap = false
+        driver.run { }
+        driver.run { if (it == 0) VaadinService.getCurrent().addServiceDestroyListener { destroyed++ } }
+        expect(0) { destroyed }
+        driver.close()
+        expect(1) { destroyed }
+        expectThrows(IllegalStateException::class, "is closed") { driver.run { } }
+    }
+}
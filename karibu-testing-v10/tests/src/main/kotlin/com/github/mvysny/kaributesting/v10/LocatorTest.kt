@@ -68,6 +68,26 @@ abstract class AbstractLocatorTest2 {
         }
     }
 
+    @Test fun `hidden ancestor hides deeply nested components`() {
+        lateinit var hidden: VerticalLayout
+        currentUI.verticalLayout {
+            button("visible")
+            hidden = verticalLayout {
+                verticalLayout {
+                    verticalLayout {
+                        button("nested")
+                        textField("field")
+                    }
+                }
+            }
+        }
+        expect(2) { _find<Button>().size }
+        hidden.isVisible = false
+        expectList("visible") { _find<Button>().map { it.text } }
+        _expectNone<TextField>()
+        expect(1) { _find<VerticalLayout>().size }
+    }
+
     @Test fun _dump() {
         currentUI.button("Hello!")
         val ps = InMemoryPrintStream()
@@ -290,6 +310,67 @@ abstract class AbstractLocatorTest {
         }
     }
 
+    @Nested inner class ComponentLookupErrorTests {
+        @AfterEach fun resetConfig() {
+            KaribuConfig.lookupFailureMaxDepth = 100
+            KaribuConfig.lookupFailureMaxNodes = 2000
+            prettyStringHook = { _, _ -> }
+        }
+
+        @Test fun `message is rendered lazily`() {
+            UI.getCurrent().button("foo")
+            var rendered = 0
+            prettyStringHook = { _, _ -> rendered++ }
+            val error = expectThrows<ComponentLookupError> { _get<TextField>() }
+            expect(true) { rendered > 0 }
+            rendered = 0
+            try {
+                _get<TextField>()
+            } catch (e: ComponentLookupError) {
+                // don't read the message
+            }
+            expect(0) { rendered }
+            expect(true, error.message) { error.message.contains("No visible TextField in MockedUI[] matching TextField") }
+        }
+
+        @Test fun `tree is capped by node count`() {
+            UI.getCurrent().verticalLayout {
+                repeat(50) { button("button $it") }
+            }
+            KaribuConfig.lookupFailureMaxNodes = 10
+            val message: String = expectThrows<ComponentLookupError> { _get<TextField>() }.message
+            expect(false, message) { message.contains("button 40") }
+            expect(true, message) { message.contains("more not shown") }
+        }
+
+        @Test fun `tree is capped by depth`() {
+            UI.getCurrent().verticalLayout {
+                verticalLayout { button("deep") }
+            }
+            KaribuConfig.lookupFailureMaxDepth = 1
+            val message: String = expectThrows<ComponentLookupError> { _get<TextField>() }.message
+            expect(false, message) { message.contains("deep") }
+            expect(true, message) { message.contains("… 1 children not shown") }
+        }
+
+        @Test fun `shows where the search root is`() {
+            lateinit var inner: VerticalLayout
+            UI.getCurrent().verticalLayout {
+                inner = verticalLayout { id_ = "inner" }
+            }
+            expectThrows<ComponentLookupError>("Searched in: MockedUI > VerticalLayout > VerticalLayout#inner") {
+                inner._get<TextField>()
+            }
+        }
+
+        @Test fun `lists at most 100 matches`() {
+            UI.getCurrent().verticalLayout {
+                repeat(150) { button("button $it") }
+            }
+            expectThrows<ComponentLookupError>(", … 50 more]") { _expectNone<Button>() }
+        }
+    }
+
     @Nested inner class `unmocked env`() {
         @BeforeEach fun unfakeEnv() { MockVaadin.tearDown(); KaribuConfig.testingLifecycleHook = TestingLifecycleHook.default }
         @Test fun `lookup functions should work in unmocked environment`() {
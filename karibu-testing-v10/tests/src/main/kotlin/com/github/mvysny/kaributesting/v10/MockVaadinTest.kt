@@ -17,9 +17,11 @@ import com.vaadin.flow.component.UI
 import com.vaadin.flow.component.button.Button
 import com.vaadin.flow.component.dialog.Dialog
 import com.vaadin.flow.component.html.Div
+import com.vaadin.flow.component.internal.PendingJavaScriptInvocation
 import com.vaadin.flow.component.notification.Notification
 import com.vaadin.flow.component.orderedlayout.VerticalLayout
 import com.vaadin.flow.component.page.ExtendedClientDetails
+import com.vaadin.flow.component.textfield.TextField
 import com.vaadin.flow.function.DeploymentConfiguration
 import com.vaadin.flow.router.*
 import com.vaadin.flow.server.*
@@ -805,6 +807,84 @@ abstract class AbstractMockVaadinTests() {
 
     @Nested inner class async : AbstractAsyncTests()
 
+    @Nested inner class batch {
+        @Test fun `the roundtrip is deferred until the batch ends`() {
+            var ran = 0
+            MockVaadin.batch {
+                UI.getCurrent().beforeClientResponse(UI.getCurrent()) { ran++ }
+                _get<UI> {}
+                MockVaadin.clientRoundtrip()
+                expect(0) { ran }
+            }
+            expect(1) { ran }
+        }
+
+        @Test fun `UI-access() tasks run once the batch ends`() {
+            val ran = mutableListOf<String>()
+            MockVaadin.batch {
+                UI.getCurrent().access { ran.add("first") }
+                _get<UI> {}
+                UI.getCurrent().access { ran.add("second") }
+                _get<UI> {}
+                expectList() { ran }
+            }
+            expectList("first", "second") { ran }
+        }
+
+        @Test fun `nested batches perform a single roundtrip`() {
+            var ran = 0
+            MockVaadin.batch {
+                MockVaadin.batch {
+                    UI.getCurrent().beforeClientResponse(UI.getCurrent()) { ran++ }
+                }
+                expect(0) { ran }
+                UI.getCurrent().beforeClientResponse(UI.getCurrent()) { ran++ }
+            }
+            expect(2) { ran }
+        }
+
+        @Test fun `returns the value of the block`() {
+            expect("foo") { MockVaadin.batch { "foo" } }
+        }
+
+        @Test fun `no roundtrip if the block throws`() {
+            var ran = 0
+            expectThrows(RuntimeException::class, "simulated") {
+                MockVaadin.batch {
+                    UI.getCurrent().beforeClientResponse(UI.getCurrent()) { ran++ }
+                    throw RuntimeException("simulated")
+                }
+            }
+            expect(0) { ran }
+            // the batch is over: the roundtrips are no longer deferred
+            MockVaadin.clientRoundtrip()
+            expect(1) { ran }
+        }
+
+        @Test fun `propagateExceptionToHandler is honored by the final roundtrip`() {
+            val errors = mutableListOf<Throwable>()
+            VaadinSession.getCurrent().errorHandler = ErrorHandler { errors.add(it.throwable) }
+            MockVaadin.batch {
+                UI.getCurrent().access { throw RuntimeException("simulated") }
+                MockVaadin.clientRoundtrip(propagateExceptionToHandler = true)
+                _get<UI> {}
+                expect(listOf<Throwable>()) { errors }
+            }
+            expect(1) { errors.size }
+            expect(true) { errors[0].toString().contains("simulated") }
+        }
+
+        @Test fun `form fill`() {
+            var saved: String? = null
+            UI.getCurrent().add(TextField("Name"), Button("Save") { saved = _get<TextField> { label = "Name" }.value })
+            MockVaadin.batch {
+                _get<TextField> { label = "Name" }._value = "John"
+                _get<Button> { text = "Save" }._click()
+            }
+            expect("John") { saved }
+        }
+    }
+
     @Nested inner class `init listener` {
         @BeforeEach fun setupWithInitListener() {
             MockVaadin.tearDown()
@@ -873,6 +953,58 @@ abstract class AbstractMockVaadinTests() {
         }
     }
 
+    @Nested inner class snapshot {
+        @Test fun `restore() brings back the session, the UI and the user`() {
+            UI.getCurrent().add(TextField("Name").apply { value = "Martin" })
+            VaadinSession.getCurrent().setAttribute("foo", "bar")
+            VaadinSession.getCurrent().session.setAttribute("http-foo", "http-bar")
+            MockVaadin.login("admin", listOf("admin"))
+            val ui: UI = UI.getCurrent()
+            val snapshot: SessionSnapshot = MockVaadin.snapshot()
+            MockVaadin.tearDown()
+
+            MockVaadin.restore(snapshot)
+            expect(true) { UI.getCurrent() !== ui }
+            expect(ui.uiId) { UI.getCurrent().uiId }
+            expect(VaadinSession.getCurrent()) { UI.getCurrent().session }
+            expect(true) { VaadinSession.getCurrent().hasLock() }
+            expect(true) { VaadinRequest.getCurrent() != null }
+            expect(true) { VaadinResponse.getCurrent() != null }
+            _expectOne<WelcomeView>()
+            expect("Martin") { _get<TextField> { label = "Name" }.value }
+            expect("bar") { VaadinSession.getCurrent().getAttribute("foo") }
+            expect("http-bar") { VaadinSession.getCurrent().session.getAttribute("http-foo") }
+            expect("admin") { VaadinRequest.getCurrent().userPrincipal.name }
+            expect(true) { VaadinRequest.getCurrent().isUserInRole("admin") }
+        }
+
+        @Test fun `every restore() produces a fresh copy`() {
+            UI.getCurrent().add(TextField("Name"))
+            val snapshot: SessionSnapshot = MockVaadin.snapshot()
+            MockVaadin.restore(snapshot)
+            _get<TextField> { label = "Name" }._value = "modified"
+            val ui: UI = UI.getCurrent()
+            MockVaadin.tearDown()
+
+            MockVaadin.restore(snapshot)
+            expect(true) { UI.getCurrent() !== ui }
+            expect("") { _get<TextField> { label = "Name" }.value }
+        }
+
+        @Test fun `the restored UI can be navigated`() {
+            MockVaadin.restore(MockVaadin.snapshot())
+            navigateTo<HelloWorldView>()
+            _expectOne<HelloWorldView>()
+        }
+
+        @Test fun `snapshot() fails without a session`() {
+            MockVaadin.tearDown()
+            expectThrows(IllegalStateException::class, "No VaadinSession") {
+                MockVaadin.snapshot()
+            }
+        }
+    }
+
     @Nested inner class `multiple threads` {
         // don't extract this into a testBatch method - references 'lateinit routes'
         @Test fun `UIs-Sessions not reused between threads`() {
@@ -979,6 +1111,140 @@ abstract class AbstractMockVaadinTests() {
         }
     }
 
+    @Nested inner class `servlet reuse` {
+        @BeforeEach fun enableReuse() {
+            MockVaadin.tearDown()
+            KaribuConfig.reuseServlet = true
+        }
+        @AfterEach fun disableReuse() {
+            MockVaadin.tearDown()
+            MockVaadin.destroyReusedServlets()
+            KaribuConfig.reuseServlet = false
+        }
+
+        @Test fun `service is reused, session and UI are not`() {
+            MockVaadin.setup(routes)
+            val service = VaadinService.getCurrent()
+            val session = VaadinSession.getCurrent()
+            val ui = UI.getCurrent()
+            MockVaadin.tearDown()
+            MockVaadin.setup(routes)
+            expect(true) { VaadinService.getCurrent() === service }
+            expect(true) { VaadinSession.getCurrent() !== session }
+            expect(true) { UI.getCurrent() !== ui }
+            _expectOne<WelcomeView>()
+        }
+
+        @Test fun `different routes get different service`() {
+            MockVaadin.setup(routes)
+            val service = VaadinService.getCurrent()
+            MockVaadin.tearDown()
+            MockVaadin.setup(Routes(mutableSetOf(HelloWorldView::class.java)))
+            expect(true) { VaadinService.getCurrent() !== service }
+            expect(false) { UI.getCurrent().internals.router.registry.getNavigationTarget("").isPresent }
+        }
+
+        @Test fun `equal routes share the service`() {
+            MockVaadin.setup(routes)
+            val service = VaadinService.getCurrent()
+            MockVaadin.tearDown()
+            MockVaadin.setup(routes.copy(routes = routes.routes.toMutableSet()))
+            expect(true) { VaadinService.getCurrent() === service }
+        }
+
+        @Test fun `tearDown() doesn't destroy the service`() {
+            MockVaadin.setup(routes)
+            var destroyed = 0
+            VaadinService.getCurrent().addServiceDestroyListener { destroyed++ }
+            MockVaadin.tearDown()
+            expect(0) { destroyed }
+            expect(null) { VaadinService.getCurrent() }
+            expect(null) { VaadinSession.getCurrent() }
+            MockVaadin.destroyReusedServlets()
+            expect(1) { destroyed }
+        }
+
+        @Test fun `uiFactory of the current setup() is used`() {
+            class MyUI : MockedUI()
+            MockVaadin.setup(routes)
+            MockVaadin.tearDown()
+            MockVaadin.setup(routes) { MyUI() }
+            expect<Class<*>>(MyUI::class.java) { UI.getCurrent().javaClass }
+        }
+
+        @Test fun `VaadinSession-close() re-creates the session with the current uiFactory`() {
+            class MyUI : MockedUI()
+            MockVaadin.setup(routes) { MyUI() }
+            val session = VaadinSession.getCurrent()
+            session.close()
+            expect(true) { VaadinSession.getCurrent() !== session }
+            expect<Class<*>>(MyUI::class.java) { UI.getCurrent().javaClass }
+        }
+    }
+
+    @Nested inner class `skipping clean roundtrips` {
+        private lateinit var hook: RoundtripCountingHook
+        @BeforeEach fun enable() {
+            KaribuConfig.skipCleanRoundtrips = true
+            hook = RoundtripCountingHook(TestingLifecycleHook.default)
+            KaribuConfig.testingLifecycleHook = hook
+            _expectOne<WelcomeView>()
+        }
+        @AfterEach fun disable() {
+            KaribuConfig.testingLifecycleHook = TestingLifecycleHook.default
+            KaribuConfig.skipCleanRoundtrips = false
+        }
+
+        @Test fun `roundtrip skipped when nothing changed`() {
+            val roundtrips = hook.roundtrips
+            _expectOne<WelcomeView>()
+            _expectNone<Button>()
+            expect(roundtrips) { hook.roundtrips }
+        }
+
+        @Test fun `explicit clientRoundtrip() is never skipped`() {
+            val roundtrips = hook.roundtrips
+            MockVaadin.clientRoundtrip()
+            expect(roundtrips + 1) { hook.roundtrips }
+        }
+
+        @Test fun `component changes`() {
+            val roundtrips = hook.roundtrips
+            UI.getCurrent().button("foo")
+            _expectOne<Button>()
+            expect(roundtrips + 1) { hook.roundtrips }
+        }
+
+        @Test fun `UI-access{} blocks are run`() {
+            var called = 0
+            UI.getCurrent().access { called++ }
+            _expectOne<WelcomeView>()
+            expect(1) { called }
+        }
+
+        @Test fun `beforeClientResponse blocks are run`() {
+            var called = 0
+            UI.getCurrent().beforeClientResponse(UI.getCurrent()) { called++ }
+            _expectOne<WelcomeView>()
+            expect(1) { called }
+        }
+
+        @Test fun `pending javascript invocations are handled`() {
+            UI.getCurrent().page.executeJs("foo()")
+            val roundtrips = hook.roundtrips
+            _expectOne<WelcomeView>()
+            expect(roundtrips + 1) { hook.roundtrips }
+        }
+
+        @Test fun `closed dialogs are cleaned up`() {
+            val dialog = Dialog()
+            dialog.open()
+            _expectOne<Dialog>()
+            dialog.close()
+            _expectNone<Dialog>()
+        }
+    }
+
     @Nested inner class VaadinServiceTests {
         @Test fun `Registering custom VaadinService is possible`() {
             open class MyMockService(servlet: VaadinServlet, deploymentConfiguration: DeploymentConfiguration) : VaadinServletService(servlet, deploymentConfiguration) {
@@ -1078,3 +1344,14 @@ private class ReloadCapture(
     val eventOrder: List<String>,
     val uiCountDuringNewInit: Int,
 )
+
+/**
+ * Counts [MockVaadin.clientRoundtrip] invocations: every roundtrip calls [handlePendingJavascriptInvocations].
+ */
+class RoundtripCountingHook(val delegate: TestingLifecycleHook) : TestingLifecycleHook by delegate {
+    var roundtrips: Int = 0
+    override fun handlePendingJavascriptInvocations(invocations: List<PendingJavaScriptInvocation>) {
+        roundtrips++
+        delegate.handlePendingJavascriptInvocations(invocations)
+    }
+}
@@ -54,6 +54,68 @@ abstract class AbstractPrettyPrintTreeTests {
                     └── WelcomeView[@theme='padding spacing']
                         └── Text[text='Welcome!']""".trimIndent()) { currentUI.toPrettyTree().trim() }
         }
+        @Test fun `nested siblings`() {
+            val div = Div().apply {
+                div { button("a"); button("b") }
+                button("c")
+            }
+            expect("""
+                └── Div[]
+                    ├── Div[]
+                    │   ├── Button[text='a']
+                    │   └── Button[text='b']
+                    └── Button[text='c']
+                """.trimIndent()) { div.toPrettyTree().trim() }
+        }
+        @Test fun `capped by node count`() {
+            val div = Div().apply {
+                repeat(10) { button("$it") }
+            }
+            expect("""
+                └── Div[]
+                    ├── Button[text='0']
+                    ├── Button[text='1']
+                    └── … 8 more not shown
+                """.trimIndent()) { div.toPrettyTree(100, 3).trim() }
+        }
+        @Test fun `capped by depth`() {
+            val div = Div().apply {
+                div { button("a") }
+            }
+            expect("""
+                └── Div[]
+                    └── Div[]
+                        └── … 1 children not shown
+                """.trimIndent()) { div.toPrettyTree(1, 100).trim() }
+        }
+    }
+
+    @Nested inner class printPrettyTree {
+        @Test fun `streams into an Appendable`() {
+            val div = Div().apply { text("Foo") }
+            val sb = StringBuilder()
+            div.printPrettyTree(sb)
+            expect("└── Div[text='Foo']\n    └── Text[text='Foo']\n") { sb.toString() }
+        }
+        @Test fun `PrettyPrintTree print(Appendable)`() {
+            val tree = PrettyPrintTree("root", mutableListOf(
+                PrettyPrintTree("a", mutableListOf(PrettyPrintTree("a1", mutableListOf()))),
+                PrettyPrintTree("b", mutableListOf())
+            ))
+            val sb = StringBuilder()
+            tree.print(sb)
+            expect("└── root\n    ├── a\n    │   └── a1\n    └── b\n") { sb.toString() }
+            expect(sb.toString()) { tree.print() }
+        }
+        @Test fun `PrettyPrintTree ofVaadin()`() {
+            val div = Div().apply {
+                div { button("a") }
+                button("b")
+            }
+            expect("└── Div[]\n    ├── Div[]\n    │   └── Button[text='a']\n    └── Button[text='b']\n") {
+                PrettyPrintTree.ofVaadin(div).print()
+            }
+        }
     }
 
     @Nested inner class toPrettyString {
@@ -0,0 +1,191 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.component.html.Span
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Nested
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.test.expect
+
+abstract class AbstractPushSimulatorTests {
+    @BeforeEach fun fakeVaadin() { MockVaadin.setup() }
+    @AfterEach fun tearDownVaadin() { MockVaadin.tearDown() }
+
+    /**
+     * Calls [UI.access] from a background thread, for every item of [items], in order.
+     */
+    private fun accessInBackground(ui: UI, vararg items: String, action: (String) -> Unit) {
+        Thread.ofVirtual().start {
+            items.forEach { item -> ui.access { action(item) } }
+        }.join()
+    }
+
+    @Nested inner class deterministic {
+        @Test fun `drain runs the tasks in the order they were queued`() {
+            val ui: UI = UI.getCurrent()
+            val log = mutableListOf<String>()
+            PushSimulator().use { push ->
+                accessInBackground(ui, "a", "b", "c") { log.add(it) }
+                push.awaitQueueDepth(3)
+                expect(3) { push.queueDepth }
+                expect(listOf<String>()) { log }
+
+                expect(1) { push.drain(1) }
+                expect(listOf("a")) { log }
+                expect(2) { push.queueDepth }
+
+                expect(2) { push.drain() }
+                expect(listOf("a", "b", "c")) { log }
+                expect(0) { push.queueDepth }
+
+                val stats: PushStats = push.stats
+                expect(3L) { stats.queued }
+                expect(3) { stats.run }
+                expect(2L) { stats.batches }
+                expect(3) { stats.maxQueueDepth }
+                expect(true, stats.toString()) { stats.toString().startsWith("3 queued, 3 run in 2 batches, queue depth 0 (max 3)") }
+            }
+        }
+
+        @Test fun `the UI is updated`() {
+            val span = Span("0")
+            UI.getCurrent().add(span)
+            PushSimulator().use { push ->
+                accessInBackground(UI.getCurrent(), "1", "2") { span.text = it }
+                push.awaitQueueDepth(2)
+                push.drain(1)
+                _expectOne<Span> { text = "1" }
+                push.drain()
+                _expectOne<Span> { text = "2" }
+            }
+        }
+
+        @Test fun `runUIQueue() runs the tasks as well`() {
+            val log = mutableListOf<String>()
+            PushSimulator().use { push ->
+                accessInBackground(UI.getCurrent(), "a") { log.add(it) }
+                MockVaadin.runUIQueue()
+                expect(listOf("a")) { log }
+                expect(1) { push.stats.run }
+            }
+        }
+
+        @Test fun `failing task`() {
+            PushSimulator().use { push ->
+                accessInBackground(UI.getCurrent(), "a") { throw RuntimeException("simulated") }
+                push.awaitQueueDepth(1)
+                expectThrows(ExecutionException::class, "simulated") {
+                    push.drain()
+                }
+            }
+        }
+
+        @Test fun `awaitQueueDepth() times out`() {
+            PushSimulator().use { push ->
+                expectThrows(AssertionError::class, "Expected at least 1 tasks in the queue within PT0.01S but there are 0") {
+                    push.awaitQueueDepth(1, Duration.ofMillis(10))
+                }
+            }
+        }
+
+        @Test fun resetStats() {
+            PushSimulator().use { push ->
+                accessInBackground(UI.getCurrent(), "a") {}
+                push.drain()
+                push.resetStats()
+                expect(0L) { push.stats.queued }
+                expect(0) { push.stats.run }
+                expect(0L) { push.stats.waitNanos(99.0) }
+            }
+        }
+    }
+
+    @Nested inner class concurrent {
+        @Test fun `tasks run in the UI thread`() {
+            val ui: UI = UI.getCurrent()
+            val threads = mutableSetOf<String>()
+            var counter = 0
+            PushSimulator().use { push ->
+                push.runConcurrently(Duration.ofMillis(5)) {
+                    val executor = Executors.newFixedThreadPool(4)
+                    repeat(200) { executor.execute { ui.access { counter++; threads.add(Thread.currentThread().name) } } }
+                    executor.shutdown()
+                    check(executor.awaitTermination(10, TimeUnit.SECONDS))
+                }
+                expect(200) { counter }
+                expect(setOf("karibu-push-ui")) { threads }
+                val stats: PushStats = push.stats
+                expect(200L) { stats.queued }
+                expect(200) { stats.run }
+                expect(0) { stats.queueDepth }
+                expect(true, stats.toString()) { stats.batches in 1L..200L }
+                // the first task of every batch waits for the latency
+                expect(true, stats.toString()) { stats.waitNanos(100.0) >= TimeUnit.MILLISECONDS.toNanos(5) }
+            }
+            // the test thread holds the lock again
+            expect(true) { currentSession.hasLock() }
+        }
+
+        @Test fun `background threads don't run the tasks while the lock is handed over`() {
+            val ui: UI = UI.getCurrent()
+            val threads: MutableSet<String> = ConcurrentHashMap.newKeySet()
+            val stopped = AtomicBoolean()
+            // keeps calling UI.access(), also while the lock passes between the test thread and the UI thread
+            val producer: Thread = Thread.ofPlatform().name("producer").start {
+                while (!stopped.get()) {
+                    ui.access { threads.add(Thread.currentThread().name) }
+                }
+            }
+            try {
+                PushSimulator().use { push ->
+                    repeat(3) { push.runConcurrently { Thread.sleep(20) } }
+                }
+            } finally {
+                stopped.set(true)
+                producer.join()
+            }
+            MockVaadin.runUIQueue()
+            expect(true, threads.toString()) { threads.isNotEmpty() }
+            expect(true, threads.toString()) { (threads - setOf("karibu-push-ui", Thread.currentThread().name)).isEmpty() }
+        }
+
+        @Test fun `failures are rethrown`() {
+            val ui: UI = UI.getCurrent()
+            PushSimulator().use { push ->
+                expectThrows(ExecutionException::class, "simulated") {
+                    push.runConcurrently {
+                        Thread.ofVirtual().start { ui.access { throw RuntimeException("simulated") } }.join()
+                    }
+                }
+            }
+            expect(true) { currentSession.hasLock() }
+        }
+    }
+
+    @Test fun `close() restores the queue`() {
+        val log = mutableListOf<String>()
+        accessInBackground(UI.getCurrent(), "before") { log.add(it) }
+        PushSimulator().use { push ->
+            // the tasks queued before keep their place
+            expect(1) { push.queueDepth }
+            accessInBackground(UI.getCurrent(), "during") { log.add(it) }
+        }
+        accessInBackground(UI.getCurrent(), "after") { log.add(it) }
+        MockVaadin.runUIQueue()
+        expect(listOf("before", "during", "after")) { log }
+    }
+
+    @Test fun `fails without a session`() {
+        MockVaadin.tearDown()
+        expectThrows(IllegalStateException::class, "No VaadinSession") {
+            PushSimulator()
+        }
+    }
+}
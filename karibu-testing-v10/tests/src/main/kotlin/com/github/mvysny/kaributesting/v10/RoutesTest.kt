@@ -9,8 +9,12 @@ import com.vaadin.flow.router.NotFoundException
 import com.vaadin.flow.server.VaadinContext
 import com.vaadin.flow.server.startup.ApplicationRouteRegistry
 import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Nested
 import org.junit.jupiter.api.Test
 import test.app.MyRouteNotFoundError
+import java.io.File
+import kotlin.io.path.createTempDirectory
 import kotlin.test.expect
 
 val allViews: Set<Class<out Component>> = setOf<Class<out Component>>(
@@ -39,6 +43,69 @@ abstract class AbstractRoutesTests {
         }
     }
 
+    @Test fun `cached discovery produces the same results`() {
+        Routes.clearDiscoveryCache()
+        val scanned: Routes = Routes().autoDiscoverViews()
+        val cached: Routes = Routes().autoDiscoverViews()
+        expect(scanned.routes.toList()) { cached.routes.toList() }
+        expect(scanned.errorRoutes.toList()) { cached.errorRoutes.toList() }
+    }
+
+    @Nested inner class `route index` {
+        private lateinit var indexDirectory: File
+        @BeforeEach fun createIndexDirectory() {
+            indexDirectory = createTempDirectory("karibu-routes").toFile()
+            KaribuConfig.routeIndexDirectory = indexDirectory
+            Routes.clearDiscoveryCache()
+        }
+        @AfterEach fun deleteIndexDirectory() {
+            KaribuConfig.routeIndexDirectory = null
+            Routes.clearDiscoveryCache()
+            indexDirectory.deleteRecursively()
+        }
+
+        private val indexFile: File get() = File(indexDirectory, "routes-com.github.properties")
+
+        @Test fun `index is written and produces the same results`() {
+            val scanned: Routes = Routes().autoDiscoverViews("com.github")
+            expect(true) { indexFile.isFile }
+            Routes.clearDiscoveryCache()
+            val indexed: Routes = Routes().autoDiscoverViews("com.github")
+            expect(allViews) { indexed.routes.toSet() }
+            expect(allErrorRoutes) { indexed.errorRoutes.toSet() }
+            expect(scanned) { indexed }
+        }
+
+        @Test fun `up-to-date index skips the scan`() {
+            Routes().autoDiscoverViews("com.github")
+            Routes.clearDiscoveryCache()
+            // the classpath didn't change: the next discovery trusts the index, even if someone tampered with it
+            indexFile.writeText(indexFile.readText().replace(Regex("routes=.*"), "routes=${HelloWorldView::class.java.name}"))
+            expect(setOf(HelloWorldView::class.java)) { Routes().autoDiscoverViews("com.github").routes }
+        }
+
+        @Test fun `index with a different fingerprint is ignored`() {
+            Routes().autoDiscoverViews("com.github")
+            Routes.clearDiscoveryCache()
+            indexFile.writeText(indexFile.readText()
+                .replace(Regex("fingerprint=.*"), "fingerprint=foo")
+                .replace(Regex("routes=.*"), "routes=${HelloWorldView::class.java.name}"))
+            expect(allViews) { Routes().autoDiscoverViews("com.github").routes }
+            expect(false) { indexFile.readText().contains("fingerprint=foo") }
+        }
+
+        @Test fun `corrupted index is ignored`() {
+            indexFile.writeText("fingerprint=\\uZZZZ")
+            expect(allViews) { Routes().autoDiscoverViews("com.github").routes }
+        }
+
+        @Test fun `whole classpath index doesn't collide with a package named all`() {
+            expect(setOf<Class<out Component>>()) { Routes().autoDiscoverViews("all").routes }
+            expect(true) { Routes().autoDiscoverViews().routes.containsAll(allViews) }
+            expect(setOf("routes.properties", "routes-all.properties")) { indexDirectory.list()!!.toSet() }
+        }
+    }
+
     // https://github.com/mvysny/karibu-testing/issues/50
     @Test fun `app-specific NotFoundException handler removes MockRouteNotFoundError`() {
         val routes: Routes = Routes().autoDiscoverViews()
@@ -150,4 +150,41 @@ abstract class AbstractSearchSpecTests() {
         expect(true) { spec.toPredicate()(Button()) }
         expect(false) { spec.toPredicate()(NativeLabel()) }
     }
+
+    @Test fun `cheap rules are evaluated first`() {
+        val hook = CountingLabelHook(TestingLifecycleHook.default)
+        KaribuConfig.testingLifecycleHook = hook
+        try {
+            var predicateCalls = 0
+            val spec = SearchSpec(TextField::class.java, label = "foo", id = "bar").apply {
+                predicates.add(Predicate { predicateCalls++; true })
+            }
+            val predicate = spec.toPredicate()
+            expect(false) { predicate(Button().apply { setId("bar") }) }
+            expect(false) { predicate(TextField("foo").apply { setId("baz") }) }
+            expect(0) { hook.getLabelCalls }
+            expect(0) { predicateCalls }
+            expect(true) { predicate(TextField("foo").apply { setId("bar") }) }
+            expect(1) { hook.getLabelCalls }
+            expect(1) { predicateCalls }
+        } finally {
+            KaribuConfig.testingLifecycleHook = TestingLifecycleHook.default
+        }
+    }
+
+    @Test fun `modifying spec doesn't affect the predicate`() {
+        val spec = SearchSpec(Component::class.java, classes = "foo")
+        val predicate = spec.toPredicate()
+        spec.classes = "bar"
+        expect(true) { predicate(Button().apply { addClassName("foo") }) }
+        expect(false) { predicate(Button().apply { addClassName("bar") }) }
+    }
+}
+
+private class CountingLabelHook(val delegate: TestingLifecycleHook) : TestingLifecycleHook by delegate {
+    var getLabelCalls: Int = 0
+    override fun getLabel(component: Component): String? {
+        getLabelCalls++
+        return delegate.getLabel(component)
+    }
 }
@@ -0,0 +1,69 @@
+package com.github.mvysny.kaributesting.v10
+
+import com.vaadin.flow.component.UI
+import com.vaadin.flow.component.button.Button
+import com.vaadin.flow.component.grid.Grid
+import com.vaadin.flow.component.textfield.TextField
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import kotlin.test.expect
+
+abstract class AbstractSessionFootprintTests {
+    @BeforeEach fun fakeVaadin() { MockVaadin.setup() }
+    @AfterEach fun tearDownVaadin() { MockVaadin.tearDown() }
+
+    @Test fun measure() {
+        UI.getCurrent().add(Button("Click me"), TextField("Name"))
+        val footprint: SessionFootprint = SessionFootprint.measure()
+        expect(true, footprint.toString()) { footprint.heapSize > 0 }
+        expect(true, footprint.toString()) { footprint.serializedSize > 0 }
+        expect(true, footprint.toString()) { footprint.sessionSize > 0 }
+        expect(true, footprint.toString()) { footprint.byComponentClass.getValue(Button::class.java) > 0 }
+        expect(true, footprint.toString()) { footprint.byComponentClass.getValue(TextField::class.java) > 0 }
+        expect(footprint.heapSize) { footprint.byComponentClass.values.sum() + footprint.sessionSize }
+        expect(true, footprint.toString()) { footprint.toString().startsWith("heap: ") }
+        expect(true, footprint.toString()) { footprint.toString().contains("Button: ") }
+    }
+
+    @Test fun `the Grid items are attributed to the Grid`() {
+        val grid = Grid<String>()
+        grid.addColumn { it }
+        UI.getCurrent().add(grid)
+        val empty: Long = SessionFootprint.measure().byComponentClass.getValue(Grid::class.java)
+        grid.setItems((0 until 1000).map { "Item #$it" })
+        val footprint: SessionFootprint = SessionFootprint.measure()
+        // every String takes at least 24 bytes
+        expect(true, footprint.toString()) { footprint.byComponentClass.getValue(Grid::class.java) > empty + 1000 * 24 }
+    }
+
+    @Test fun expectSessionSizeBelow() {
+        expectSessionSizeBelow(100L * 1024 * 1024)
+        expectThrows(AssertionError::class, "Expected the session to take less than 1 bytes of heap but it takes") {
+            expectSessionSizeBelow(1)
+        }
+    }
+
+    @Test fun `measure() fails without a session`() {
+        MockVaadin.tearDown()
+        expectThrows(IllegalStateException::class, "No VaadinSession") {
+            SessionFootprint.measure()
+        }
+    }
+
+    @Test fun `tearDown() measures the session if enabled`() {
+        KaribuConfig.measureSessionFootprint = true
+        try {
+            UI.getCurrent().add(Button("Click me"))
+            MockVaadin.tearDown()
+            val footprint: SessionFootprint = SessionFootprint.lastMeasured!!
+            expect(true, footprint.toString()) { footprint.byComponentClass.containsKey(Button::class.java) }
+
+            // tearDown() without a session forgets the last footprint
+            MockVaadin.tearDown()
+            expect(null) { SessionFootprint.lastMeasured }
+        } finally {
+            KaribuConfig.measureSessionFootprint = false
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package com.github.mvysny.kaributesting.v10
 
 import com.github.mvysny.kaributools.addColumnFor
+import com.vaadin.flow.component.UI
 import com.vaadin.flow.component.treegrid.TreeGrid
 import com.vaadin.flow.data.provider.hierarchy.AbstractBackEndHierarchicalDataProvider
 import com.vaadin.flow.data.provider.hierarchy.HierarchicalQuery
 import com.vaadin.flow.data.provider.hierarchy.TreeData
 import com.vaadin.flow.data.provider.hierarchy.TreeDataProvider
 import com.vaadin.flow.data.renderer.NativeButtonRenderer
+import com.vaadin.flow.function.SerializablePredicate
+import com.vaadin.flow.server.VaadinSession
 import org.junit.jupiter.api.AfterEach
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Nested
@@ -131,6 +134,92 @@ abstract class AbstractTreeGridTests {
                 grid.expectRow(14, "name 0 1 1 1", "3")
             }
         }
+        @Nested inner class indexTreeGridRows {
+            @BeforeEach fun enable() { KaribuConfig.indexTreeGridRows = true }
+            @AfterEach fun disable() { KaribuConfig.indexTreeGridRows = false }
+
+            private fun degenerateTree(dp: TreeDataProvider<Int>): TreeGrid<Int> = TreeGrid<Int>().apply {
+                addHierarchyColumn { it.toString() }
+                setDataProvider(dp)
+                _expandAll()
+            }
+
+            @Test fun `rows are walked only once`() {
+                val dp = CountingTreeDataProvider(listOf(0)) { if (it < 9) listOf(it + 1) else listOf() }
+                val grid = degenerateTree(dp)
+                val before = dp.fetches
+                for (i in 0..9) {
+                    expect(i) { grid._get(i) }
+                }
+                val walked = dp.fetches
+                expect(true) { walked > before }
+                for (i in 0..9) {
+                    expect(i) { grid._get(i) }
+                }
+                expect(10) { grid._size() }
+                expect(null) { grid._getOrNull(10) }
+                expect(walked) { dp.fetches }
+            }
+
+            @Test fun `rows are walked lazily`() {
+                val dp = CountingTreeDataProvider(listOf(0)) { if (it < 9) listOf(it + 1) else listOf() }
+                val grid = degenerateTree(dp)
+                expect(0) { grid._get(0) }
+                val fetches = dp.fetches
+                expect(10) { grid._size() }
+                expect(true) { dp.fetches > fetches }
+            }
+
+            @Test fun `collapse and expand drop the index`() {
+                val grid = degenerateTree(CountingTreeDataProvider(listOf(0)) { if (it < 9) listOf(it + 1) else listOf() })
+                expect(10) { grid._size() }
+                grid.collapse(4)
+                expect(5) { grid._size() }
+                expect(null) { grid._getOrNull(5) }
+                grid.expand(4)
+                expect(10) { grid._size() }
+                expect(5) { grid._get(5) }
+            }
+
+            @Test fun `refreshAll() drops the index`() {
+                val dp = CountingTreeDataProvider(listOf(0, 1, 2))
+                val grid = degenerateTree(dp)
+                expect(3) { grid._size() }
+                dp.treeData.addItem(null, 3)
+                // TreeData modified without a refresh: the TreeGrid keeps showing the old rows
+                expect(3) { grid._size() }
+                dp.refreshAll()
+                expect(4) { grid._size() }
+                expect(3) { grid._get(3) }
+            }
+
+            @Test fun `filter drops the index`() {
+                val dp = CountingTreeDataProvider((0 until 10).toList())
+                val grid = degenerateTree(dp)
+                expect(10) { grid._size() }
+                dp.setFilter { it % 2 == 0 }
+                expect(5) { grid._size() }
+                expect(2) { grid._get(1) }
+            }
+
+            @Test fun `changing the data provider drops the index`() {
+                val grid = degenerateTree(CountingTreeDataProvider((0 until 10).toList()))
+                expect(10) { grid._size() }
+                grid.setDataProvider(treedp((0 until 3).toList()))
+                expect(3) { grid._size() }
+            }
+
+            @Test fun `indexed TreeGrid is serializable`() {
+                val grid = degenerateTree(CountingTreeDataProvider(listOf(0)) { if (it < 9) listOf(it + 1) else listOf() })
+                UI.getCurrent().add(grid)
+                expect(10) { grid._size() }
+                UI.getCurrent().cloneBySerialization()
+                VaadinSession.getCurrent().cloneBySerialization()
+                MockVaadin.snapshot()
+                grid.collapse(4)
+                expect(5) { grid._size() }
+            }
+        }
         @Test fun _dump() {
             val roots = listOf(TestPerson("name 0", 0))
             val grid = TreeGrid<TestPerson>().apply {
@@ -211,3 +300,16 @@ abstract class AbstractTreeGridTests {
 
 private fun <T> treedp(roots: List<T>, childProvider: (T) -> List<T> = { listOf() }): TreeDataProvider<T> =
         TreeDataProvider(TreeData<T>().addItems(roots, childProvider))
+
+/**
+ * Counts the [fetchChildren] calls.
+ */
+private class CountingTreeDataProvider<T>(roots: List<T>, childProvider: (T) -> List<T> = { listOf() }) :
+    TreeDataProvider<T>(TreeData<T>().addItems(roots, childProvider)) {
+    var fetches: Int = 0
+
+    override fun fetchChildren(query: HierarchicalQuery<T, SerializablePredicate<T>>): Stream<T> {
+        fetches++
+        return super.fetchChildren(query)
+    }
+}
@@ -7,6 +7,10 @@ import com.vaadin.flow.component.html.Span
 import com.vaadin.flow.component.upload.Receiver
 import com.vaadin.flow.component.upload.Upload
 import com.vaadin.flow.component.upload.receivers.MemoryBuffer
+import com.vaadin.flow.server.VaadinRequest
+import com.vaadin.flow.server.VaadinResponse
+import com.vaadin.flow.server.VaadinService
+import com.vaadin.flow.server.VaadinSession
 import com.vaadin.flow.server.communication.TransferUtil
 import com.vaadin.flow.server.streams.*
 import org.junit.jupiter.api.AfterEach
@@ -14,9 +18,20 @@ import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Nested
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.assertThrows
+import org.junit.jupiter.api.io.TempDir
 import java.io.ByteArrayOutputStream
 import java.io.IOException
+import java.io.InputStream
 import java.io.OutputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.test.expect
 import kotlin.test.fail
 
@@ -154,6 +169,273 @@ abstract class AbstractUploadTests() {
         expect(true) { finishedCalled }
     }
 
+    @Nested inner class streaming {
+        @Test fun `receiver gets the content in chunks, with progress events`() {
+            val upload = Upload()
+            val memoryBuffer = MemoryBuffer()
+            upload.receiver = memoryBuffer
+            val progress = mutableListOf<Long>()
+            upload.addProgressListener {
+                expect(10L) { it.contentLength }
+                expect("hello.txt") { it.fileName }
+                progress.add(it.readBytes)
+            }
+            var succeededLength = -1L
+            upload.addSucceededListener { succeededLength = it.contentLength }
+            upload._upload("hello.txt", "text/plain", 10, "0123456789".byteInputStream(), chunkSize = 4)
+            expect("0123456789") { memoryBuffer.inputStream.reader().readText() }
+            expect(listOf(4L, 8L, 10L)) { progress }
+            expect(10L) { succeededLength }
+        }
+
+        @Test fun `content is only read when the receiver asks for it`() {
+            val upload = Upload()
+            val content = GeneratedInputStream(1000)
+            var written = 0L
+            upload.receiver = Receiver { _, _ ->
+                object : OutputStream() {
+                    override fun write(b: Int) { write(byteArrayOf(b.toByte()), 0, 1) }
+                    override fun write(b: ByteArray, off: Int, len: Int) {
+                        expect(true) { len <= 100 }
+                        written += len
+                        // nothing is read ahead
+                        expect(written) { content.position }
+                    }
+                }
+            }
+            upload._upload("data.bin", content = content, chunkSize = 100)
+            expect(1000L) { written }
+        }
+
+        @Test fun `large upload`() {
+            val size = 50L * 1024 * 1024
+            val upload = Upload()
+            val out = CountingOutputStream()
+            upload.receiver = Receiver { _, _ -> out }
+            var progressEvents = 0
+            upload.addProgressListener { progressEvents++ }
+            upload._upload("data.bin", "application/octet-stream", size, GeneratedInputStream(size))
+            expect(size) { out.count }
+            expect((size / (64 * 1024)).toInt()) { progressEvents }
+        }
+
+        @Test fun `from Path`(@TempDir tempDir: Path) {
+            val file: Path = tempDir.resolve("hello.txt")
+            Files.writeString(file, "Hello world!")
+            val upload = Upload()
+            val memoryBuffer = MemoryBuffer()
+            upload.receiver = memoryBuffer
+            upload._upload(file, chunkSize = 5)
+            expect("Hello world!") { memoryBuffer.inputStream.reader().readText() }
+            expect("hello.txt") { memoryBuffer.fileName }
+            expect("text/plain") { memoryBuffer.fileData.mimeType }
+        }
+
+        @Test fun `failing receiver`() {
+            val upload = Upload()
+            upload.receiver = Receiver { _, _ -> BrokenOutputStream() }
+            var failedLength = -1L
+            upload.addFailedListener { failedLength = it.contentLength }
+            expectThrows(IOException::class) {
+                upload._upload("hello.txt", content = "Hello world!".byteInputStream(), chunkSize = 5)
+            }
+            expect(5L) { failedLength }
+        }
+
+        @Test fun `UploadHandler reads the content in chunks`() {
+            val upload = Upload()
+            UI.getCurrent().add(upload)
+            val reads = mutableListOf<Int>()
+            var fileSize = 0L
+            upload.setUploadHandler(object : UploadHandler {
+                override fun handleUploadRequest(event: UploadEvent) {
+                    fileSize = event.fileSize
+                    val buffer = ByteArray(1000)
+                    event.inputStream.use { input ->
+                        while (true) {
+                            val read: Int = input.read(buffer)
+                            if (read < 0) break
+                            reads.add(read)
+                        }
+                    }
+                }
+            })
+            upload._upload("data.bin", contentLength = 250, content = GeneratedInputStream(250), chunkSize = 100)
+            expect(listOf(100, 100, 50)) { reads }
+            expect(250L) { fileSize }
+        }
+
+        @Test fun `UploadHandler with progress monitoring`() {
+            val upload = Upload()
+            UI.getCurrent().add(upload)
+            val tp = TestTransferProgressListener()
+            var uploaded: String? = null
+            upload.setUploadHandler(UploadHandler.inMemory({ metadata, data ->
+                expect(12L) { metadata.contentLength }
+                uploaded = data.toString(Charsets.UTF_8)
+            }, tp))
+            upload._upload("hello.txt", "text/plain", 12, "Hello world!".byteInputStream(), 5)
+            expect("Hello world!") { uploaded }
+            expect(true) { tp.started }
+            expect(12L) { tp.completedBytes }
+            expect(null) { tp.error }
+        }
+    }
+
+    @Nested inner class concurrently {
+        private fun files(count: Int): List<UploadFile> = (0 until count).map { UploadFile("file$it.txt", "Hello #$it".toByteArray()) }
+
+        @Test fun `files are handled concurrently`() {
+            val upload = Upload()
+            UI.getCurrent().add(upload)
+            val inFlight = CountDownLatch(5)
+            val uploaded: MutableMap<String, String> = ConcurrentHashMap()
+            upload.setUploadHandler(object : UploadHandler {
+                override fun handleUploadRequest(event: UploadEvent) {
+                    // passes only if all five requests are being handled at the same time
+                    inFlight.countDown()
+                    check(inFlight.await(10, TimeUnit.SECONDS)) { "the files were not uploaded concurrently" }
+                    uploaded[event.fileName] = event.inputStream.readAllBytes().toString(Charsets.UTF_8)
+                }
+            })
+            upload._uploadConcurrently(files(5))
+            expect((0 until 5).associate { "file$it.txt" to "Hello #$it" }) { uploaded }
+        }
+
+        @Test fun `AllFinishedEvent is fired once, after all files`() {
+            val upload = Upload()
+            UI.getCurrent().add(upload)
+            val completed = AtomicInteger()
+            val allFinished = mutableListOf<Int>()
+            upload.addAllFinishedListener { allFinished.add(completed.get()) }
+            upload.setUploadHandler(object : UploadHandler {
+                override fun handleUploadRequest(event: UploadEvent) {
+                    event.inputStream.readAllBytes()
+                    completed.incrementAndGet()
+                }
+            })
+            upload._uploadConcurrently(files(10))
+            expect(listOf(10)) { allFinished }
+        }
+
+        @Test fun `handlers compete for the session lock`() {
+            val upload = Upload()
+            val label = Span("0")
+            UI.getCurrent().add(upload, label)
+            var counter = 0  // deliberately not thread-safe: guarded by the session lock
+            upload.setUploadHandler(object : UploadHandler {
+                override fun handleUploadRequest(event: UploadEvent) {
+                    event.inputStream.readAllBytes()
+                    event.ui.accessSynchronously {
+                        counter++
+                        label.text = counter.toString()
+                    }
+                }
+            })
+            upload._uploadConcurrently(files(20))
+            expect(20) { counter }
+            expect("20") { label.text }
+        }
+
+        @Test fun `UI access from the handlers`() {
+            val upload = Upload()
+            UI.getCurrent().add(upload)
+            val uploaded = mutableListOf<String>()
+            upload.setUploadHandler(UploadHandler.inMemory { metadata, data ->
+                uploaded.add(metadata.fileName + ": " + data.toString(Charsets.UTF_8))
+            })
+            upload._uploadConcurrently(files(3))
+            expect(listOf("file0.txt: Hello #0", "file1.txt: Hello #1", "file2.txt: Hello #2")) { uploaded.sorted() }
+        }
+
+        @Test fun `custom executor`() {
+            val upload = Upload()
+            UI.getCurrent().add(upload)
+            val threads: MutableSet<String> = ConcurrentHashMap.newKeySet()
+            upload.setUploadHandler(object : UploadHandler {
+                override fun handleUploadRequest(event: UploadEvent) {
+                    event.inputStream.readAllBytes()
+                    threads.add(Thread.currentThread().name)
+                }
+            })
+            val executor = Executors.newFixedThreadPool(2) { Thread(it, "upload-worker") }
+            try {
+                upload._uploadConcurrently(files(10), executor)
+            } finally {
+                executor.shutdown()
+            }
+            expect(setOf("upload-worker")) { threads }
+        }
+
+        @Test fun `Vaadin instances are current in the request threads`() {
+            val upload = Upload()
+            UI.getCurrent().add(upload)
+            val session: VaadinSession = VaadinSession.getCurrent()
+            val failures: MutableList<String> = Collections.synchronizedList(mutableListOf())
+            upload.setUploadHandler(object : UploadHandler {
+                override fun handleUploadRequest(event: UploadEvent) {
+                    event.inputStream.readAllBytes()
+                    if (VaadinSession.getCurrent() !== session) failures.add("session")
+                    if (VaadinService.getCurrent() !== session.service) failures.add("service")
+                    if (VaadinRequest.getCurrent() !== event.request) failures.add("request")
+                    if (VaadinResponse.getCurrent() !== event.response) failures.add("response")
+                }
+            })
+            upload._uploadConcurrently(files(3))
+            expect(listOf<String>()) { failures }
+            // the test thread keeps its instances
+            expect(session) { VaadinSession.getCurrent() }
+        }
+
+        @Test fun `executor running the requests in the calling thread`() {
+            val upload = Upload()
+            UI.getCurrent().add(upload)
+            val testThread: Thread = Thread.currentThread()
+            val uploaded = mutableListOf<String>()
+            upload.setUploadHandler(object : UploadHandler {
+                override fun handleUploadRequest(event: UploadEvent) {
+                    expect(testThread) { Thread.currentThread() }
+                    val content: String = event.inputStream.readAllBytes().toString(Charsets.UTF_8)
+                    event.ui.accessSynchronously { uploaded.add(content) }
+                }
+            })
+            upload._uploadConcurrently(files(3), Executor { it.run() })
+            expect(listOf("Hello #0", "Hello #1", "Hello #2")) { uploaded }
+        }
+
+        @Test fun `failures are rethrown after all files are finished`() {
+            val upload = Upload()
+            UI.getCurrent().add(upload)
+            var allFinishedCalled = false
+            upload.addAllFinishedListener { allFinishedCalled = true }
+            val completed = AtomicInteger()
+            upload.setUploadHandler(object : UploadHandler {
+                override fun handleUploadRequest(event: UploadEvent) {
+                    if (event.fileName == "file1.txt" || event.fileName == "file3.txt") {
+                        throw IOException("simulated ${event.fileName}")
+                    }
+                    event.inputStream.readAllBytes()
+                    completed.incrementAndGet()
+                }
+            })
+            val e: IOException = expectThrows(IOException::class, "simulated file") {
+                upload._uploadConcurrently(files(5))
+            }
+            expect(1) { e.suppressed.size }
+            expect(3) { completed.get() }
+            expect(true) { allFinishedCalled }
+        }
+
+        @Test fun `receiver is not supported`() {
+            val upload = Upload()
+            UI.getCurrent().add(upload)
+            upload.receiver = MemoryBuffer()
+            expectThrows(IllegalStateException::class, "_uploadConcurrently() requires an UploadHandler") {
+                upload._uploadConcurrently(files(2))
+            }
+        }
+    }
+
     /**
      * The new Vaadin 24.8 [UploadHandler].
      */
@@ -235,6 +517,42 @@ abstract class AbstractUploadTests() {
     }
 }
 
+/**
+ * Produces [size] bytes without allocating them; [position] tells how many bytes were read so far.
+ */
+class GeneratedInputStream(val size: Long) : InputStream() {
+    var position: Long = 0
+        private set
+
+    override fun read(): Int = if (position >= size) -1 else (position++ % 256).toInt()
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        if (position >= size) return -1
+        val count: Int = minOf(len.toLong(), size - position).toInt()
+        for (i in 0 until count) {
+            b[off + i] = (position + i).toByte()
+        }
+        position += count
+        return count
+    }
+}
+
+/**
+ * Counts the bytes written, discarding them.
+ */
+class CountingOutputStream : OutputStream() {
+    var count: Long = 0
+        private set
+
+    override fun write(b: Int) {
+        count++
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        count += len
+    }
+}
+
 /**
  * Stores uploaded file to [out]. Calls [successCallback] when the transfer completes successfully.
  */
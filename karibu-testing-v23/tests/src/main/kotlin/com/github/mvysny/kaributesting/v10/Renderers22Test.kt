@@ -1,5 +1,6 @@
 package com.github.mvysny.kaributesting.v10
 
+import com.github.mvysny.kaributools.textRecursively
 import com.vaadin.flow.component.grid.Grid
 import com.vaadin.flow.data.renderer.LitRenderer
 import org.junit.jupiter.api.AfterEach
@@ -39,6 +40,47 @@ abstract class AbstractRenderers22Tests() {
             expect("item/25") { body.select("a").attr("href") }
             expect("Item #25") { body.select("a").text() }
         }
+        @Test fun `placeholders without value provider are kept`() {
+            val r = LitRenderer.of<Int>("<b>\${item.foo}</b> \${item.bar} \${item.foo}")
+                .withProperty("foo") { "#$it" }
+            expect("<b>#25</b> \${item.bar} #25") { r._getPresentationHtml(25) }
+            expect("#25 \${item.bar} #25") { r._getPresentationValue(25) }
+        }
+        @Test fun `value providers are called once per cell`() {
+            var calls = 0
+            val r = LitRenderer.of<Int>("\${item.foo}, \${item.foo}, \${item.foo}")
+                .withProperty("foo") { calls++; it }
+            expect("25, 25, 25") { r._getPresentationValue(25) }
+            expect(1) { calls }
+        }
+        @Test fun `_getPresentationValue() produces the same text as JSoup`() {
+            val templates = listOf(
+                "<div>\${item.foo}</div>",
+                "<span><a href='item/\${item.bar}'>\${item.foo}</a></span>",
+                "<a href=\${item.bar}>\${item.foo}</a>  <span>\${item.bar}</span>",
+                "<ul><li>\${item.foo}</li><li>\${item.bar}</li></ul>\${item.foo}",
+                "<table><tr><td>\${item.foo}</td></tr></table>",
+                "&nbsp;\${item.foo}&amp;",
+                "<\${item.bar}>\${item.foo}</\${item.bar}>",
+                "<!-- \${item.bar} -->\${item.foo}",
+                "<pre> \${item.foo}  </pre>",
+                "plain \${item.foo} text"
+            )
+            val values = listOf("Item #25", "25", "", " lead", "trail ", "two  spaces", "<b>bold</b>", "a & b",
+                "it's \"quoted\"", "x>y", "line\nbreak", "tab\tbed", "non breaking", "span", "item/25")
+            for (template in templates) {
+                for (foo in values) {
+                    for (bar in listOf("span", "25", "a b", "'x'", "<i>")) {
+                        val r = LitRenderer.of<Int>(template)
+                            .withProperty("foo") { foo }
+                            .withProperty("bar") { bar }
+                        expect(r._getPresentationJsoup(25).textRecursively, "template: $template, foo: $foo, bar: $bar") {
+                            r._getPresentationValue(25)
+                        }
+                    }
+                }
+            }
+        }
     }
 
     @Nested inner class GridColumnLitRenderer {
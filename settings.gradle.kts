@@ -3,6 +3,7 @@ include(
         "karibu-testing-v10-groovy",
         "karibu-testing-v10-pro-groovy",
         "karibu-testing-v10-spring",
+        "karibu-testing-benchmarks",
         "karibu-testing-v10:tests",
         "karibu-testing-v23",
         "karibu-testing-v24",